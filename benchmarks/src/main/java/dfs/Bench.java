@@ -0,0 +1,138 @@
+package dfs;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.rmi.*;
+import java.rmi.registry.*;
+import java.rmi.server.*;
+import java.util.*;
+
+/**
+ * This class has what the benchmarks share: files of a given size in a temporary
+ * directory, and servers running in the benchmark's JVM.
+ * Servers are called directly, without RMI, unless a benchmark measures RMI itself.
+ * They run without a write-ahead log and log warnings only, unless dfs.wal.dir
+ * or dfs.log.level are set with -jvmArgs.
+ **/
+
+final class Bench {
+
+	private static final String[] WORDS = {
+		"file", "server", "client", "cache", "entry", "owner", "reader", "upload",
+		"download", "lease", "the", "a", "of", "to", "is", "and", "int", "return" };
+
+	private Bench() {
+	}
+
+	/**
+	 * @return byte[] size bytes of words and line breaks, which compress about as well as
+	 * text files do. The same seed always gives the same bytes
+	 */
+	static byte[] content(int size, long seed) {
+		Random random = new Random(seed);
+		StringBuilder text = new StringBuilder(size + 16);
+		while (text.length() < size) {
+			text.append(WORDS[random.nextInt(WORDS.length)]);
+			text.append(random.nextInt(10) == 0 ? '\n' : ' ');
+		}
+		return Arrays.copyOf(text.toString().getBytes(StandardCharsets.US_ASCII), size);
+	}
+
+	/**
+	 * @return Path a new temporary directory
+	 */
+	static Path tempDir(String prefix) throws IOException {
+		return Files.createTempDirectory("dfs-bench-" + prefix);
+	}
+
+	/**
+	 * writes a file of size bytes
+	 * @return String the absolute name of the file, as the server is asked for it
+	 */
+	static String write(Path dir, String name, int size) throws IOException {
+		Path file = dir.resolve(name);
+		Files.write(file, content(size, name.hashCode()));
+		return file.toAbsolutePath().toString();
+	}
+
+	/**
+	 * @return FileServer a server that isn't bound in a registry, with no write-ahead log
+	 */
+	static FileServer newServer() throws RemoteException {
+		return newServer(freePort());
+	}
+
+	/**
+	 * @return FileServer a server known to other servers as localhost:port
+	 */
+	static FileServer newServer(int port) throws RemoteException {
+		if (System.getProperty("dfs.wal.dir") == null)
+			System.setProperty("dfs.wal.dir", "none");
+		if (System.getProperty("dfs.log.level") == null)
+			System.setProperty("dfs.log.level", "WARN");
+		System.setProperty("dfs.replica.self", "localhost:" + port);
+		try {
+			return new FileServer(port);
+		} finally {
+			System.clearProperty("dfs.replica.self");
+		}
+	}
+
+	/**
+	 * binds a server as "server" in a new registry on port, so that clients
+	 * and other servers reach it over RMI as localhost:port
+	 * @return Registry the registry, to be unexported with the server
+	 */
+	static Registry bind(FileServer server, int port) throws RemoteException {
+		Registry registry = LocateRegistry.createRegistry(port);
+		registry.rebind("server", server);
+		return registry;
+	}
+
+	/**
+	 * writes back the files a benchmark uploaded, stops the server and deletes dir,
+	 * so the server's shutdown hook finds nothing left to write
+	 */
+	static void close(FileServer server, Path dir, Collection<String> fileNames) throws IOException {
+		for (String fileName : fileNames) {
+			ServerEntry entry = server.getEntry(fileName);
+			if (entry == null)
+				continue;
+			entry.lock();
+			try {
+				if (entry.isDirty())
+					entry.saveContent();
+			} finally {
+				entry.unlock();
+			}
+		}
+		UnicastRemoteObject.unexportObject(server, true);
+		delete(dir);
+	}
+
+	/**
+	 * deletes a directory and everything in it
+	 */
+	static void delete(Path dir) throws IOException {
+		if (dir == null || !Files.exists(dir))
+			return;
+		List<Path> paths = new ArrayList<Path>();
+		Files.walk(dir).forEach(paths::add);
+		Collections.reverse(paths);				// files before their directories
+		for (Path path : paths)
+			Files.deleteIfExists(path);
+	}
+
+	/**
+	 * @return int a port nobody listens on right now
+	 */
+	static int freePort() {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		} catch (IOException ie) {
+			throw new UncheckedIOException(ie);
+		}
+	}
+}
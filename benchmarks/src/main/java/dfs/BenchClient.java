@@ -0,0 +1,97 @@
+package dfs;
+
+import java.rmi.*;
+import java.rmi.registry.*;
+import java.rmi.server.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * This class is a client the benchmarks run against a server in the same JVM.
+ * It has a registry of its own on its own port, so the server calls it back over
+ * RMI as it calls real clients, and its id is "localhost:port".
+ * Asked to write a file back it says it is still editing it: the benchmark
+ * uploads the file itself once it is done.
+ **/
+
+class BenchClient extends UnicastRemoteObject implements ClientInterface {
+
+	private final Registry registry;
+	private final String id;
+	private final ConcurrentHashMap<Long, CompletableFuture<String>> grants
+		= new ConcurrentHashMap<Long, CompletableFuture<String>>();
+	final LongAdder invalidations = new LongAdder();
+
+	BenchClient() throws RemoteException {
+		this(Bench.freePort());
+	}
+
+	BenchClient(int port) throws RemoteException {
+		registry = LocateRegistry.createRegistry(port);
+		registry.rebind("client", this);
+		id = "localhost:" + port;
+	}
+
+	/**
+	 * @return String the id the client gives the server
+	 */
+	String id() {
+		return id;
+	}
+
+	public boolean invalidate( String fileName ) throws RemoteException {
+		invalidations.increment();
+		return true;
+	}
+
+	public boolean writeback( String fileName ) throws RemoteException {
+		return false;
+	}
+
+	public boolean ping( ) throws RemoteException {
+		return true;
+	}
+
+	public boolean writeGranted( String fileName, long ticket ) throws RemoteException {
+		grantOf(ticket).complete(fileName);
+		return true;
+	}
+
+	/**
+	 * @return CompletableFuture<String> completed when the server grants ticket
+	 */
+	CompletableFuture<String> grantOf(long ticket) {
+		return grants.computeIfAbsent(ticket, t -> new CompletableFuture<String>());
+	}
+
+	/**
+	 * queues a write request and waits until it is granted, as FileClient does
+	 * @return long id of the read transfer of the content, -1 if the request failed
+	 */
+	long requestWrite(ServerInterface server, String fileName) throws Exception {
+		long ticket = server.requestWrite(id, fileName);
+		if (ticket < 0)
+			return -1;
+		try {
+			long transferId;
+			while ((transferId = server.claimWrite(id, ticket, FileContents.IDENTITY)) == 0) {
+				try {
+					grantOf(ticket).get(100, TimeUnit.MILLISECONDS);
+				} catch (TimeoutException te) {
+					// asks the server again
+				}
+			}
+			return transferId;
+		} finally {
+			grants.remove(ticket);
+		}
+	}
+
+	/**
+	 * stops taking calls
+	 */
+	void close() throws NoSuchObjectException {
+		unexportObject(this, true);
+		unexportObject(registry, true);
+	}
+}
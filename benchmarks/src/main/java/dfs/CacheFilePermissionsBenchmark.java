@@ -0,0 +1,51 @@
+package dfs;
+
+import java.nio.file.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * This benchmark measures what the client pays to change the access mode of a
+ * cached file, which it does on every download and every cache fill:
+ * in-process through CacheFilePermissions, or by running chmod as it used to.
+ * Each call switches the file between read only and read-write, so every call
+ * changes the mode.
+ **/
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CacheFilePermissionsBenchmark {
+
+	private Path dir;
+	private Path file;
+	private boolean readOnly;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		dir = Bench.tempDir("chmod");
+		file = Paths.get(Bench.write(dir, "cached.txt", 1024));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		CacheFilePermissions.apply(file, "w");
+		Bench.delete(dir);
+	}
+
+	@Benchmark
+	public void nio() throws Exception {
+		readOnly = !readOnly;
+		CacheFilePermissions.apply(file, readOnly ? "r" : "w");
+	}
+
+	@Benchmark
+	public int chmod() throws Exception {
+		readOnly = !readOnly;
+		Process process = new ProcessBuilder("chmod", readOnly ? "400" : "600", file.toString()).start();
+		return process.waitFor();
+	}
+}
@@ -0,0 +1,50 @@
+package dfs;
+
+import java.rmi.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * This benchmark measures one callback from the server to a client, an
+ * invalidation over RMI to a client in the same JVM: through the stub kept by
+ * ClientStubCache, and with a registry lookup and a ping before every call,
+ * as the server used to make them. Loopback hides most of the network, so the
+ * difference is mostly the extra round trips and connection setup.
+ **/
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CallbackBenchmark {
+
+	private static final String FILE_NAME = "/tmp/file.txt";
+
+	private BenchClient client;
+	private ClientStubCache stubs;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		client = new BenchClient();
+		stubs = new ClientStubCache(0, Long.MAX_VALUE / 2);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		client.close();
+	}
+
+	@Benchmark
+	public boolean cachedStub() throws Exception {
+		return stubs.invoke(client.id(), stub -> stub.invalidate(FILE_NAME));
+	}
+
+	@Benchmark
+	public boolean lookupEachCall() throws Exception {
+		ClientInterface stub = (ClientInterface) Naming.lookup("rmi://" + client.id() + "/client");
+		stub.ping();
+		return stub.invalidate(FILE_NAME);
+	}
+}
@@ -0,0 +1,80 @@
+package dfs;
+
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+/**
+ * This benchmark calls FileServer.download and upload directly, without RMI, on one
+ * file of each size: a whole-file read, a read the client's copy is current for,
+ * a chunked read through openRead and readChunk, and a write, that is a download
+ * in "w" mode followed by an upload of new content.
+ * There is a single client, so nobody is called back.
+ **/
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DownloadUploadBenchmark {
+
+	private static final String CLIENT = "localhost:1";
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	@Param({"1024", "65536", "1048576"})
+	public int size;
+
+	private Path dir;
+	private FileServer server;
+	private String fileName;
+	private long version;
+	private FileContents[] uploads;			// two contents, so no upload is unchanged
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		dir = Bench.tempDir("download");
+		server = Bench.newServer();
+		fileName = Bench.write(dir, "file.txt", size);
+		version = server.download(CLIENT, fileName, "r").getVersion();
+		uploads = new FileContents[] {
+			new FileContents(Bench.content(size, 1)), new FileContents(Bench.content(size, 2)) };
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		Bench.close(server, dir, Collections.singleton(fileName));
+	}
+
+	@Benchmark
+	public FileContents download() throws Exception {
+		return server.download(CLIENT, fileName, "r");
+	}
+
+	@Benchmark
+	public FileContents downloadNotModified() throws Exception {
+		return server.download(CLIENT, fileName, "r", version);
+	}
+
+	@Benchmark
+	public void downloadChunks(Blackhole blackhole) throws Exception {
+		long transferId = server.openRead(CLIENT, fileName, "r", FileContents.IDENTITY);
+		for (long offset = 0; ; offset += CHUNK_SIZE) {
+			FileContents chunk = server.readChunk(transferId, offset, CHUNK_SIZE);
+			blackhole.consume(chunk);
+			if (chunk.get().length < CHUNK_SIZE)
+				return;
+		}
+	}
+
+	@Benchmark
+	public boolean write() throws Exception {
+		server.download(CLIENT, fileName, "w");
+		next ^= 1;
+		return server.upload(CLIENT, fileName, uploads[next]);
+	}
+}
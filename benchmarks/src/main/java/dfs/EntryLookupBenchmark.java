@@ -0,0 +1,63 @@
+package dfs;
+
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * This benchmark looks files up in the file table of a server holding 1k to 1M
+ * entries, as every request does before it locks the entry: a hit on a random
+ * file, and a miss, which also checks the shard of the file.
+ * The files are hard links to one small file, so a million of them
+ * take little space. Filling the table takes a while for the largest size.
+ **/
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class EntryLookupBenchmark {
+
+	@Param({"1000", "100000", "1000000"})
+	public int entries;
+
+	private Path dir;
+	private FileServer server;
+	private String[] fileNames;
+	private String missing;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		dir = Bench.tempDir("lookup");
+		server = Bench.newServer();
+		Path target = Paths.get(Bench.write(dir, "target.txt", 64));
+		fileNames = new String[entries];
+		for (int i = 0; i < entries; i++) {
+			// a few levels of directories, as a real tree has
+			Path parent = dir.resolve(Integer.toString(i % 100)).resolve(Integer.toString(i / 100 % 100));
+			Files.createDirectories(parent);
+			Path link = Files.createLink(parent.resolve("file" + i + ".txt"), target);
+			fileNames[i] = link.toString();
+			server.getOrLoadEntry(fileNames[i]);
+		}
+		missing = dir.resolve("missing.txt").toString();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		Bench.close(server, dir, Collections.<String>emptyList());
+	}
+
+	@Benchmark
+	public ServerEntry hit() {
+		return server.getEntry(fileNames[ThreadLocalRandom.current().nextInt(entries)]);
+	}
+
+	@Benchmark
+	public ServerEntry miss() {
+		return server.getEntry(missing);
+	}
+}
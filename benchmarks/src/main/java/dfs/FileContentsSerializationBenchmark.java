@@ -0,0 +1,61 @@
+package dfs;
+
+import java.io.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * This benchmark measures what RMI pays to send a FileContents: Java serialization
+ * of the object and deserialization of it on the other side, for contents of each
+ * size, sent as they are or deflated. Deflating happens when the server encodes
+ * a chunk, so encode is measured on its own too.
+ **/
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FileContentsSerializationBenchmark {
+
+	@Param({"1024", "65536", "1048576", "16777216"})
+	public int size;
+
+	@Param({FileContents.IDENTITY, FileContents.DEFLATE})
+	public String encoding;
+
+	private byte[] content;
+	private FileContents contents;
+	private byte[] serialized;
+	private ByteArrayOutputStream buffer;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		content = Bench.content(size, 0);
+		contents = FileContents.encode(content, encoding);
+		buffer = new ByteArrayOutputStream(size + 1024);
+		serialized = serialize();
+	}
+
+	@Benchmark
+	public FileContents encode() {
+		return FileContents.encode(content, encoding);
+	}
+
+	@Benchmark
+	public byte[] serialize() throws IOException {
+		buffer.reset();
+		ObjectOutputStream output = new ObjectOutputStream(buffer);
+		output.writeObject(contents);
+		output.close();
+		return buffer.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] deserialize() throws Exception {
+		ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(serialized));
+		FileContents received = (FileContents) input.readObject();
+		return received.get();				// inflated here if it was deflated
+	}
+}
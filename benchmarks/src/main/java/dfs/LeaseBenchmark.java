@@ -0,0 +1,81 @@
+package dfs;
+
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * This benchmark measures the latency of a write to a file that a number of
+ * clients have just read: the writer's download in "w" mode and its upload.
+ * With callbacks the upload invalidates every reader over RMI before it returns;
+ * with read leases (dfs.lease.ms) nobody is called, but the upload waits until
+ * the readers' leases run out. The readers read the file again before every
+ * write, so each write has all of them to deal with.
+ **/
+
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LeaseBenchmark {
+
+	private static final int SIZE = 4096;
+	private static final String WRITER = "localhost:1";
+
+	@Param({"callback", "lease"})
+	public String invalidation;
+
+	@Param({"1", "8", "32"})
+	public int readers;
+
+	@Param({"20"})
+	public long leaseMillis;
+
+	private Path dir;
+	private FileServer server;
+	private String fileName;
+	private List<BenchClient> clients;
+	private FileContents[] uploads;			// two contents, so no upload is unchanged
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		dir = Bench.tempDir("lease");
+		fileName = Bench.write(dir, "file.txt", SIZE);
+		if (invalidation.equals("lease"))
+			System.setProperty("dfs.lease.ms", Long.toString(leaseMillis));
+		try {
+			server = Bench.newServer();
+		} finally {
+			System.clearProperty("dfs.lease.ms");
+		}
+		clients = new ArrayList<BenchClient>();
+		for (int i = 0; i < readers; i++)
+			clients.add(new BenchClient());
+		uploads = new FileContents[] {
+			new FileContents(Bench.content(SIZE, 1)), new FileContents(Bench.content(SIZE, 2)) };
+	}
+
+	@Setup(Level.Invocation)
+	public void read() throws Exception {
+		for (BenchClient client : clients)
+			server.download(client.id(), fileName, "r");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		for (BenchClient client : clients)
+			client.close();
+		Bench.close(server, dir, Collections.singleton(fileName));
+	}
+
+	@Benchmark
+	public boolean write() throws Exception {
+		server.download(WRITER, fileName, "w");
+		next ^= 1;
+		return server.upload(WRITER, fileName, uploads[next]);
+	}
+}
@@ -0,0 +1,121 @@
+package dfs;
+
+import java.nio.file.*;
+import java.rmi.*;
+import java.rmi.registry.*;
+import java.rmi.server.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * This benchmark measures the read throughput of clients going through
+ * ReplicatedServer to a primary alone or to a primary and its replicas,
+ * each server with its own registry, as they would run on separate machines.
+ * Here they all share one JVM and its cores, so the numbers show how reads
+ * are spread and how much contention on the primary goes away, not how
+ * throughput grows with more hardware.
+ **/
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class ReplicaReadBenchmark {
+
+	private static final int FILES = 100;
+	private static final int SIZE = 4096;
+	private static final long READY_MILLIS = 10000;
+
+	@State(Scope.Benchmark)
+	public static class Cluster {
+
+		@Param({"0", "2"})
+		public int replicas;
+
+		Path dir;
+		String[] fileNames;
+		final List<FileServer> servers = new ArrayList<FileServer>();
+		final List<Registry> registries = new ArrayList<Registry>();
+		ServerInterface primary;
+		final List<String> replicaNames = new ArrayList<String>();
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception {
+			dir = Bench.tempDir("replica");
+			fileNames = new String[FILES];
+			for (int i = 0; i < FILES; i++)
+				fileNames[i] = Bench.write(dir, "file" + i + ".txt", SIZE);
+
+			String primaryName = "localhost:" + start();
+			primary = (ServerInterface) Naming.lookup("rmi://" + primaryName + "/server");
+			for (int i = 0; i < replicas; i++) {
+				String replicaName = "localhost:" + start();
+				servers.get(servers.size() - 1).follow(primaryName);
+				awaitReady(replicaName);
+				replicaNames.add(replicaName);
+			}
+		}
+
+		/**
+		 * starts a server in a registry of its own
+		 * @return int the port of the server
+		 */
+		private int start() throws Exception {
+			int port = Bench.freePort();
+			FileServer server = Bench.newServer(port);
+			servers.add(server);
+			registries.add(Bench.bind(server, port));
+			return port;
+		}
+
+		/**
+		 * waits until the replica has heard from its primary and serves reads
+		 */
+		private void awaitReady(String replicaName) throws Exception {
+			ServerInterface replica = (ServerInterface) Naming.lookup("rmi://" + replicaName + "/server");
+			long deadline = System.currentTimeMillis() + READY_MILLIS;
+			while (true) {
+				try {
+					replica.download("localhost:1", fileNames[0], "r");
+					return;
+				} catch (WrongShardException wse) {
+					if (System.currentTimeMillis() > deadline)
+						throw new IllegalStateException("Error: replica " + replicaName + " never caught up");
+					Thread.sleep(50);
+				}
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws Exception {
+			for (FileServer server : servers)			// the primary first, so it stops sending
+				UnicastRemoteObject.unexportObject(server, true);
+			for (Registry registry : registries)
+				UnicastRemoteObject.unexportObject(registry, true);
+			Bench.delete(dir);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Reader {
+
+		ServerInterface server;
+		String id;
+
+		@Setup(Level.Trial)
+		public void setUp(Cluster cluster) {
+			server = cluster.replicas == 0
+				? cluster.primary : new ReplicatedServer(cluster.primary, cluster.replicaNames);
+			id = "localhost:" + (1 + ThreadLocalRandom.current().nextInt(0xffff));
+		}
+	}
+
+	@Benchmark
+	public FileContents read(Cluster cluster, Reader reader) throws Exception {
+		String fileName = cluster.fileNames[ThreadLocalRandom.current().nextInt(FILES)];
+		return reader.server.download(reader.id, fileName, "r");
+	}
+}
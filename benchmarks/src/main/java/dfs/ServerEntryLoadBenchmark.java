@@ -0,0 +1,47 @@
+package dfs;
+
+import java.nio.file.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * This benchmark measures what the first request for a file costs the server:
+ * the ServerEntry is created and its content read from disk, into the storage
+ * backend set with dfs.storage (heap by default; pass -jvmArgs -Ddfs.storage=...
+ * to change it). StorageBackendBenchmark compares the backends themselves.
+ * The file is in the page cache after the first iteration, so this is the
+ * cost of a cold entry rather than of a cold disk. The young generation is
+ * small so that mapped contents are collected, and unmapped, often enough.
+ **/
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmn4m")
+@State(Scope.Benchmark)
+public class ServerEntryLoadBenchmark {
+
+	@Param({"4096", "1048576", "16777216"})
+	public int size;
+
+	private Path dir;
+	private String fileName;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		dir = Bench.tempDir("entry");
+		fileName = Bench.write(dir, "file.txt", size);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		Bench.delete(dir);
+	}
+
+	@Benchmark
+	public ContentStore newServerEntry() throws Exception {
+		ServerEntry entry = new ServerEntry(fileName);
+		return entry.loadContent();
+	}
+}
@@ -0,0 +1,70 @@
+package dfs;
+
+import java.nio.file.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+/**
+ * This benchmark compares the storage backends a server keeps contents in:
+ * loading a file from disk, wrapping uploaded bytes, and reading a chunk back
+ * as readChunk does. Run it with -prof gc to see the allocation rate and GC
+ * time of each backend; heap contents are what the collector has to copy.
+ **/
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StorageBackendBenchmark {
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	@Param({"HEAP", "DIRECT", "MAPPED", "DEDUP"})
+	public StorageBackend storage;
+
+	@Param({"65536", "1048576", "16777216"})
+	public int size;
+
+	private Path dir;
+	private Path file;
+	private byte[] uploaded;
+	private ContentStore loaded;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		dir = Bench.tempDir("storage");
+		file = Paths.get(Bench.write(dir, "file.txt", size));
+		uploaded = Bench.content(size, 1);
+		loaded = storage.load(file);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		Bench.delete(dir);
+	}
+
+	/**
+	 * a mapping is only released when its buffer is collected. A small young
+	 * generation collects often enough that repeated mapped loads stay under the
+	 * system's limit of mappings, and the other backends get the same heap
+	 */
+	@Benchmark
+	@Fork(value = 1, jvmArgsAppend = "-Xmn4m")
+	public ContentStore load() throws Exception {
+		return storage.load(file);
+	}
+
+	@Benchmark
+	public ContentStore wrap() {
+		return storage.wrap(uploaded);
+	}
+
+	@Benchmark
+	public void readChunks(Blackhole blackhole) {
+		for (long offset = 0; offset < size; offset += CHUNK_SIZE)
+			blackhole.consume(loaded.read(offset, CHUNK_SIZE));
+	}
+}
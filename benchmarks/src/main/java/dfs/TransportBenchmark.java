@@ -0,0 +1,75 @@
+package dfs;
+
+import java.nio.file.*;
+import java.rmi.*;
+import java.rmi.registry.*;
+import java.rmi.server.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * This benchmark compares the two ways clients reach the server, RMI and the
+ * binary protocol on dfs.binary.port, by the throughput of whole-file downloads
+ * from several client threads sharing one stub. Both go over loopback, so this
+ * measures the protocols' own costs, serialization and framing, not the network.
+ **/
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class TransportBenchmark {
+
+	@Param({"rmi", "binary"})
+	public String transport;
+
+	@Param({"1024", "65536", "1048576"})
+	public int size;
+
+	private Path dir;
+	private FileServer server;
+	private Registry registry;
+	private BenchClient client;
+	private ServerInterface stub;
+	private String fileName;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		dir = Bench.tempDir("transport");
+		fileName = Bench.write(dir, "file.txt", size);
+		int port = Bench.freePort();
+		server = Bench.newServer(port);
+		registry = Bench.bind(server, port);
+		client = new BenchClient();
+
+		ServerInterface rmi = (ServerInterface) Naming.lookup("rmi://localhost:" + port + "/server");
+		if (transport.equals("rmi")) {
+			stub = rmi;
+		} else {
+			int binaryPort = Bench.freePort();
+			System.setProperty("dfs.binary.port", Integer.toString(binaryPort));
+			try {
+				server.startBinaryServer();
+			} finally {
+				System.clearProperty("dfs.binary.port");
+			}
+			stub = new BinaryServerStub("localhost", binaryPort, client.id(), client, rmi);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		client.close();
+		UnicastRemoteObject.unexportObject(registry, true);
+		Bench.close(server, dir, Collections.<String>emptyList());
+	}
+
+	@Benchmark
+	public FileContents download() throws Exception {
+		return stub.download(client.id(), fileName, "r");
+	}
+}
@@ -0,0 +1,70 @@
+package dfs;
+
+import java.nio.file.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * This benchmark measures how long a server takes to replay its write-ahead log
+ * at startup, for logs of a given number of uploads spread over 100 files.
+ * Replaying deletes the log, so a copy of it is put back before every replay,
+ * which makes each measurement a single shot.
+ **/
+
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WalReplayBenchmark {
+
+	private static final int FILES = 100;
+
+	@Param({"1000", "10000"})
+	public int records;
+
+	@Param({"4096", "65536"})
+	public int size;
+
+	private Path dir;
+	private Path saved;
+	private Path logDir;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		dir = Bench.tempDir("wal");
+		saved = dir.resolve("saved");
+		logDir = dir.resolve("wal");
+		String[] fileNames = new String[FILES];
+		for (int i = 0; i < FILES; i++)
+			fileNames[i] = Bench.write(dir, "file" + i + ".txt", size);
+
+		WriteAheadLog log = new WriteAheadLog(saved);
+		try {
+			for (int i = 0; i < records; i++)
+				log.append(fileNames[i % FILES], Bench.content(size, i));
+		} finally {
+			log.close();
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void restoreLog() throws Exception {
+		Files.createDirectories(logDir);
+		try (DirectoryStream<Path> segments = Files.newDirectoryStream(saved)) {
+			for (Path segment : segments)
+				Files.copy(segment, logDir.resolve(segment.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		Bench.delete(dir);
+	}
+
+	@Benchmark
+	public int replay() throws Exception {
+		return WriteAheadLog.replay(logDir);
+	}
+}
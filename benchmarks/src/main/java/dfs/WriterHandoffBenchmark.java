@@ -0,0 +1,95 @@
+package dfs;
+
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * This benchmark has several clients write one file in turn, measuring how fast
+ * ownership passes from one writer to the next through addWriter and updateContent.
+ * Each thread is a client of its own, called back over RMI: asked to write back it
+ * says it is still editing, so the next writer waits until the owner uploads.
+ * In "blocking" mode a writer waits in download, holding a server thread;
+ * in "queued" mode it queues with requestWrite and is told with writeGranted.
+ * Every upload is new content, so none of them is an unchanged release.
+ **/
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class WriterHandoffBenchmark {
+
+	private static final int SIZE = 4096;
+
+	@State(Scope.Benchmark)
+	public static class Shared {
+
+		@Param({"blocking", "queued"})
+		public String mode;
+
+		Path dir;
+		FileServer server;
+		String fileName;
+		final AtomicLong uploads = new AtomicLong();
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception {
+			dir = Bench.tempDir("handoff");
+			server = Bench.newServer();
+			fileName = Bench.write(dir, "file.txt", SIZE);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws Exception {
+			Bench.close(server, dir, Collections.singleton(fileName));
+		}
+
+		/**
+		 * @return FileContents content no upload has had before
+		 */
+		FileContents nextContent(byte[] base) {
+			byte[] content = Arrays.copyOf(base, base.length);
+			ByteBuffer.wrap(content).putLong(uploads.incrementAndGet());
+			return new FileContents(content);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Writer {
+
+		BenchClient client;
+		byte[] base;
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception {
+			client = new BenchClient();
+			base = Bench.content(SIZE, client.id().hashCode());
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws Exception {
+			client.close();
+		}
+	}
+
+	@Benchmark
+	public boolean write(Shared shared, Writer writer) throws Exception {
+		FileServer server = shared.server;
+		String id = writer.client.id();
+		if (shared.mode.equals("blocking")) {
+			server.download(id, shared.fileName, "w");
+		} else {
+			long transferId = writer.client.requestWrite(server, shared.fileName);
+			if (transferId < 0)
+				return false;
+			server.readChunk(transferId, 0, SIZE + 1);		// one read to the end closes the transfer
+		}
+		return server.upload(id, shared.fileName, shared.nextContent(writer.base));
+	}
+}
@@ -0,0 +1,88 @@
+package dfs;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * This class remembers in which order the user opens files, as counts of
+ * which file was opened right after which. The files most often opened after
+ * the current one are the ones worth prefetching.
+ * It is saved in the cache directory, so it carries over between sessions.
+ **/
+
+public class AccessHistory {
+
+	private final Map<String, Map<String, Integer>> successors	// file -> next file -> times
+				= new HashMap<String, Map<String, Integer>>();
+	private String last;									// file opened last
+
+	/**
+	 * records that fileName was opened, after the file opened before it
+	 */
+	public synchronized void record(String fileName) {
+		if (last != null && !last.equals(fileName))
+			successors.computeIfAbsent(last, f -> new HashMap<String, Integer>())
+					  .merge(fileName, 1, Integer::sum);
+		last = fileName;
+	}
+
+	/**
+	 * @param fileName the file opened now
+	 * @param count the maximum number of files returned
+	 * @param minShare how often, out of all the files opened after fileName,
+	 * a file must have come next to be returned
+	 * @return List<String> the files most likely to be opened next, most likely first
+	 */
+	public synchronized List<String> predict(String fileName, int count, double minShare) {
+		Map<String, Integer> next = successors.get(fileName);
+		if (next == null)
+			return Collections.emptyList();
+		int total = 0;
+		for (int times : next.values())
+			total += times;
+
+		List<Map.Entry<String, Integer>> candidates = new ArrayList<Map.Entry<String, Integer>>(next.entrySet());
+		candidates.sort((a, b) -> b.getValue() - a.getValue());
+		List<String> predicted = new ArrayList<String>();
+		for (Map.Entry<String, Integer> candidate : candidates) {
+			if (predicted.size() == count || candidate.getValue() < minShare * total)
+				break;
+			predicted.add(candidate.getKey());
+		}
+		return predicted;
+	}
+
+	/**
+	 * reads a history saved with save, nothing happens if there is none
+	 */
+	public synchronized void load(Path path) {
+		if (!Files.isReadable(path))
+			return;
+		try {
+			for (String line : Files.readAllLines(path)) {
+				String[] fields = line.split("\t");
+				if (fields.length == 3)
+					successors.computeIfAbsent(fields[0], f -> new HashMap<String, Integer>())
+							  .merge(fields[1], Integer.parseInt(fields[2]), Integer::sum);
+			}
+		} catch (IOException | NumberFormatException e) {
+			System.out.println("Error: in AccessHistory.load()");
+		}
+	}
+
+	/**
+	 * writes the history as lines of file, next file and times
+	 */
+	public synchronized void save(Path path) {
+		List<String> lines = new ArrayList<String>();
+		for (Map.Entry<String, Map<String, Integer>> file : successors.entrySet())
+			for (Map.Entry<String, Integer> next : file.getValue().entrySet())
+				lines.add(file.getKey() + "\t" + next.getKey() + "\t" + next.getValue());
+		try {
+			Files.write(path, lines);
+		} catch (IOException e) {
+			System.out.println("Error: in AccessHistory.save()");
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package dfs;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+
+/**
+ * This class replaces the content of a file so that a crash never leaves it torn.
+ * The content is written through a FileChannel into a temporary file next to the target,
+ * optionally forced to disk, and then renamed over the target in one atomic step.
+ * Content that arrives in pieces can be written into createTemp's file as it comes
+ * and moved into place with replace.
+ **/
+
+public class AtomicFileWriter {
+
+	/**
+	 * replaces the content of target with data
+	 * @param target the file to replace
+	 * @param data the new content, from its position to its limit
+	 * @param sync true to force the content and the rename to the device
+	 * @throws IOException if writing or renaming went wrong, target is left as it was
+	 */
+	public static void write(Path target, ByteBuffer data, boolean sync) throws IOException {
+		Path temp = createTemp(target);
+		try {
+			FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+			try {
+				while (data.hasRemaining())
+					channel.write(data);
+			} finally {
+				channel.close();
+			}
+			replace(temp, target, sync);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * creates an empty temporary file next to target, with the mode of target,
+	 * to be filled and then moved over target with replace
+	 * @throws IOException if the file couldn't be created
+	 */
+	public static Path createTemp(Path target) throws IOException {
+		Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), "." + target.getFileName(), ".tmp");
+		copyPermissions(target, temp);
+		return temp;
+	}
+
+	/**
+	 * moves a file made by createTemp over target in one atomic step
+	 * @param sync true to force the content of temp and the rename to the device
+	 * @throws IOException if forcing or renaming went wrong, target is left as it was
+	 */
+	public static void replace(Path temp, Path target, boolean sync) throws IOException {
+		if (sync) {
+			FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+			try {
+				channel.force(true);
+			} finally {
+				channel.close();
+			}
+		}
+		try {
+			Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+		if (sync)
+			syncDirectory(target.toAbsolutePath().getParent());
+	}
+
+	/**
+	 * keeps the mode of the file being replaced, temporary files are created owner only
+	 */
+	private static void copyPermissions(Path from, Path to) throws IOException {
+		try {
+			Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+		} catch (NoSuchFileException | UnsupportedOperationException e) {
+			// new file or no POSIX permissions, keep the defaults
+		}
+	}
+
+	/**
+	 * forces the directory entry of the rename to disk, where the platform allows it
+	 */
+	private static void syncDirectory(Path dir) {
+		try {
+			FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ);
+			try {
+				channel.force(true);
+			} finally {
+				channel.close();
+			}
+		} catch (IOException e) {
+			// directories can't be opened for syncing on every platform
+		}
+	}
+}
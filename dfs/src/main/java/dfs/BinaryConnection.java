@@ -0,0 +1,230 @@
+package dfs;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.rmi.RemoteException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * This class is one end of a binary protocol connection.
+ * A reader thread takes frames off the channel: responses complete the call waiting
+ * for them, requests are handed to the handler on the dispatch pool, so a slow request
+ * never holds up the others. Writes from any thread are serialized by a lock and use
+ * gathering writes, so a content buffer goes to the socket without being copied.
+ **/
+
+public class BinaryConnection {
+
+	/*
+	handles a request that arrived on a connection, and answers it with respond()
+	*/
+	public interface Handler {
+		void request(BinaryConnection connection, byte type, long requestId, ByteBuffer payload)
+			throws Exception;
+	}
+
+	private final SocketChannel channel;
+	private final Handler handler;
+	private final ExecutorService dispatcher;
+	private final Object writeLock = new Object();
+	private final AtomicLong nextRequestId = new AtomicLong();
+	private final ConcurrentHashMap<Long, CompletableFuture<ByteBuffer>> pending
+				= new ConcurrentHashMap<Long, CompletableFuture<ByteBuffer>>();
+	private final CompletableFuture<Void> closed = new CompletableFuture<Void>();
+	private volatile String peerId;				// client id sent in HELLO
+
+	/**
+	 * @param channel a connected, blocking channel
+	 * @param handler handles the requests sent by the other end
+	 * @param dispatcher runs the handler
+	 */
+	public BinaryConnection(SocketChannel channel, Handler handler, ExecutorService dispatcher) {
+		this.channel = channel;
+		this.handler = handler;
+		this.dispatcher = dispatcher;
+	}
+
+	/**
+	 * starts the reader thread
+	 */
+	public void start(ThreadFactory threads) {
+		threads.newThread(this::readLoop).start();
+	}
+
+	/**
+	 * sends a request and returns without waiting for the answer
+	 * @return CompletableFuture<ByteBuffer> completed with the payload of the response
+	 * after its status, or failed with a RemoteException
+	 */
+	public CompletableFuture<ByteBuffer> send(byte type, ByteBuffer... payload) {
+		long requestId = nextRequestId.incrementAndGet();
+		CompletableFuture<ByteBuffer> response = new CompletableFuture<ByteBuffer>();
+		pending.put(requestId, response);
+		try {
+			write(type, requestId, payload);
+		} catch (IOException ie) {
+			pending.remove(requestId);
+			response.completeExceptionally(new RemoteException("binary connection failed", ie));
+		}
+		if (closed.isDone() && pending.remove(requestId) != null)
+			response.completeExceptionally(new RemoteException("binary connection closed"));
+		return response;
+	}
+
+	/**
+	 * sends a request and waits for the answer
+	 * @throws RemoteException if the connection failed or the other end reported an error
+	 */
+	public ByteBuffer call(byte type, ByteBuffer... payload) throws RemoteException {
+		return call(type, 0, payload);
+	}
+
+	/**
+	 * sends a request and waits at most timeoutMillis for the answer, 0 waits as long as it takes
+	 * @throws RemoteException if the connection failed, the other end reported an error
+	 * or it didn't answer in time
+	 */
+	public ByteBuffer call(byte type, long timeoutMillis, ByteBuffer... payload) throws RemoteException {
+		CompletableFuture<ByteBuffer> response = send(type, payload);
+		try {
+			if (timeoutMillis <= 0)
+				return response.get();
+			return response.get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException te) {
+			pending.values().remove(response);		// a late answer is dropped
+			throw new RemoteException("no response in " + timeoutMillis + " ms");
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new RemoteException("interrupted while waiting for a response", ie);
+		} catch (ExecutionException ee) {
+			if (ee.getCause() instanceof RemoteException)
+				throw (RemoteException) ee.getCause();
+			throw new RemoteException("binary call failed", ee.getCause());
+		}
+	}
+
+	/**
+	 * answers a request successfully
+	 */
+	public void respond(long requestId, ByteBuffer... payload) throws IOException {
+		ByteBuffer[] withStatus = new ByteBuffer[payload.length + 1];
+		withStatus[0] = ByteBuffer.allocate(1).put(BinaryProtocol.OK).flip();
+		System.arraycopy(payload, 0, withStatus, 1, payload.length);
+		write(BinaryProtocol.RESPONSE, requestId, withStatus);
+	}
+
+	/**
+	 * answers a request with an error, the caller gets a RemoteException
+	 */
+	public void fail(long requestId, String message) throws IOException {
+		ByteBuffer status = ByteBuffer.allocate(1).put(BinaryProtocol.ERROR).flip();
+		write(BinaryProtocol.RESPONSE, requestId, status, BinaryProtocol.strings(String.valueOf(message)));
+	}
+
+	private void write(byte type, long requestId, ByteBuffer... payload) throws IOException {
+		long size = 0;
+		for (ByteBuffer buffer : payload)
+			size += buffer.remaining();
+		ByteBuffer[] frame = new ByteBuffer[payload.length + 1];
+		frame[0] = BinaryProtocol.header(type, requestId, size);
+		System.arraycopy(payload, 0, frame, 1, payload.length);
+		synchronized (writeLock) {
+			long left = size + frame[0].remaining();
+			while (left > 0)
+				left -= channel.write(frame);
+		}
+	}
+
+	/**
+	 * reads frames until the channel is closed
+	 */
+	private void readLoop() {
+		try {
+			ByteBuffer length = ByteBuffer.allocate(4);
+			while (true) {
+				length.clear();
+				readFully(length);
+				int size = length.flip().getInt();
+				if (size < BinaryProtocol.HEADER_SIZE)
+					throw new IOException("bad frame length " + size);
+				ByteBuffer frame = ByteBuffer.allocate(size);
+				readFully(frame);
+				frame.flip();
+				final byte type = frame.get();
+				final long requestId = frame.getLong();
+				final ByteBuffer payload = frame.slice();
+
+				if (type == BinaryProtocol.RESPONSE) {
+					complete(requestId, payload);
+					continue;
+				}
+				dispatcher.execute(() -> {
+					try {
+						handler.request(this, type, requestId, payload);
+					} catch (Exception e) {
+						try {
+							fail(requestId, e.toString());
+						} catch (IOException ie) {
+							close();
+						}
+					}
+				});
+			}
+		} catch (IOException ie) {
+			// the other end went away
+		} finally {
+			close();
+		}
+	}
+
+	private void complete(long requestId, ByteBuffer payload) {
+		CompletableFuture<ByteBuffer> response = pending.remove(requestId);
+		if (response == null)
+			return;
+		if (payload.get() == BinaryProtocol.OK)
+			response.complete(payload.slice());
+		else
+			response.completeExceptionally(new RemoteException(BinaryProtocol.readString(payload)));
+	}
+
+	private void readFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0)
+				throw new EOFException();
+		}
+	}
+
+	/**
+	 * closes the channel and fails every call still waiting for an answer
+	 */
+	public void close() {
+		try {
+			channel.close();
+		} catch (IOException ie) {
+			// closing anyway
+		}
+		closed.complete(null);
+		for (Long requestId : pending.keySet()) {
+			CompletableFuture<ByteBuffer> response = pending.remove(requestId);
+			if (response != null)
+				response.completeExceptionally(new RemoteException("binary connection closed"));
+		}
+	}
+
+	/**
+	 * @return CompletableFuture<Void> completed once the connection is closed
+	 */
+	public CompletableFuture<Void> onClose() {
+		return closed;
+	}
+
+	public String getPeerId() {
+		return peerId;
+	}
+
+	public void setPeerId(String peerId) {
+		this.peerId = peerId;
+	}
+}
@@ -0,0 +1,93 @@
+package dfs;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class holds the constants and field encodings of the binary protocol,
+ * a compact alternative to RMI for downloads, uploads, invalidations and writebacks.
+ *
+ * Every frame is [int length][byte type][long request id][payload], where length
+ * counts everything after itself. A request is answered by a RESPONSE frame with
+ * the same id, whose payload starts with a status byte. Ids let a connection carry
+ * many requests at once in both directions, answered in any order.
+ **/
+
+public class BinaryProtocol {
+
+	// frame types
+	public static final byte RESPONSE = 0;
+	public static final byte HELLO = 1;			// client id, sent first by a client
+	public static final byte DOWNLOAD = 2;		// client, file name, mode, long version of the
+												// client's copy; answered with found flag,
+												// long lease, long version, not modified flag,
+												// content
+	public static final byte UPLOAD = 3;		// client, file name, content
+	public static final byte INVALIDATE = 4;	// file name, sent by the server
+	public static final byte WRITEBACK = 5;		// file name, sent by the server
+	public static final byte PING = 6;			// sent by the server
+	public static final byte WRITE_GRANTED = 7;	// file name, long ticket, sent by the server
+
+	// response status
+	public static final byte OK = 0;
+	public static final byte ERROR = 1;			// followed by a message
+
+	public static final int HEADER_SIZE = 9;	// type and request id, after the length
+	public static final int MAX_FRAME = Integer.MAX_VALUE - 64;
+
+	/**
+	 * @return ByteBuffer the length, type and id of a frame whose payload has payloadSize bytes
+	 */
+	public static ByteBuffer header(byte type, long requestId, long payloadSize) throws IOException {
+		if (payloadSize > MAX_FRAME - HEADER_SIZE)
+			throw new IOException("frame too large: " + payloadSize + " bytes");
+		ByteBuffer header = ByteBuffer.allocate(4 + HEADER_SIZE);
+		header.putInt((int) (HEADER_SIZE + payloadSize)).put(type).putLong(requestId).flip();
+		return header;
+	}
+
+	/**
+	 * @return ByteBuffer the given strings, each as [int length][UTF-8 bytes]
+	 */
+	public static ByteBuffer strings(String... values) {
+		byte[][] encoded = new byte[values.length][];
+		int size = 0;
+		for (int i = 0; i < values.length; i++) {
+			encoded[i] = values[i].getBytes(StandardCharsets.UTF_8);
+			size += 4 + encoded[i].length;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		for (byte[] value : encoded)
+			buffer.putInt(value.length).put(value);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * @return String the next string of a payload
+	 */
+	public static String readString(ByteBuffer payload) {
+		byte[] value = new byte[payload.getInt()];
+		payload.get(value);
+		return new String(value, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return byte[] the next [int length][bytes] field of a payload
+	 */
+	public static byte[] readBytes(ByteBuffer payload) {
+		byte[] value = new byte[payload.getInt()];
+		payload.get(value);
+		return value;
+	}
+
+	/**
+	 * @return ByteBuffer a one byte payload
+	 */
+	public static ByteBuffer flag(boolean value) {
+		ByteBuffer buffer = ByteBuffer.allocate(1);
+		buffer.put((byte) (value ? 1 : 0)).flip();
+		return buffer;
+	}
+}
@@ -0,0 +1,149 @@
+package dfs;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.rmi.RemoteException;
+import java.util.concurrent.*;
+
+/**
+ * This class serves the binary protocol next to RMI. It accepts connections on its own
+ * port and runs downloads and uploads against the same FileServer, so RMI and binary
+ * clients share one file table. A client that said HELLO is called back over its own
+ * connection: its proxy is put into the server's client stub cache.
+ * Download contents are written from the entry's storage straight to the socket.
+ **/
+
+public class BinaryServer {
+
+	private final FileServer fileServer;
+	private final ClientStubCache clientStubs;
+	private final ServerSocketChannel listener;
+	private final ExecutorService dispatcher;		// runs requests, which may wait for a writer
+	private final ThreadFactory readers;
+	private final long callbackTimeout;				// how long a client has to answer a callback
+
+	/**
+	 * @param port the port to listen on
+	 * @param callbackTimeout how long a client called back has to answer, in milliseconds
+	 * @throws IOException if the port couldn't be bound
+	 */
+	public BinaryServer(FileServer fileServer, ClientStubCache clientStubs, int port, long callbackTimeout)
+		throws IOException {
+		this.fileServer = fileServer;
+		this.clientStubs = clientStubs;
+		this.callbackTimeout = callbackTimeout;
+		this.listener = ServerSocketChannel.open();
+		this.listener.bind(new InetSocketAddress(port));
+		this.dispatcher = Executors.newCachedThreadPool(FileServer.daemonThreads("binary-request"));
+		this.readers = FileServer.daemonThreads("binary-connection");
+	}
+
+	/**
+	 * starts accepting connections in the background
+	 */
+	public void start() {
+		FileServer.daemonThreads("binary-accept").newThread(() -> {
+			while (listener.isOpen()) {
+				try {
+					SocketChannel channel = listener.accept();
+					channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+					new BinaryConnection(channel, this::request, dispatcher).start(readers);
+				} catch (IOException ie) {
+					if (listener.isOpen())
+						Log.error("Error: when accepting a binary connection.");
+				}
+			}
+		}).start();
+	}
+
+	/**
+	 * runs one request of a client
+	 */
+	private void request(BinaryConnection connection, byte type, long requestId, ByteBuffer payload)
+		throws Exception
+	{
+		switch (type) {
+		case BinaryProtocol.HELLO:
+			hello(connection, BinaryProtocol.readString(payload));
+			connection.respond(requestId);
+			break;
+		case BinaryProtocol.DOWNLOAD: {
+			String clientIp = BinaryProtocol.readString(payload);
+			String fileName = BinaryProtocol.readString(payload);
+			String mode = BinaryProtocol.readString(payload);
+			long version = payload.getLong();
+			Transfer download = fileServer.downloadContent(clientIp, fileName, mode, version);
+			if (download == null) {
+				connection.respond(requestId, BinaryProtocol.flag(false));
+			} else {
+				ContentStore content = download.getSnapshot();	// under 2 GB, see downloadContent
+				ByteBuffer header = ByteBuffer.allocate(21)
+					.putLong(download.getLeaseMillis()).putLong(download.getVersion())
+					.put((byte) (download.isNotModified() ? 1 : 0)).putInt((int) content.size()).flip();
+				connection.respond(requestId, BinaryProtocol.flag(true), header, content.asByteBuffer());
+			}
+			break;
+		}
+		case BinaryProtocol.UPLOAD: {
+			String clientIp = BinaryProtocol.readString(payload);
+			String fileName = BinaryProtocol.readString(payload);
+			byte[] content = BinaryProtocol.readBytes(payload);
+			boolean updated = fileServer.upload(clientIp, fileName, new FileContents(content));
+			connection.respond(requestId, BinaryProtocol.flag(updated));
+			break;
+		}
+		default:
+			connection.fail(requestId, "unknown request type " + type);
+		}
+	}
+
+	/**
+	 * from now on the client is called back over this connection, until it closes
+	 */
+	private void hello(BinaryConnection connection, String clientIp) {
+		connection.setPeerId(clientIp);
+		ClientInterface proxy = new ClientProxy(connection, callbackTimeout);
+		clientStubs.register(clientIp, proxy);
+		connection.onClose().thenRun(() -> clientStubs.evict(clientIp, proxy));
+		Log.debug("Binary connection from %s.", clientIp);
+	}
+
+	/**
+	 * stops accepting connections
+	 */
+	public void close() throws IOException {
+		listener.close();
+	}
+
+	/*
+	calls a client back over its binary connection
+	*/
+	private static class ClientProxy implements ClientInterface {
+		private final BinaryConnection connection;
+		private final long timeout;					// a hung client fails the call after this
+
+		ClientProxy(BinaryConnection connection, long timeout) {
+			this.connection = connection;
+			this.timeout = timeout;
+		}
+
+		public boolean invalidate( String fileName ) throws RemoteException {
+			return connection.call(BinaryProtocol.INVALIDATE, timeout, BinaryProtocol.strings(fileName)).get() != 0;
+		}
+
+		public boolean writeback( String fileName ) throws RemoteException {
+			return connection.call(BinaryProtocol.WRITEBACK, timeout, BinaryProtocol.strings(fileName)).get() != 0;
+		}
+
+		public boolean ping( ) throws RemoteException {
+			return connection.call(BinaryProtocol.PING, timeout).get() != 0;
+		}
+
+		public boolean writeGranted( String fileName, long ticket ) throws RemoteException {
+			ByteBuffer id = ByteBuffer.allocate(8).putLong(ticket).flip();
+			return connection.call(BinaryProtocol.WRITE_GRANTED, timeout, BinaryProtocol.strings(fileName), id).get() != 0;
+		}
+	}
+}
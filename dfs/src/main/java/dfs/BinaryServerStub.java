@@ -0,0 +1,168 @@
+package dfs;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.rmi.RemoteException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class is the client side of the binary protocol. It implements ServerInterface,
+ * sending download and upload over one binary connection, which also carries the
+ * server's invalidations and writebacks to this client. The other operations of
+ * ServerInterface go through the RMI stub, which stays the compatibility path.
+ **/
+
+public class BinaryServerStub implements ServerInterface {
+
+	private final BinaryConnection connection;
+	private final ServerInterface rmi;				// used for everything else
+
+	/**
+	 * connects to the server and says HELLO, so the server calls this client back
+	 * over the same connection
+	 * @param client receives the server's invalidations and writebacks
+	 * @param rmi the RMI stub of the same server
+	 * @throws IOException if the connection couldn't be made
+	 */
+	public BinaryServerStub(String serverIp, int port, String clientIp,
+							final ClientInterface client, ServerInterface rmi) throws IOException {
+		this.rmi = rmi;
+		SocketChannel channel = SocketChannel.open(new InetSocketAddress(serverIp, port));
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		ExecutorService dispatcher = Executors.newCachedThreadPool(FileServer.daemonThreads("binary-callback"));
+		connection = new BinaryConnection(channel, (conn, type, requestId, payload) -> {
+			boolean result;
+			switch (type) {
+			case BinaryProtocol.INVALIDATE:
+				result = client.invalidate(BinaryProtocol.readString(payload));
+				break;
+			case BinaryProtocol.WRITEBACK:
+				result = client.writeback(BinaryProtocol.readString(payload));
+				break;
+			case BinaryProtocol.PING:
+				result = client.ping();
+				break;
+			case BinaryProtocol.WRITE_GRANTED:
+				result = client.writeGranted(BinaryProtocol.readString(payload), payload.getLong());
+				break;
+			default:
+				conn.fail(requestId, "unknown request type " + type);
+				return;
+			}
+			conn.respond(requestId, BinaryProtocol.flag(result));
+		}, dispatcher);
+		connection.start(FileServer.daemonThreads("binary-connection"));
+		connection.call(BinaryProtocol.HELLO, BinaryProtocol.strings(clientIp));
+	}
+
+	public FileContents download( String client, String filename, String mode ) throws RemoteException {
+		return download(client, filename, mode, -1);
+	}
+
+	public FileContents download( String client, String filename, String mode, long version )
+		throws RemoteException {
+		ByteBuffer clientVersion = ByteBuffer.allocate(8).putLong(version).flip();
+		ByteBuffer response = connection.call(BinaryProtocol.DOWNLOAD,
+			BinaryProtocol.strings(client, filename, mode), clientVersion);
+		if (response.get() == 0)
+			return null;
+		long leaseMillis = response.getLong();
+		long serverVersion = response.getLong();
+		boolean notModified = response.get() != 0;
+		byte[] content = BinaryProtocol.readBytes(response);
+		FileContents contents = notModified
+			? FileContents.notModified(serverVersion) : new FileContents(content);
+		contents.setVersion(serverVersion);
+		contents.setLeaseMillis(leaseMillis);
+		return contents;
+	}
+
+	public boolean upload( String client, String filename, FileContents contents ) throws RemoteException {
+		byte[] content = contents.get();
+		ByteBuffer size = ByteBuffer.allocate(4).putInt(content.length).flip();
+		ByteBuffer response = connection.call(BinaryProtocol.UPLOAD,
+			BinaryProtocol.strings(client, filename), size, ByteBuffer.wrap(content));
+		return response.get() != 0;
+	}
+
+	public long openRead( String client, String filename, String mode ) throws RemoteException {
+		return rmi.openRead(client, filename, mode);
+	}
+
+	public long openRead( String client, String filename, String mode, String acceptEncoding )
+		throws RemoteException {
+		return rmi.openRead(client, filename, mode, acceptEncoding);
+	}
+
+	public long openRead( String client, String filename, String mode, String acceptEncoding, long version )
+		throws RemoteException {
+		return rmi.openRead(client, filename, mode, acceptEncoding, version);
+	}
+
+	public FileContents readChunk( long transferId, long offset, int length ) throws RemoteException {
+		return rmi.readChunk(transferId, offset, length);
+	}
+
+	public long openWrite( String client, String filename ) throws RemoteException {
+		return rmi.openWrite(client, filename);
+	}
+
+	public boolean writeChunk( long transferId, long offset, FileContents chunk ) throws RemoteException {
+		return rmi.writeChunk(transferId, offset, chunk);
+	}
+
+	public boolean commit( long transferId ) throws RemoteException {
+		return rmi.commit(transferId);
+	}
+
+	public boolean uploadDelta( String client, String filename, FileDelta delta ) throws RemoteException {
+		return rmi.uploadDelta(client, filename, delta);
+	}
+
+	public List<FileGrant> downloadBatch( String client, List<FileRequest> requests, String acceptEncoding )
+		throws RemoteException {
+		return rmi.downloadBatch(client, requests, acceptEncoding);
+	}
+
+	public FileContents acquireRange( String client, String filename, long offset, long length )
+		throws RemoteException {
+		return rmi.acquireRange(client, filename, offset, length);
+	}
+
+	public boolean uploadRange( String client, String filename, long offset, FileContents contents )
+		throws RemoteException {
+		return rmi.uploadRange(client, filename, offset, contents);
+	}
+
+	public boolean releaseRange( String client, String filename, long offset ) throws RemoteException {
+		return rmi.releaseRange(client, filename, offset);
+	}
+
+	public long requestWrite( String client, String filename ) throws RemoteException {
+		return rmi.requestWrite(client, filename);
+	}
+
+	public long claimWrite( String client, long ticket, String acceptEncoding ) throws RemoteException {
+		return rmi.claimWrite(client, ticket, acceptEncoding);
+	}
+
+	public long claimWrite( String client, long ticket, String acceptEncoding, long version )
+		throws RemoteException {
+		return rmi.claimWrite(client, ticket, acceptEncoding, version);
+	}
+
+	public FileGrant upgrade( String client, String filename, long version ) throws RemoteException {
+		return rmi.upgrade(client, filename, version);
+	}
+
+	public FileContents downgrade( String client, String filename ) throws RemoteException {
+		return rmi.downgrade(client, filename);
+	}
+
+	public boolean release( String client, String filename ) throws RemoteException {
+		return rmi.release(client, filename);
+	}
+}
@@ -0,0 +1,151 @@
+package dfs;
+
+import java.io.*;
+import java.security.*;
+import java.util.*;
+
+/**
+ * This class keeps a weak rolling checksum and a strong hash of every block of a file,
+ * the way rsync does. The client computes them for the version it downloaded and
+ * later uses them to find which parts of its modified copy the server already has.
+ **/
+
+public class BlockSignatures {
+
+	private final int blockSize;				// size of each block
+	private final int[] weak;					// rolling checksum of each full block
+	private final byte[][] strong;				// MD5 of each full block
+	private final byte[] fileHash;				// MD5 of the whole file
+	private final HashMap<Integer, List<Integer>> blocksByWeak;	// weak checksum -> block indices
+
+	private BlockSignatures(int blockSize, int[] weak, byte[][] strong, byte[] fileHash) {
+		this.blockSize = blockSize;
+		this.weak = weak;
+		this.strong = strong;
+		this.fileHash = fileHash;
+		this.blocksByWeak = new HashMap<Integer, List<Integer>>();
+		for (int i = 0; i < weak.length; i++)
+			blocksByWeak.computeIfAbsent(weak[i], k -> new ArrayList<Integer>()).add(i);
+	}
+
+	/**
+	 * reads a file block by block and computes its signatures
+	 * a trailing partial block is only part of the whole file hash
+	 * @throws IOException if reading the file went wrong
+	 */
+	public static BlockSignatures of(InputStream input, int blockSize) throws IOException {
+		MessageDigest fileDigest = newMd5();
+		ArrayList<Integer> weak = new ArrayList<Integer>();
+		ArrayList<byte[]> strong = new ArrayList<byte[]>();
+		byte[] block = new byte[blockSize];
+		int read;
+		while ((read = input.readNBytes(block, 0, blockSize)) > 0) {
+			fileDigest.update(block, 0, read);
+			if (read < blockSize)
+				break;
+			weak.add(checksum(block, 0, blockSize));
+			strong.add(newMd5().digest(block));
+		}
+		int[] weakArray = new int[weak.size()];
+		for (int i = 0; i < weakArray.length; i++)
+			weakArray[i] = weak.get(i);
+		return new BlockSignatures(blockSize, weakArray, strong.toArray(new byte[0][]), fileDigest.digest());
+	}
+
+	/**
+	 * @return boolean true if content is the version these signatures were computed for
+	 */
+	public boolean matches(byte[] content) {
+		return MessageDigest.isEqual(fileHash, newMd5().digest(content));
+	}
+
+	/**
+	 * compares the modified content against these signatures
+	 * @return FileDelta copies for every block found in target, literals for everything else
+	 */
+	public FileDelta diff(byte[] target) {
+		ArrayList<Integer> ops = new ArrayList<Integer>();
+		ArrayList<byte[]> literals = new ArrayList<byte[]>();
+		MessageDigest digest = newMd5();
+
+		int literalStart = 0;
+		int position = 0;
+		int a = 0, b = 0;						// rolling checksum halves of the current window
+		boolean rolling = false;
+		while (position + blockSize <= target.length) {
+			if (!rolling) {
+				int sum = checksum(target, position, blockSize);
+				a = sum & 0xffff;
+				b = sum >>> 16;
+				rolling = true;
+			}
+			int match = find((b << 16) | a, target, position, digest);
+			if (match >= 0) {
+				if (literalStart < position) {
+					literals.add(Arrays.copyOfRange(target, literalStart, position));
+					ops.add(-literals.size());
+				}
+				ops.add(match);
+				position += blockSize;
+				literalStart = position;
+				rolling = false;
+			} else {
+				// slide the window one byte forward
+				int out = target[position] & 0xff;
+				if (position + blockSize < target.length) {
+					int in = target[position + blockSize] & 0xff;
+					a = (a - out + in) & 0xffff;
+					b = (b - blockSize * out + a) & 0xffff;
+				}
+				position++;
+			}
+		}
+		if (literalStart < target.length) {
+			literals.add(Arrays.copyOfRange(target, literalStart, target.length));
+			ops.add(-literals.size());
+		}
+
+		int[] opArray = new int[ops.size()];
+		for (int i = 0; i < opArray.length; i++)
+			opArray[i] = ops.get(i);
+		return new FileDelta(blockSize, fileHash, target.length, opArray, literals);
+	}
+
+	/**
+	 * @return int index of a block with the given weak checksum whose strong hash
+	 * also matches the window of target at offset, -1 if there is none
+	 */
+	private int find(int weakSum, byte[] target, int offset, MessageDigest digest) {
+		List<Integer> candidates = blocksByWeak.get(weakSum);
+		if (candidates == null)
+			return -1;
+		digest.update(target, offset, blockSize);
+		byte[] hash = digest.digest();
+		for (int candidate : candidates) {
+			if (MessageDigest.isEqual(hash, strong[candidate]))
+				return candidate;
+		}
+		return -1;
+	}
+
+	/**
+	 * rsync's weak checksum: low half is the sum of the bytes,
+	 * high half is the sum of the running sums
+	 */
+	private static int checksum(byte[] data, int offset, int length) {
+		int a = 0, b = 0;
+		for (int i = 0; i < length; i++) {
+			a += data[offset + i] & 0xff;
+			b += (length - i) * (data[offset + i] & 0xff);
+		}
+		return ((b & 0xffff) << 16) | (a & 0xffff);
+	}
+
+	private static MessageDigest newMd5() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
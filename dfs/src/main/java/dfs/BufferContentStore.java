@@ -0,0 +1,46 @@
+package dfs;
+
+import java.nio.*;
+
+/**
+ * This class keeps the content of a file in a ByteBuffer outside the Java heap,
+ * either a direct buffer or a memory-mapped region of the file, so that large
+ * working sets don't grow the garbage collected heap.
+ **/
+
+public class BufferContentStore implements ContentStore {
+
+	private final ByteBuffer content;			// read only, position 0, limit is the size
+
+	/**
+	 * @param content the buffer holding the content from position 0 to its limit
+	 */
+	public BufferContentStore(ByteBuffer content) {
+		this.content = content.asReadOnlyBuffer();
+	}
+
+	public long size() {
+		return content.limit();
+	}
+
+	public byte[] read(long offset, int length) {
+		int from = (int) Math.min(Math.max(offset, 0), content.limit());
+		int to = (int) Math.min((long) from + length, content.limit());
+		byte[] chunk = new byte[to - from];
+		ByteBuffer view = content.duplicate();
+		view.position(from);
+		view.get(chunk);
+		return chunk;
+	}
+
+	/**
+	 * @return byte[] a copy of the content on the heap
+	 */
+	public byte[] toByteArray() {
+		return read(0, content.limit());
+	}
+
+	public ByteBuffer asByteBuffer() {
+		return content.duplicate();
+	}
+}
@@ -0,0 +1,62 @@
+package dfs;
+
+/**
+ * This class is a write token on part of a file: the client holding it may
+ * change the bytes from offset to offset + length while other clients hold
+ * tokens on other parts of the same file.
+ **/
+
+public class ByteRange {
+
+	private final String owner;			// clientIp of the holder
+	private final long offset;			// first byte
+	private final long length;			// number of bytes, may go past the end of the file
+	private volatile long lastAccess = System.currentTimeMillis();	// used to drop abandoned tokens
+
+	public ByteRange(String owner, long offset, long length) {
+		this.owner = owner;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	public String getOwner() {
+		return owner;
+	}
+
+	public long getOffset() {
+		return offset;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return boolean true if the two ranges share at least one byte
+	 */
+	public boolean overlaps(ByteRange other) {
+		return offset < other.offset + other.length && other.offset < offset + length;
+	}
+
+	/**
+	 * @return boolean true if the bytes from offset to offset + length are all in this range
+	 */
+	public boolean covers(long offset, long length) {
+		return this.offset <= offset && offset + length <= this.offset + this.length;
+	}
+
+	public void touch() {
+		lastAccess = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return boolean true if the holder didn't upload to this range for maxIdleMillis
+	 */
+	public boolean isIdle(long now, long maxIdleMillis) {
+		return now - lastAccess > maxIdleMillis;
+	}
+
+	public String toString() {
+		return owner + " [" + offset + ", " + (offset + length) + ")";
+	}
+}
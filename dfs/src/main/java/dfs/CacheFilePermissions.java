@@ -0,0 +1,47 @@
+package dfs;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+
+/**
+ * This class changes the access mode of cached files inside the JVM,
+ * the way "chmod 400" and "chmod 600" did, without creating a process.
+ * On file systems without POSIX permissions it falls back to java.io.File.
+ **/
+
+public class CacheFilePermissions {
+
+	private static final Set<PosixFilePermission> READ_ONLY =
+			Collections.unmodifiableSet(PosixFilePermissions.fromString("r--------"));	// 400
+	private static final Set<PosixFilePermission> READ_WRITE =
+			Collections.unmodifiableSet(PosixFilePermissions.fromString("rw-------"));	// 600
+
+	/**
+	 * makes the file read only for mode "r" and readable and writable by its owner for mode "w"
+	 * nothing is done for other modes or if the file doesn't exist yet
+	 * @throws IOException if the permissions couldn't be changed
+	 */
+	public static void apply(Path path, String mode) throws IOException {
+		Set<PosixFilePermission> permissions;
+		if (mode.equals("r"))
+			permissions = READ_ONLY;
+		else if (mode.equals("w"))
+			permissions = READ_WRITE;
+		else
+			return;
+
+		try {
+			Files.setPosixFilePermissions(path, permissions);
+		} catch (NoSuchFileException e) {
+			// nothing to change yet, the file is created with the default mode
+		} catch (UnsupportedOperationException e) {
+			File file = path.toFile();
+			if (!file.exists())
+				return;
+			file.setReadable(true, true);
+			file.setWritable(mode.equals("w"), true);
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package dfs;
+
+import java.security.*;
+import java.util.*;
+import java.lang.ref.*;
+
+/**
+ * This class is a content-addressed store of file chunks shared by all cached files.
+ * A chunk is identified by the SHA-256 of its bytes, so identical chunks of different
+ * files, or of different versions of one file, are kept only once.
+ * Chunks are held by the DedupContentStores using them, once none does
+ * the garbage collector clears them and they are dropped from the index.
+ **/
+
+public class ChunkStore {
+
+	/*
+	a stored chunk, shared by every content that contains it
+	*/
+	public static final class Chunk {
+		final byte[] data;
+
+		Chunk(byte[] data) {
+			this.data = data;
+		}
+	}
+
+	/*
+	index entry, remembers its key and size so it can be dropped once cleared
+	*/
+	private static final class ChunkRef extends WeakReference<Chunk> {
+		final String key;
+		final int size;
+
+		ChunkRef(String key, Chunk chunk, ReferenceQueue<Chunk> queue) {
+			super(chunk, queue);
+			this.key = key;
+			this.size = chunk.data.length;
+		}
+	}
+
+	private static final ChunkStore SHARED = new ChunkStore();
+
+	private final HashMap<String, ChunkRef> index = new HashMap<String, ChunkRef>();
+	private final ReferenceQueue<Chunk> cleared = new ReferenceQueue<Chunk>();
+	private long storedBytes;					// bytes of distinct chunks
+	private long addedBytes;					// bytes of all chunks ever added
+	private long dedupedBytes;					// bytes that were found in the store
+
+	/**
+	 * @return ChunkStore the store shared by the server's entries
+	 */
+	public static ChunkStore shared() {
+		return SHARED;
+	}
+
+	/**
+	 * @return Chunk the stored chunk with the same bytes as data[from, to),
+	 * stored now if there was none. The chunk is hashed and copied outside the
+	 * store's lock, which only guards the index, so loads and uploads of
+	 * different files hash their chunks in parallel
+	 */
+	public Chunk intern(byte[] data, int from, int to) {
+		String key = hash(data, from, to);
+		Chunk chunk = lookup(key, to - from);
+		if (chunk != null)
+			return chunk;
+		return insert(key, new Chunk(Arrays.copyOfRange(data, from, to)));
+	}
+
+	/**
+	 * @return Chunk the stored chunk with the given key, null if there is none
+	 */
+	private synchronized Chunk lookup(String key, int size) {
+		purge();
+		addedBytes += size;
+		ChunkRef ref = index.get(key);
+		Chunk chunk = ref == null ? null : ref.get();
+		if (chunk != null)
+			dedupedBytes += size;
+		return chunk;
+	}
+
+	/**
+	 * stores a chunk, unless another thread stored the same bytes since lookup
+	 * @return Chunk the chunk that is stored under key
+	 */
+	private synchronized Chunk insert(String key, Chunk chunk) {
+		ChunkRef ref = index.get(key);
+		Chunk stored = ref == null ? null : ref.get();
+		if (stored != null) {
+			dedupedBytes += chunk.data.length;
+			return stored;
+		}
+		if (ref != null)
+			storedBytes -= ref.size;		// cleared but not purged yet
+		index.put(key, new ChunkRef(key, chunk, cleared));
+		storedBytes += chunk.data.length;
+		return chunk;
+	}
+
+	/**
+	 * drops the index entries of chunks no content uses anymore
+	 */
+	private void purge() {
+		Reference<? extends Chunk> ref;
+		while ((ref = cleared.poll()) != null) {
+			ChunkRef chunkRef = (ChunkRef) ref;
+			if (index.remove(chunkRef.key, chunkRef))
+				storedBytes -= chunkRef.size;
+		}
+	}
+
+	/**
+	 * @return long bytes of the distinct chunks currently stored
+	 */
+	public synchronized long getStoredBytes() {
+		purge();
+		return storedBytes;
+	}
+
+	/**
+	 * @return long bytes that were found in the store instead of being stored again
+	 */
+	public synchronized long getDedupedBytes() {
+		return dedupedBytes;
+	}
+
+	/**
+	 * @return String info of the store
+	 */
+	public synchronized String toString() {
+		purge();
+		return "Chunks: " + index.size() + " stored, " + storedBytes + " bytes, " +
+			   dedupedBytes + " of " + addedBytes + " added bytes deduplicated";
+	}
+
+	private static String hash(byte[] data, int from, int to) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(data, from, to - from);
+			return Base64.getEncoder().encodeToString(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package dfs;
+
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * This class holds the files cached by a client, in least recently used order.
+ * The local copies are bounded by a disk budget, once it is exceeded the client
+ * evicts the entries returned by victims(). Files the client owns or the user
+ * has open are never victims, owned files leave the cache once they are written back.
+ **/
+
+public class ClientCache {
+
+	private final long capacity;						// disk budget in bytes
+	private final LinkedHashMap<String, ClientCacheEntry> entries	// least recent first
+				= new LinkedHashMap<String, ClientCacheEntry>(16, 0.75f, true);
+	private final HashMap<String, ClientCacheEntry> index	// same entries, lookups here
+				= new HashMap<String, ClientCacheEntry>();		// don't change the order
+
+	/**
+	 * @param capacity the maximum number of bytes of local copies
+	 */
+	public ClientCache(long capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @return ClientCacheEntry the entry of the file, null if it is not cached.
+	 * counts as a use of the entry
+	 */
+	public synchronized ClientCacheEntry get(String fileName) {
+		return entries.get(fileName);
+	}
+
+	/**
+	 * @return ClientCacheEntry the entry of the file, without counting it as a use
+	 */
+	public synchronized ClientCacheEntry peek(String fileName) {
+		return index.get(fileName);
+	}
+
+	/**
+	 * @return ClientCacheEntry the entry of the file, created and added with create
+	 * if it is not cached, so that two threads never both add an entry for it.
+	 * counts as a use of the entry
+	 */
+	public synchronized ClientCacheEntry computeIfAbsent(String fileName,
+			Function<String, ClientCacheEntry> create) {
+		ClientCacheEntry entry = entries.get(fileName);
+		if (entry == null) {
+			entry = create.apply(fileName);
+			put(entry);
+		}
+		return entry;
+	}
+
+	/**
+	 * adds an entry as the most recently used one
+	 */
+	public synchronized void put(ClientCacheEntry entry) {
+		entries.put(entry.fileName, entry);
+		index.put(entry.fileName, entry);
+	}
+
+	/**
+	 * removes an entry
+	 */
+	public synchronized void remove(ClientCacheEntry entry) {
+		entries.remove(entry.fileName, entry);
+		index.remove(entry.fileName, entry);
+	}
+
+	/**
+	 * @return List<ClientCacheEntry> all entries, least recently used first
+	 */
+	public synchronized List<ClientCacheEntry> entries() {
+		return new ArrayList<ClientCacheEntry>(entries.values());
+	}
+
+	/**
+	 * @return List<ClientCacheEntry> least recently used entries that have to go
+	 * for the cache to fit its budget, never including keep, files this client owns
+	 * or files the user has open
+	 */
+	public synchronized List<ClientCacheEntry> victims(ClientCacheEntry keep) {
+		List<ClientCacheEntry> victims = new ArrayList<ClientCacheEntry>();
+		long used = 0;
+		for (ClientCacheEntry entry : entries.values())
+			used += entry.size();
+		for (ClientCacheEntry entry : entries.values()) {
+			if (used <= capacity)
+				break;
+			if (entry == keep || entry.isOwned() || !entry.doneWriting)
+				continue;
+			victims.add(entry);
+			used -= entry.size();
+		}
+		return victims;
+	}
+
+	/**
+	 * @return long the disk budget
+	 */
+	public long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return String the cached files
+	 */
+	public synchronized String toString() {
+		return entries.values().toString();
+	}
+}
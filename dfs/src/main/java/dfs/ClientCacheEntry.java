@@ -0,0 +1,83 @@
+package dfs;
+
+/**
+ * This class is used by the client to keep one cached file.
+ * It has information about the file's name, where its copy is on the local disk,
+ * the access mode and state of the copy, and whether the user is still editing it.
+ **/
+
+public class ClientCacheEntry {
+
+	protected final String fileName;					// name of the file on the server
+	protected final String path;						// path of the local copy
+	protected volatile String mode;						// mode of the file
+	protected volatile FileClient.ClientFileState state;	// state of the file
+	protected volatile boolean doneWriting;				// the user closed the file
+	protected BlockSignatures baseSignatures;			// signatures of the downloaded version
+	protected volatile boolean prefetched;				// downloaded ahead of time, not opened yet
+	protected volatile long leaseExpiry = Long.MAX_VALUE;	// a read copy is only used before this,
+														// MAX_VALUE until the server calls back
+	protected volatile long version = -1;				// server's version of the local copy,
+														// -1 if unknown or changed here
+
+	/**
+	 * sets state to INVALID, nothing is on disk yet
+	 * @param fileName name of the file on the server
+	 * @param path where the local copy is kept
+	 */
+	public ClientCacheEntry(String fileName, String path) {
+		this.fileName = fileName;
+		this.path = path;
+		this.state = FileClient.ClientFileState.INVALID;
+	}
+
+	/**
+	* @return boolean true if the copy can be opened in the given mode without asking the server
+	*/
+	public boolean isValidFor(String mode) {
+		if (state == FileClient.ClientFileState.WRITE_OWNED)
+			return true;
+		return mode.equals("r") && state == FileClient.ClientFileState.READ_SHARED
+			   && System.currentTimeMillis() < leaseExpiry;
+	}
+
+	/**
+	* starts the lease the server granted with the content. It is counted from
+	* when the request was sent, so the copy expires here no later than on the server
+	* @param leaseMillis length of the lease, -1 if the copy is kept until called back
+	* @param requestedAt time the download request was sent
+	*/
+	public void startLease(long leaseMillis, long requestedAt) {
+		leaseExpiry = leaseMillis < 0 ? Long.MAX_VALUE : requestedAt + leaseMillis;
+	}
+
+	/**
+	* @return long the version to send with a download, so the server only sends the
+	* content if it changed, -1 if there is no copy on disk or its version is unknown
+	*/
+	public long copyVersion() {
+		return version >= 0 && new java.io.File(path).exists() ? version : -1;
+	}
+
+	/**
+	* @return boolean true if this client owns the file and may have changed it
+	*/
+	public boolean isOwned() {
+		return state == FileClient.ClientFileState.WRITE_OWNED ||
+			   state == FileClient.ClientFileState.RELEASE_OWNERSHIP;
+	}
+
+	/**
+	* @return long size of the local copy, 0 if there is none
+	*/
+	public long size() {
+		return new java.io.File(path).length();
+	}
+
+	/**
+	* @return String info of the cached file
+	*/
+	public String toString() {
+		return fileName + " (" + state + ", " + mode + ")";
+	}
+}
@@ -0,0 +1,10 @@
+package dfs;
+
+import java.rmi.*;
+
+public interface ClientInterface extends Remote {
+    public boolean invalidate( String filename ) throws RemoteException;
+    public boolean writeback( String filename ) throws 	RemoteException;
+    public boolean ping( ) throws RemoteException;
+    public boolean writeGranted( String filename, long ticket ) throws RemoteException;
+}
@@ -0,0 +1,176 @@
+package dfs;
+
+import java.rmi.*;
+import java.util.concurrent.*;
+
+/**
+ * This class keeps the RMI stubs of the clients the server calls back, keyed by client id,
+ * so that a writeback or an invalidation doesn't need a registry lookup every time.
+ * Stubs expire after a while, are dropped as soon as a call through them fails,
+ * and are pinged periodically so that dead clients are noticed before the next callback.
+ * RMI waits for an answer forever, so calls can be given a time limit: they then
+ * run on a pool of their own, and a client that doesn't answer in time is dropped
+ * while the caller carries on. The thread of the call is freed once RMI gives up.
+ **/
+
+public class ClientStubCache {
+
+	/*
+	a call made through a client stub
+	*/
+	public interface Callback<T> {
+		T call(ClientInterface client) throws RemoteException;
+	}
+
+	/*
+	a cached stub and the time it expires at
+	*/
+	private static class Stub {
+		final ClientInterface client;
+		final long expiresAt;
+
+		Stub(ClientInterface client, long expiresAt) {
+			this.client = client;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private final int clientPort;				// port of the clients' registries
+	private final long ttlMillis;				// how long a stub is trusted
+	private final long timeoutMillis;			// how long a call may take, 0 for no limit
+	private final ExecutorService calls;		// runs calls that have a time limit
+	private final ConcurrentHashMap<String, Stub> stubs = new ConcurrentHashMap<String, Stub>();
+
+	/**
+	 * @param clientPort port of the clients' registries
+	 * @param ttlMillis how long a stub is used before it is looked up again
+	 */
+	public ClientStubCache(int clientPort, long ttlMillis) {
+		this(clientPort, ttlMillis, 0);
+	}
+
+	/**
+	 * @param clientPort port of the clients' registries
+	 * @param ttlMillis how long a stub is used before it is looked up again
+	 * @param timeoutMillis how long a lookup and call together may take, 0 for no limit
+	 */
+	public ClientStubCache(int clientPort, long ttlMillis, long timeoutMillis) {
+		this.clientPort = clientPort;
+		this.ttlMillis = ttlMillis;
+		this.timeoutMillis = timeoutMillis;
+		// hung calls hold their thread, so the pool must not run out of them
+		this.calls = timeoutMillis > 0 ? Executors.newCachedThreadPool(FileServer.daemonThreads("callback")) : null;
+	}
+
+	/**
+	 * @return ClientInterface the cached stub of the client, looked up in the
+	 * client's registry if there is none or it expired. Clients of shards are
+	 * called by "host:port", since their registry can't be on every shard's port
+	 * @throws Exception if the lookup went wrong
+	 */
+	public ClientInterface get(String clientIp) throws Exception {
+		Stub stub = stubs.get(clientIp);
+		if (stub != null && stub.expiresAt > System.currentTimeMillis())
+			return stub.client;
+
+		String registry = clientIp.indexOf(':') >= 0 ? clientIp : clientIp + ":" + clientPort;
+		ClientInterface client = ( ClientInterface )
+				Naming.lookup( "rmi://" + registry + "/client" );
+		stubs.put(clientIp, new Stub(client, System.currentTimeMillis() + ttlMillis));
+		return client;
+	}
+
+	/**
+	 * uses the given stub for a client until it is evicted, for clients that
+	 * connected with the binary protocol and are called back over that connection
+	 */
+	public void register(String clientIp, ClientInterface client) {
+		stubs.put(clientIp, new Stub(client, Long.MAX_VALUE));
+	}
+
+	/**
+	 * calls the client through its cached stub. If the stub is stale because the client
+	 * restarted or went away, it is dropped and the call is tried once more with a
+	 * fresh stub, which is safe since those failures mean the call never ran.
+	 * With a time limit, a client that doesn't answer in time is dropped as well
+	 * @throws Exception if the lookup or the call went wrong or took too long
+	 */
+	public <T> T invoke(String clientIp, Callback<T> callback) throws Exception {
+		if (calls == null)
+			return call(clientIp, callback);
+		Future<T> pending = calls.submit(() -> call(clientIp, callback));
+		try {
+			return pending.get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException te) {
+			Stub stub = stubs.get(clientIp);
+			if (stub != null)
+				evict(clientIp, stub.client);
+			throw new RemoteException("Error: client " + clientIp + " didn't answer in " + timeoutMillis + " ms");
+		} catch (ExecutionException ee) {
+			if (ee.getCause() instanceof Exception)
+				throw (Exception) ee.getCause();
+			throw ee;
+		}
+	}
+
+	/**
+	 * looks up the stub if needed and calls the client on this thread, see invoke
+	 */
+	private <T> T call(String clientIp, Callback<T> callback) throws Exception {
+		ClientInterface client = get(clientIp);
+		try {
+			return callback.call(client);
+		} catch (NoSuchObjectException | ConnectException | ConnectIOException stale) {
+			evict(clientIp, client);
+			return callback.call(get(clientIp));
+		} catch (RemoteException re) {
+			evict(clientIp, client);
+			throw re;
+		}
+	}
+
+	/**
+	 * drops the stub of a client, unless it has been replaced already
+	 */
+	public void evict(String clientIp, ClientInterface client) {
+		Stub stub = stubs.get(clientIp);
+		if (stub != null && stub.client == client)
+			stubs.remove(clientIp, stub);
+	}
+
+	/**
+	 * drops expired stubs and pings the others, dropping those whose client doesn't
+	 * answer, or doesn't answer within the time limit
+	 */
+	public void checkHealth() {
+		long now = System.currentTimeMillis();
+		for (String clientIp : stubs.keySet()) {
+			Stub stub = stubs.get(clientIp);
+			if (stub == null)
+				continue;
+			if (stub.expiresAt <= now) {
+				stubs.remove(clientIp, stub);
+				continue;
+			}
+			try {
+				if (calls == null)
+					stub.client.ping();
+				else
+					calls.submit(() -> stub.client.ping()).get(timeoutMillis, TimeUnit.MILLISECONDS);
+			} catch (RemoteException | TimeoutException | ExecutionException e) {
+				Log.warn("Client %s is not answering, dropping its stub.", clientIp);
+				stubs.remove(clientIp, stub);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return int number of cached stubs
+	 */
+	public int size() {
+		return stubs.size();
+	}
+}
@@ -0,0 +1,161 @@
+package dfs;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * This class keeps track of which ServerEntry contents are held in memory and
+ * bounds them by a byte budget. When the budget is exceeded, the least recently
+ * used contents are dropped and reloaded from disk the next time they are asked for.
+ * Only the content is evicted, the sharing metadata (state, owner, readerList)
+ * stays in the entry. Modified content is written back to disk before it is dropped.
+ **/
+
+public class ContentCache {
+
+	private final long capacity;						// byte budget for cached contents
+	private long usedBytes;								// bytes currently charged
+	private final LinkedHashMap<ServerEntry, Long> lru	// entries with loaded content, 
+				= new LinkedHashMap<ServerEntry, Long>(16, 0.75f, true);	// least recent first
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param capacity the maximum number of content bytes to keep in memory
+	 */
+	public ContentCache(long capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * returns the content of the entry, reading it from disk if it was evicted.
+	 * the caller must hold the entry's lock
+	 * @throws IOException if reading from the file went wrong
+	 */
+	public ContentStore get(ServerEntry entry) throws IOException {
+		ContentStore content = entry.content;
+		if (content != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+			content = entry.loadContent();
+			entry.content = content;
+		}
+		charge(entry, content.size());
+		return content;
+	}
+
+	/**
+	 * re-charges the entry after its content has been replaced.
+	 * the caller must hold the entry's lock
+	 */
+	public void update(ServerEntry entry) {
+		charge(entry, entry.content.size());
+	}
+
+	/**
+	 * drops least recently used contents until the cache fits in its budget.
+	 * It must be called without holding any entry lock, entries that are
+	 * being written or are locked by another thread are skipped
+	 */
+	public void evict() {
+		List<ServerEntry> candidates;
+		synchronized (this) {
+			if (usedBytes <= capacity)
+				return;
+			candidates = new ArrayList<ServerEntry>();
+			long excess = usedBytes - capacity;
+			for (Map.Entry<ServerEntry, Long> e : lru.entrySet()) {
+				if (excess <= 0)
+					break;
+				if (e.getKey().isWriteShared())
+					continue;
+				candidates.add(e.getKey());
+				excess -= e.getValue();
+			}
+		}
+
+		for (ServerEntry entry : candidates) {
+			if (!entry.tryLock())
+				continue;
+			try {
+				if (entry.content == null || entry.isWriteShared())
+					continue;
+				if (entry.isDirty() && !entry.saveContent())
+					continue;						// keep it until it is on disk
+				entry.content = null;
+				discharge(entry);
+				evictions.incrementAndGet();
+			} finally {
+				entry.unlock();
+			}
+		}
+	}
+
+	/**
+	 * drops the content of an entry that is leaving the file table,
+	 * or whose file was replaced on disk.
+	 * the caller must hold the entry's lock
+	 */
+	public void remove(ServerEntry entry) {
+		entry.content = null;
+		discharge(entry);
+	}
+
+	private synchronized void charge(ServerEntry entry, long size) {
+		Long old = lru.put(entry, size);
+		usedBytes += size - (old == null ? 0 : old);
+	}
+
+	private synchronized void discharge(ServerEntry entry) {
+		Long old = lru.remove(entry);
+		if (old != null)
+			usedBytes -= old;
+	}
+
+	/**
+	 * @return long number of requests served from memory
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return long number of requests that had to read the file from disk
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return long number of contents dropped from memory
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return long number of content bytes currently in memory
+	 */
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	/**
+	 * @return long the byte budget
+	 */
+	public long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return String info of the cache
+	 */
+	public synchronized String toString() {
+		return "Cache: " + usedBytes + "/" + capacity + " bytes, " +
+			   "hits " + hits + ", misses " + misses + ", evictions " + evictions;
+	}
+}
@@ -0,0 +1,39 @@
+package dfs;
+
+import java.nio.*;
+
+/**
+ * This interface is how a ServerEntry holds the bytes of a file.
+ * Implementations keep them on the heap, in off-heap memory or in a
+ * memory-mapped region of the file, see StorageBackend.
+ * A store is never modified once created, an upload replaces it with a new one.
+ * Files too large for one array are mapped in segments, see SegmentedContentStore;
+ * those can only be read a range at a time.
+ **/
+
+public interface ContentStore {
+
+	/**
+	 * @return long number of bytes of the content
+	 */
+	public long size();
+
+	/**
+	 * @return byte[] up to length bytes starting at offset,
+	 * an empty array once offset reaches the end of the content
+	 */
+	public byte[] read(long offset, int length);
+
+	/**
+	 * @return byte[] the whole content, which must not be modified
+	 * @throws UnsupportedOperationException if the content is larger than an array
+	 */
+	public byte[] toByteArray();
+
+	/**
+	 * @return ByteBuffer a read-only view of the whole content with its own position,
+	 * so it can be handed to a channel without copying
+	 * @throws UnsupportedOperationException if the content is larger than a buffer
+	 */
+	public ByteBuffer asByteBuffer();
+}
@@ -0,0 +1,98 @@
+package dfs;
+
+import java.nio.*;
+import java.util.*;
+
+/**
+ * This class keeps the content of a file as a list of chunks of the shared ChunkStore.
+ * Chunk boundaries are picked from the content itself with a gear rolling hash,
+ * so an insertion in a file only changes the chunks around it and near-identical
+ * files share almost all of their chunks.
+ **/
+
+public class DedupContentStore implements ContentStore {
+
+	private static final int MIN_CHUNK = 2 * 1024;
+	private static final int MAX_CHUNK = 64 * 1024;
+	private static final long BOUNDARY_MASK = (1L << 13) - 1;	// 8 KB chunks on average
+	private static final long[] GEAR = new long[256];			// random value of each byte
+
+	static {
+		Random random = new Random(0x44465321L);				// fixed, boundaries must not change
+		for (int i = 0; i < GEAR.length; i++)
+			GEAR[i] = random.nextLong();
+	}
+
+	private final ChunkStore.Chunk[] chunks;
+	private final int[] offsets;				// offset of each chunk in the content
+	private final int size;
+
+	/**
+	 * splits the content into chunks and stores them in the shared chunk store
+	 */
+	public DedupContentStore(byte[] content) {
+		ArrayList<ChunkStore.Chunk> chunkList = new ArrayList<ChunkStore.Chunk>();
+		ArrayList<Integer> offsetList = new ArrayList<Integer>();
+		ChunkStore store = ChunkStore.shared();
+		int start = 0;
+		while (start < content.length) {
+			int end = boundary(content, start);
+			offsetList.add(start);
+			chunkList.add(store.intern(content, start, end));
+			start = end;
+		}
+		this.chunks = chunkList.toArray(new ChunkStore.Chunk[0]);
+		this.offsets = new int[offsetList.size()];
+		for (int i = 0; i < offsets.length; i++)
+			offsets[i] = offsetList.get(i);
+		this.size = content.length;
+	}
+
+	/**
+	 * @return int end of the chunk starting at start
+	 */
+	private static int boundary(byte[] content, int start) {
+		int limit = Math.min(content.length, start + MAX_CHUNK);
+		long hash = 0;
+		for (int i = start; i < limit; i++) {
+			hash = (hash << 1) + GEAR[content[i] & 0xff];
+			if (i - start + 1 >= MIN_CHUNK && (hash & BOUNDARY_MASK) == 0)
+				return i + 1;
+		}
+		return limit;
+	}
+
+	public long size() {
+		return size;
+	}
+
+	public byte[] read(long offset, int length) {
+		int from = (int) Math.min(Math.max(offset, 0), size);
+		int to = (int) Math.min((long) from + length, size);
+		byte[] result = new byte[to - from];
+		int index = Arrays.binarySearch(offsets, from);
+		if (index < 0)
+			index = -index - 2;					// chunk containing from
+		int position = from;
+		while (position < to) {
+			byte[] data = chunks[index].data;
+			int inChunk = position - offsets[index];
+			int count = Math.min(data.length - inChunk, to - position);
+			System.arraycopy(data, inChunk, result, position - from, count);
+			position += count;
+			index++;
+		}
+		return result;
+	}
+
+	/**
+	 * @return byte[] a copy of the content, assembled from its chunks
+	 */
+	public byte[] toByteArray() {
+		return read(0, size);
+	}
+
+	public ByteBuffer asByteBuffer() {
+		return ByteBuffer.wrap(toByteArray()).asReadOnlyBuffer();
+	}
+}
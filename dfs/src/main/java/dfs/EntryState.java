@@ -0,0 +1,48 @@
+package dfs;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * This class is the state of one file as a primary sends it to its replicas:
+ * the version of the content, the content itself if the replica doesn't have
+ * that version yet, and who owns or reads the file on the primary, so that a
+ * replica promoted to primary can carry on with the same file table.
+ **/
+
+public class EntryState implements Serializable {
+
+	private final String fileName;
+	private final long version;
+	private final byte[] content;			// null if the replica has this version already
+	private final String owner;				// client writing the file, null if none
+	private final List<String> readers;		// clients the primary calls back
+
+	public EntryState(String fileName, long version, byte[] content, String owner, List<String> readers) {
+		this.fileName = fileName;
+		this.version = version;
+		this.content = content;
+		this.owner = owner;
+		this.readers = readers;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public byte[] getContent() {
+		return content;
+	}
+
+	public String getOwner() {
+		return owner;
+	}
+
+	public List<String> getReaders() {
+		return readers;
+	}
+}
@@ -0,0 +1,927 @@
+/**
+ * FileClient.java:<p>
+ * @author Darong Leng, Chris Knakal
+ * @since 05/24/2016
+ **/
+
+package dfs;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.net.*;
+import java.rmi.*;
+import java.rmi.server.*;
+import java.rmi.registry.*;
+
+/**
+ * This class is run by a user. Once it is run, it will keep asking the user what files they want to open.
+ * Some of its features are writing file back to the server and invalidating the current files,
+ * and openinng up emacs.
+ **/
+
+public class FileClient extends UnicastRemoteObject	implements ClientInterface {
+
+	public static void main( String args[] ) {
+		// verify arguments
+		int port = 0;
+		try {
+		    if ( args.length == 2 ) {
+			port = Integer.parseInt( args[1] );
+			if ( port < 5001 || port > 65535 )
+			    throw new Exception( );
+		    }else
+				throw new Exception( );
+		} catch ( Exception e ) {
+		    System.err.println( "usage: java Client serverIp port" );
+		    System.exit( -1 );
+		}
+
+		// server IP
+		String serverIp = args[0];
+		// set up client registry so that server can find
+		try {     
+		    startRegistry( port );
+		    FileClient clientObject = new FileClient( serverIp, port );
+		    Naming.rebind( "rmi://localhost:" + port + "/client", clientObject );
+		    clientObject.run();
+		    System.out.println( "Client ready." );
+		} catch ( Exception e ) {
+		    e.printStackTrace( );
+		    System.exit( -1 );
+		}
+
+    }
+
+    private static void startRegistry( int port ) throws RemoteException {
+		try {
+		    Registry registry = 
+			LocateRegistry.getRegistry( port );
+		    registry.list( );  
+		}
+		catch ( RemoteException e ) { 
+		    Registry registry = 
+			LocateRegistry.createRegistry( port );
+		}
+    }
+
+
+    // -------------------------- CLASS START HERE -----------------------
+	/*
+	enum FileState represents file state
+	*/
+	public enum ClientFileState {
+		INVALID,            
+		READ_SHARED,
+		WRITE_OWNED,
+		RELEASE_OWNERSHIP
+	}
+
+	private ClientCache cache;                // files cached by this client
+	private AccessHistory history;            // order in which files are opened
+	private Prefetcher prefetcher;            // downloads what is likely opened next
+	private final ConcurrentHashMap<Long, CompletableFuture<String>> grants =	// write tickets
+	        new ConcurrentHashMap<Long, CompletableFuture<String>>();		// granted by the server
+	
+	private String username;                  // name of the client
+	private String myIp;                      // IP of client
+	private String cacheDir = "";             // directory of cached files
+    private ServerInterface server = null;    // will store RMI server object
+
+    private final String TEMP_DIR = "/tmp/";  // path to /tmp
+    private final int CHUNK_SIZE =            // bytes sent or received per call
+            Integer.getInteger("dfs.chunk.bytes", 256 * 1024);
+    private final int DELTA_BLOCK_SIZE =      // block size used to compute deltas
+            Integer.getInteger("dfs.delta.blockBytes", 2048);
+    private final long DELTA_MAX_SIZE =       // larger files are always uploaded whole
+            Long.getLong("dfs.delta.maxBytes", 64L * 1024 * 1024);
+    private final long CACHE_SIZE =           // disk budget of cached files
+            Long.getLong("dfs.client.cacheBytes", 1024L * 1024 * 1024);
+    private final String ENCODING =           // "deflate" compresses transfers
+            System.getProperty("dfs.compression.encoding", FileContents.IDENTITY);
+    private final boolean READ_ONLY_BY_CACHE =  // "cache" keeps file modes as they are
+            System.getProperty("dfs.client.readOnly", "permissions").equals("cache");
+    private final boolean QUEUE_WRITES =      // "false" waits inside the server for write access
+            Boolean.parseBoolean(System.getProperty("dfs.client.queueWrites", "true"));
+    private final long GRANT_POLL_MS =        // asks again if a grant callback got lost
+            Long.getLong("dfs.client.grantPollMs", 5000);
+    private final boolean BINARY =            // "binary" sends whole files over the binary protocol
+            System.getProperty("dfs.transport", "rmi").equals("binary");
+
+    private final String EMACS = "emacs";     // emacs command
+    private final String HISTORY = "#history"; // access history in the cache directory,
+                                               // no encoded file name starts with #
+
+    /**
+     * it creates an empty cache in /tmp/username/
+     * sets up username and user IP 
+     * add a shut down hook so that when the server is closed with Ctrl^C,
+     * the client will sends its owned files back to the server.
+     * @param String serverIp is IP of the server
+     * @param int port is the port that will be used to connect to the client
+     * @throws RemoteException
+     */   
+    public FileClient( String serverIp, int port) throws RemoteException {
+ 		cache = new ClientCache(CACHE_SIZE);
+ 		setupUserInfo();							// get user name 
+ 		cacheDir = TEMP_DIR + username + "/";
+ 		new File(cacheDir).mkdirs();
+ 		history = new AccessHistory();
+ 		history.load(Paths.get(cacheDir, HISTORY));
+ 		prefetcher = new Prefetcher(history, cache, fileNames -> downloadBatch(fileNames, "r"));
+ 		connectToServer(serverIp, port);			// connect to server with rmi lookup
+        addShutdownHook();
+    }
+
+    /**
+     * it sets the state of the cached file to INVALID
+     * @param String fileName is the file the server invalidates
+     * @throw RemoteException
+     */   
+    public boolean invalidate( String fileName ) throws RemoteException {
+    	System.out.println("Received invalidation request for " + fileName + ".");
+    	ClientCacheEntry entry = cache.peek(fileName);
+    	if (entry != null)
+    	    entry.state = ClientFileState.INVALID;
+    	return true;
+    }
+
+    /**
+     * it sets the state of the cached file to RELEASE_OWNERSHIP
+     * if the client is already done writing, it uploads the file back
+     * to the server immediately
+     * @param String fileName is the file the server wants back
+     * @throw RemoteException
+     */
+    public boolean writeback( String fileName ) throws 	RemoteException {
+        ClientCacheEntry entry = cache.peek(fileName);
+        if (entry == null) {
+            System.out.println("Received write back request for " + fileName + ", which is not cached.");
+            return false;
+        }
+
+        if (entry.doneWriting) {
+            System.out.println("Received write back request. Writing " + fileName + " back to server.");
+            uploadModifiedFile(entry);  // writeback immedietly
+            return true;
+        }
+
+        entry.state = ClientFileState.RELEASE_OWNERSHIP;
+        System.out.println("Received write back request. Still editing " + fileName + ".");
+
+        return false;
+    }
+
+    /**
+     * lets the server check that this client is still alive
+     * @throw RemoteException
+     */
+    public boolean ping( ) throws RemoteException {
+        return true;
+    }
+
+    /**
+     * tells this client that a queued write request was granted,
+     * so it can claim the file
+     * @param String fileName is the file that is this client's now
+     * @param long ticket is the ticket returned by requestWrite
+     * @throw RemoteException
+     */
+    public boolean writeGranted( String fileName, long ticket ) throws RemoteException {
+        System.out.println("Received write grant for " + fileName + ".");
+        grantOf(ticket).complete(fileName);
+        return true;
+    }
+
+
+    /**
+     * It enters a loop that keep asking for file name and access mode
+     * before sending any request to the server, it first checks user inputs
+     * it checks whether access mode is known.
+     * it checks if the requested file is already cached and valid for that mode,
+     * in which case it is opened without asking the server.
+     * a file name starting with @ names a list of files, which are all
+     * downloaded in one call and not opened.
+     * mode "p" patches part of a file on the server with writeRange,
+     * without downloading or owning the file.
+     * if it is not, it will download it from the server.
+     * it sets state of the cache accordingly
+     */
+    public void run() {
+    	while (true) {
+    		// gets file name
+    		System.out.print("File name: ");
+    		Scanner reader = new Scanner(System.in);
+    		String requestName = reader.nextLine();
+
+    		// gets mode -- "r", "w" or "p"
+    		System.out.print("How(r/w/p): ");
+    		String requestMode =  reader.nextLine();
+
+    		// "p" writes the given text at an offset of the file on the server
+    		if (requestMode.equals("p")) {
+    			System.out.print("Offset: ");
+    			long offset;
+    			try {
+    				offset = Long.parseLong(reader.nextLine().trim());
+    			} catch (NumberFormatException e) {
+    				System.out.println("Error: offset is not a number.");
+    				continue;
+    			}
+    			System.out.print("Text: ");
+    			byte[] data = reader.nextLine().getBytes();
+    			if (writeRange(requestName, offset, data))
+    				System.out.println("Wrote " + data.length + " bytes at " + offset + ".");
+    			else
+    				System.out.println("Error: the range wasn't written.");
+    			continue;
+    		}
+
+    		// check mode
+    		if (!(requestMode.equals("r") || requestMode.equals("w"))) {
+    			System.out.println("Uknown download mode.");
+    			continue;
+    		}
+
+    		// "@list" downloads every file named in list in one call
+    		if (requestName.startsWith("@")) {
+    			List<String> fileNames = readFileList(requestName.substring(1));
+    			int downloaded = downloadBatch(fileNames, requestMode).size();
+    			evictOverBudget(null);		// the user's requests evict, prefetches never do
+    			System.out.println("Downloaded " + downloaded + " of " + fileNames.size() + " files.");
+    			continue;
+    		}
+
+    		String fileName = normalize(requestName);
+    		ClientCacheEntry entry = cache.computeIfAbsent(fileName,
+    		    name -> new ClientCacheEntry(name, cacheDir + encode(name)));
+
+    		// if not in cache
+    		boolean hit = true;
+    		synchronized (entry) {			// a prefetch may be writing it
+    			if ( !entry.isValidFor(requestMode) ) {
+                    hit = false;
+                    entry.doneWriting = false;     // client just begins writing
+                    boolean success = downloadFileFromServer(entry, requestMode);
+                    System.out.println("Received dowonload response from server.");                
+    				if (!success) {
+    					System.out.println("downloadFileFromServer() fails or file doesn't exist.");
+    					if (entry.state == ClientFileState.INVALID)
+    					    discard(entry);
+    					continue;
+    				}
+    			}
+    		}
+    		if (!hit)
+    			evictOverBudget(entry);
+    		prefetcher.opened(entry, hit);
+
+    		entry.mode = requestMode;
+    		if ( requestMode.equals("w") )
+    		    entry.doneWriting = false;
+    		openFile(entry);
+    	}
+    }
+
+
+    /**
+     * writes data at offset of a file on the server without owning the whole file.
+     * It holds a write token on just those bytes while uploading them, so other
+     * clients can write other parts of the file at the same time
+     * @param String fileName is the file to change
+     * @param long offset is where data goes, may be the end of the file to append
+     * @param byte[] data is the new bytes
+     * @return boolean true if the bytes were written
+     */
+    public boolean writeRange(String fileName, long offset, byte[] data) {
+        String name = normalize(fileName);
+        try {
+            if (server.acquireRange(myIp, name, offset, data.length) == null) {
+                System.out.println("Error: server refused the range.");
+                return false;
+            }
+            try {
+                return server.uploadRange(myIp, name, offset, new FileContents(data));
+            } finally {
+                server.releaseRange(myIp, name, offset);
+            }
+        } catch (Exception e) {
+            System.out.println("Error: in writeRange()");
+            return false;
+        }
+    }
+
+    // ---------------------- PRIVATE FUNCTIONS --------------------------
+    /**
+     * it uploads only the changed blocks if it can,
+     * otherwise it streams the cached file from the disk
+     * to the server chunk by chunk
+     */
+    private void uploadModifiedFile(ClientCacheEntry entry) {
+    	if (downgradeUnchanged(entry))
+    		return;
+    	try {	    		
+    		entry.state = ClientFileState.INVALID;
+            if (uploadDelta(entry)) {
+                System.out.println("Uploaded changes back to the server.");
+                return;
+            }
+            if (BINARY) {
+                byte[] content = getFileContent(entry.path);
+                if (content == null || !server.upload(myIp, entry.fileName, new FileContents(content)))
+                    System.out.println("Error: server refused the upload.");
+                else
+                    System.out.println("Uploaded modified file back to the server.");
+                return;
+            }
+            long transferId = server.openWrite(myIp, entry.fileName);
+            if (transferId < 0) {
+                System.out.println("Error: server refused the upload.");
+                return;
+            }
+            InputStream input = new FileInputStream(entry.path);
+            try {
+                byte[] buffer = new byte[CHUNK_SIZE];
+                long offset = 0;
+                int read;
+                while ((read = input.readNBytes(buffer, 0, buffer.length)) > 0) {
+                    FileContents chunk = FileContents.encode(Arrays.copyOf(buffer, read), ENCODING);
+                    if (!server.writeChunk(transferId, offset, chunk))
+                        throw new IOException("chunk rejected at offset " + offset);
+                    offset += read;
+                }
+            } finally {
+                input.close();
+            }
+            if (!server.commit(transferId)) {
+                System.out.println("Error: server refused the upload.");
+                return;
+            }
+    		System.out.println("Uploaded modified file back to the server.");
+    	} catch (Exception e) {
+    		System.out.println("Error: in uploadModifiedFile().");
+    	}
+    }   
+
+    /**
+     * keeps a copy that was opened for writing but not changed as a read copy,
+     * instead of uploading it
+     * @return boolean false if the copy changed or the server refused, then it is uploaded
+     */
+    private boolean downgradeUnchanged(ClientCacheEntry entry) {
+        if (!isUnchanged(entry))
+            return false;
+        try {
+            long requestedAt = System.currentTimeMillis();
+            FileContents grant = server.downgrade(myIp, entry.fileName);
+            if (grant == null)
+                return false;
+            entry.version = grant.getVersion();
+            entry.startLease(grant.getLeaseMillis(), requestedAt);
+            markDownloaded(entry, "r");
+            System.out.println("Kept unchanged " + entry.fileName + " for reading.");
+            return true;
+        } catch (Exception e) {
+            System.out.println("Error: in downgradeUnchanged().");
+            return false;
+        }
+    }
+
+    /**
+     * @return boolean true if the copy is still the content that was downloaded for writing,
+     * false if it changed or it is too large to tell
+     */
+    private boolean isUnchanged(ClientCacheEntry entry) {
+        BlockSignatures signatures = entry.baseSignatures;
+        if (signatures == null)
+            return false;
+        byte[] content = getFileContent(entry.path);
+        return content != null && signatures.matches(content);
+    }
+
+    /**
+     * it compares the cached file against the version it downloaded
+     * and sends only the blocks that changed
+     * @return boolean false if a delta is not worth it or the server refused it,
+     * then the whole file has to be uploaded
+     */
+    private boolean uploadDelta(ClientCacheEntry entry) {
+        BlockSignatures signatures = entry.baseSignatures;
+        entry.baseSignatures = null;        // the server will have a new version
+        if (signatures == null || new File(entry.path).length() > DELTA_MAX_SIZE)
+            return false;
+        try {
+            byte[] content = getFileContent(entry.path);
+            if (content == null)
+                return false;
+            FileDelta delta = signatures.diff(content);
+            if (delta.size() >= content.length)
+                return false;
+            return server.uploadDelta(myIp, entry.fileName, delta);
+        } catch (Exception e) {
+            System.out.println("Error: in uploadDelta().");
+            return false;
+        }
+    }
+
+    /**
+     * computes the block signatures of the cached file so that a later upload
+     * can send only what changed
+     */
+    private void computeBaseSignatures(ClientCacheEntry entry) {
+        entry.baseSignatures = null;
+        if (new File(entry.path).length() > DELTA_MAX_SIZE)
+            return;
+        try {
+            InputStream input = new FileInputStream(entry.path);
+            try {
+                entry.baseSignatures = BlockSignatures.of(input, DELTA_BLOCK_SIZE);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Error: in computeBaseSignatures().");
+        }
+    }
+
+    /**
+     * it sends a download request to the server
+     * if server doesn't have the file it will return -1
+     * otherwise it receives the content chunk by chunk and writes it to the client disk
+     * and changes access mode accordingly
+     * the version of the copy on disk goes with the request, and the copy is
+     * kept as it is if the server says it is not modified
+     * a read copy is first upgraded to writing in one call, if the file is free
+     */
+    private boolean downloadFileFromServer(ClientCacheEntry entry, String mode) {
+    	try {
+			if (mode.equals("w") && entry.state == ClientFileState.READ_SHARED && upgrade(entry)) {
+				markDownloaded(entry, mode);
+				return true;
+			}
+			long requestedAt = System.currentTimeMillis();	// leases count from here
+			if (BINARY) {
+				// the whole file comes in one response
+				FileContents contents = server.download(myIp, entry.fileName, mode, entry.copyVersion());
+				if (contents == null) {
+					System.out.println("content is null");
+					return false;
+				}
+				if (!contents.isNotModified() && !writeToDisk(entry, contents))
+					return false;
+				entry.version = contents.getVersion();
+				entry.startLease(contents.getLeaseMillis(), requestedAt);
+			} else {
+	    		// open a transfer on the server
+	    		long transferId = mode.equals("w") && QUEUE_WRITES
+	    				? claimWrite(entry.fileName, entry.copyVersion())
+	    				: server.openRead(myIp, entry.fileName, mode, ENCODING, entry.copyVersion());
+	    		// if file is not found at the server
+				if (transferId < 0)   {
+					System.out.println("content is null");
+					return false;
+				}
+
+				if (!writeToDisk(entry, transferId, requestedAt))	// cache file to disk
+					return false;
+			}
+			markDownloaded(entry, mode);
+    		return true;
+    	}catch (Exception e) {
+    		System.out.println("Error: in downloadFileFromServer()");
+    		return false;
+    	}
+    }
+
+    /**
+     * asks the server to turn the read copy into a write copy without sending it again
+     * @return boolean false if another client has the file, which is then
+     * downloaded the usual way
+     */
+    private boolean upgrade(ClientCacheEntry entry) throws RemoteException {
+        FileGrant grant = server.upgrade(myIp, entry.fileName, entry.copyVersion());
+        if (!grant.isGranted())
+            return false;
+        if (!grant.isNotModified() && !writeToDisk(entry, grant.getContents()))
+            return false;
+        System.out.println("Upgraded " + entry.fileName + " to writing.");
+        return true;
+    }
+
+    /**
+     * queues a write request and waits, on this side, until the server grants it
+     * @return long id of a read transfer of the content, -1 if the request failed
+     */
+    private long claimWrite(String fileName, long version) throws RemoteException, InterruptedException {
+        long ticket = server.requestWrite(myIp, fileName);
+        if (ticket < 0)
+            return -1;
+        try {
+            long transferId;
+            while ((transferId = server.claimWrite(myIp, ticket, ENCODING, version)) == 0) {
+                System.out.println("Waiting for " + fileName + ".");
+                try {
+                    grantOf(ticket).get(GRANT_POLL_MS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException | ExecutionException e) {
+                    // asks the server again
+                }
+            }
+            return transferId;
+        } finally {
+            grants.remove(ticket);
+        }
+    }
+
+    /**
+     * @return CompletableFuture<String> completed when the server grants ticket,
+     * the grant may arrive before the client starts waiting for it
+     */
+    private CompletableFuture<String> grantOf(long ticket) {
+        return grants.computeIfAbsent(ticket, t -> new CompletableFuture<String>());
+    }
+
+    /**
+     * sets up a file that was just written to disk in the given mode:
+     * its delta base, its access mode and its state
+     * a copy opened for writing may be changed here, so its version is forgotten
+     */
+    private void markDownloaded(ClientCacheEntry entry, String mode) {
+		if (mode.equals("w")) {
+			computeBaseSignatures(entry);		// only writers upload
+			entry.version = -1;
+		} else
+			entry.baseSignatures = null;
+		changeFileAccess(entry, mode);			// change file access mode accordingly
+		entry.mode = mode;						
+
+		if (mode.equals("r") )
+			entry.state = ClientFileState.READ_SHARED;
+		else if (mode.equals("w") && entry.state != ClientFileState.RELEASE_OWNERSHIP)// mode == "w"
+			entry.state = ClientFileState.WRITE_OWNED;
+    }
+
+    /**
+     * downloads every file of the list that is not cached for mode yet
+     * with a single call to the server, without opening any of them.
+     * Files the server can't grant right now are reported and skipped.
+     * It never evicts, since the prefetch thread calls it while the user may be editing
+     * @return List<ClientCacheEntry> the files that were downloaded
+     */
+    private List<ClientCacheEntry> downloadBatch(List<String> fileNames, String mode) {
+        List<FileRequest> requests = new ArrayList<FileRequest>();
+        for (String requestName : fileNames) {
+            ClientCacheEntry entry = cache.peek(normalize(requestName));
+            if (entry == null || !entry.isValidFor(mode))
+                requests.add(new FileRequest(normalize(requestName), mode,
+                    entry == null ? -1 : entry.copyVersion()));
+        }
+        List<ClientCacheEntry> downloaded = new ArrayList<ClientCacheEntry>();
+        if (requests.isEmpty())
+            return downloaded;
+
+        long requestedAt = System.currentTimeMillis();
+        try {
+            for (FileGrant grant : server.downloadBatch(myIp, requests, ENCODING)) {
+                ClientCacheEntry entry = cache.computeIfAbsent(grant.getFileName(),
+                    name -> new ClientCacheEntry(name, cacheDir + encode(name)));
+                synchronized (entry) {
+                    if (entry.isValidFor(mode))
+                        continue;               // downloaded by the user in the meantime
+                    if (!grant.isGranted()
+                        || (!grant.isNotModified() && !writeToDisk(entry, grant.getContents()))) {
+                        System.out.println(grant.getFileName() + ": " + grant.getStatus() + ".");
+                        if (entry.state == ClientFileState.INVALID)
+                            discard(entry);
+                        continue;
+                    }
+                    entry.doneWriting = true;      // nobody is editing it yet
+                    entry.version = grant.getContents().getVersion();
+                    entry.startLease(grant.getContents().getLeaseMillis(), requestedAt);
+                    markDownloaded(entry, mode);
+                }
+                downloaded.add(entry);
+            }
+        } catch (Exception e) {
+            System.out.println("Error: in downloadBatch()");
+        }
+        return downloaded;
+    }
+
+    /**
+     * reads a list of file names, one per line
+     */
+    private List<String> readFileList(String listName) {
+        List<String> fileNames = new ArrayList<String>();
+        try {
+            for (String line : Files.readAllLines(Paths.get(listName)))
+                if (!line.trim().isEmpty())
+                    fileNames.add(line.trim());
+        } catch (IOException e) {
+            System.out.println("Error: in readFileList()");
+        }
+        return fileNames;
+    }
+
+    /**
+     * write the content of an open transfer to disk
+     * each chunk is written as soon as it arrives
+     * the last chunk carries the read lease, if any
+     * nothing is written if the first chunk says the copy on disk is not modified
+     * @return boolean true if the whole file was received
+     */
+    private boolean writeToDisk(ClientCacheEntry entry, long transferId, long requestedAt) {
+        try {
+            FileContents chunk = server.readChunk(transferId, 0, CHUNK_SIZE);
+            if (chunk == null)
+                throw new IOException("transfer " + transferId + " was dropped by the server");
+            if (chunk.isNotModified()) {
+                entry.version = chunk.getVersion();
+                entry.startLease(chunk.getLeaseMillis(), requestedAt);
+                return true;
+            }
+            changeFileAccess(entry, "w");      //change file access before write, otherwise expception is thrown
+            FileOutputStream output = new FileOutputStream(entry.path);   
+            try {
+                long offset = 0;
+                while (true) {
+                    byte[] bytes = chunk.get(CHUNK_SIZE);
+                    output.write(bytes);
+                    offset += bytes.length;
+                    if (bytes.length < CHUNK_SIZE) {
+                        entry.version = chunk.getVersion();
+                        entry.startLease(chunk.getLeaseMillis(), requestedAt);
+                        return true;
+                    }
+                    chunk = server.readChunk(transferId, offset, CHUNK_SIZE);
+                    if (chunk == null)
+                        throw new IOException("transfer " + transferId + " was dropped by the server");
+                }
+            } finally {
+                output.close();
+            }
+        }catch(IOException ioException) {
+            System.out.println("Error: when writing file.");
+            ioException.printStackTrace();
+            return false;
+        }catch(Exception e) {
+            System.out.println("Error: in writeToDisk()");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * write a whole downloaded file to disk
+     */
+    private boolean writeToDisk(ClientCacheEntry entry, FileContents contents) {
+        try {
+            changeFileAccess(entry, "w");      //change file access before write, otherwise expception is thrown
+            Files.write(Paths.get(entry.path), contents.get());
+            return true;
+        }catch(IOException ioException) {
+            System.out.println("Error: when writing file.");
+            ioException.printStackTrace();
+            return false;
+        }
+    }
+
+     /**
+     * read content from a file on disk
+     */   
+    private byte[] getFileContent(String fileName) {
+        try {
+            File file = new File(fileName);
+            if ( !file.exists() )
+                return null;
+            byte[] content = Files.readAllBytes( file.toPath() ); // read from disk
+            return content;
+        } catch (Exception e) {
+            System.out.println("Error: in getFileContent()");
+            return null;
+        }
+    } 
+
+    /**
+     * it changes file access mode, 400 for "r" and 600 for "w"
+     * nothing is changed when read only files are enforced by the cache instead
+     */   
+    private void changeFileAccess(ClientCacheEntry entry, String mode) {
+        if (READ_ONLY_BY_CACHE)
+            return;
+        try {
+            CacheFilePermissions.apply(Paths.get(entry.path), mode);
+        }catch (Exception e) {
+            System.out.println("Error: in changeFileAccess()");
+        }
+    }
+
+    /**
+     * when read only files are enforced by the cache, a file opened for reading
+     * that was changed anyway is dropped from the cache, so the changes are never
+     * uploaded and the next open gets the server's version again
+     * @param long modifiedBefore is the modification time of the file before it was opened
+     * @param long sizeBefore is the size of the file before it was opened
+     */
+    private void checkReadOnly(ClientCacheEntry entry, long modifiedBefore, long sizeBefore) {
+        File file = new File(entry.path);
+        if (file.lastModified() == modifiedBefore && file.length() == sizeBefore)
+            return;
+        System.out.println(entry.fileName + " is read only, local changes are discarded.");
+        discard(entry);
+    }
+
+    /**
+     * evicts least recently used files until the cache fits its disk budget
+     * owned and open files are never evicted, owned ones leave the cache once
+     * the server has them written back. only the user's thread evicts
+     * @param ClientCacheEntry keep is the file about to be opened, it is never evicted
+     */
+    private void evictOverBudget(ClientCacheEntry keep) {
+        for (ClientCacheEntry victim : cache.victims(keep)) {
+            System.out.println("Evicting " + victim.fileName + " from the cache.");
+            prefetcher.evicted(victim);
+            discard(victim);
+        }
+    }
+
+    /**
+     * removes a file from the cache and deletes its local copy
+     * a valid copy is released, so the server doesn't call this client back for it
+     */
+    private void discard(ClientCacheEntry entry) {
+        cache.remove(entry);
+        if (entry.state != ClientFileState.INVALID) {
+            try {
+                server.release(myIp, entry.fileName);
+            } catch (Exception e) {
+                System.out.println("Error: in discard()");
+            }
+        }
+        entry.state = ClientFileState.INVALID;
+        new File(entry.path).delete();
+    }
+
+    /**
+     * it opens a file with emacs
+     * a process will be created when opening emacs
+     * it is blocked until the user closes the emacs
+     * and sets doneWriting field to true
+     * it uploads file back to server if neccesary
+     */    
+    private void openFile(ClientCacheEntry entry) {
+        try {
+            File file = new File(entry.path);
+            long modifiedBefore = file.lastModified();
+            long sizeBefore = file.length();
+            Runtime runtime = Runtime.getRuntime();
+            Process commandProcess = runtime.exec(EMACS + " " + entry.path);
+            commandProcess.waitFor();
+            if (READ_ONLY_BY_CACHE && !entry.isOwned()) {
+                checkReadOnly(entry, modifiedBefore, sizeBefore);
+                return;
+            }
+            // check to see if server needs the file
+            if (entry.state == ClientFileState.RELEASE_OWNERSHIP) {
+                uploadModifiedFile(entry);
+            }
+            entry.doneWriting = true;
+        }catch (Exception e) {
+            System.out.println("Error: in openFile()");
+        }
+    }
+
+    /**
+     * open the file from /tmp/username/ directory with "cat"
+     * this function is used for testing only 
+     */
+    private void readFile(ClientCacheEntry entry) {
+        try {
+            Thread.sleep(3000);
+            Runtime runtime = Runtime.getRuntime( );        // get runTime
+            Process commandProcess = runtime.exec("cat " + entry.path);
+            InputStream input = commandProcess.getInputStream();   
+            BufferedReader bufferedInput
+                    = new BufferedReader( new InputStreamReader( input ) );
+
+            String line;
+            System.out.println("File Content:");
+            while ( ( line = bufferedInput.readLine( ) ) != null ) { // reads each line
+                System.out.println(line);
+            }
+            System.out.println();
+            // check to see if server needs the file
+            if (entry.state == ClientFileState.RELEASE_OWNERSHIP) {
+                uploadModifiedFile(entry);
+            }
+            entry.doneWriting = true;
+        }catch (Exception e) {
+            System.out.println("Error: in readFile()");
+        }
+    }
+
+    /**
+     * connects to the server via RMI lookup and saves server proxy to
+     * server field. If the server is a shard, requests are sent to the
+     * shards of its ring instead, and if it has replicas, reads are sent to them
+     */
+    private void connectToServer(String serverIp, int port) {
+        // connect to server
+        try {
+            server =  ( ServerInterface )
+                    Naming.lookup( "rmi://" + serverIp + ":" + port + "/server" );
+            List<String> shards = ((ShardInterface) server).getShards();
+            if (!shards.isEmpty()) {
+                // shards call this client back on this port, not on their own
+                myIp = myIp + ":" + port;
+                server = new ShardedServer(shards);
+                System.out.println("Server found, sharded over " + shards);
+                return;
+            }
+            List<String> replicas = ((ReplicaInterface) server).getReplicas();
+            if (!replicas.isEmpty()) {
+                // replicas call this client back as well
+                myIp = myIp + ":" + port;
+                server = new ReplicatedServer(server, replicas);
+                System.out.println("Server found, reading from replicas " + replicas);
+                return;
+            }
+            if (BINARY)
+                server = new BinaryServerStub(serverIp, Integer.getInteger("dfs.binary.port", port + 1),
+                        myIp, this, server);
+            System.out.println("Server found");
+        }catch ( Exception e ) { 
+            System.out.println("Error: in connectToServer()");
+        }
+    }
+
+    /**
+     * gets user name from the system and saves it to a username field
+     * get user IP and saves it to myIp field
+     */
+    private void setupUserInfo() {
+        try {           
+            username = System.getProperty("user.name");
+            myIp = InetAddress.getLocalHost().getHostName();
+        }catch(Exception e) {
+            System.out.println("Error: in getUserName()");
+        }
+    }
+
+    /**
+     * converts a file name the way the server does, so that the names
+     * the server calls back with match the cached ones
+     */
+    private static String normalize(String fileName) {
+        return Paths.get(fileName).normalize().toString();
+    }
+
+    /**
+     * turns a file name into a name that can be used inside the cache directory
+     */
+    private static String encode(String fileName) {
+        try {
+            return URLEncoder.encode(fileName, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return Integer.toHexString(fileName.hashCode());
+        }
+    }
+
+    /**
+     * converts FileState to String
+     * helps with testing
+     */
+    private String stateToString(ClientFileState state) {
+        if (state == ClientFileState.INVALID)
+            return "INVALID";
+        else if (state == ClientFileState.READ_SHARED)
+            return "READ_SHARED";
+        else if (state == ClientFileState.WRITE_OWNED)
+            return "WRITE_OWNED";
+        else
+            return "RELEASE_OWNERSHIP";
+    }
+
+    /**
+     * this hook will make sure that when the client shut down the application with
+     * control-c, the client will write all of its owned files back to the server
+     */
+    private void addShutdownHook() {
+        Runtime.getRuntime().addShutdownHook( new Thread() {
+            public void run() {
+                for (ClientCacheEntry entry : cache.entries())
+                    if (entry.state == ClientFileState.WRITE_OWNED)
+                        uploadModifiedFile(entry);
+                prefetcher.close();
+                history.save(Paths.get(cacheDir, HISTORY));
+                System.out.println(prefetcher);
+            }   
+        });
+    }
+
+    public String toString() {
+    	return "cache: " + cache + "\n" +
+	    	"username: " + username; 
+    }
+
+}
@@ -0,0 +1,154 @@
+package dfs;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+public class FileContents implements Serializable {
+    public static final String IDENTITY = "identity";  // bytes are sent as they are
+    public static final String DEFLATE = "deflate";    // bytes are sent deflated
+    private static final int MAX_DEFLATE_RATIO = 1032;  // best deflate can do on any input
+
+    private byte[] contents;
+    private String encoding = IDENTITY;
+    private int length;                                 // length once decoded
+    private long leaseMillis = -1;                      // read lease, -1 if readers are called back
+    private long version = -1;                          // version of the file, -1 if unknown
+    private boolean notModified;                        // the client's copy is current, no bytes
+
+    public FileContents() { }
+
+    public FileContents( byte[] contents ) {
+	   this.contents = contents;
+	   this.length = contents == null ? 0 : contents.length;
+    }
+
+    /**
+     * @return FileContents with no bytes, telling the client that the copy
+     * it has of the given version is still the server's content
+     */
+    public static FileContents notModified( long version ) {
+	   FileContents fileContents = new FileContents( new byte[0] );
+	   fileContents.version = version;
+	   fileContents.notModified = true;
+	   return fileContents;
+    }
+
+    /**
+     * @return FileContents holding contents in the given encoding. Deflate is only
+     * used when it actually makes the contents smaller
+     */
+    public static FileContents encode( byte[] contents, String encoding ) {
+	   FileContents fileContents = new FileContents( contents );
+	   if ( !DEFLATE.equals(encoding) || contents == null )
+		  return fileContents;
+
+	   Deflater deflater = new Deflater( Deflater.BEST_SPEED );
+	   deflater.setInput( contents );
+	   deflater.finish();
+	   byte[] buffer = new byte[contents.length];
+	   int size = 0;
+	   while ( !deflater.finished() && size < buffer.length )
+		  size += deflater.deflate( buffer, size, buffer.length - size );
+	   boolean smaller = deflater.finished() && size < contents.length;
+	   deflater.end();
+	   if ( smaller ) {
+		  fileContents.contents = Arrays.copyOf( buffer, size );
+		  fileContents.encoding = DEFLATE;
+	   }
+	   return fileContents;
+    }
+
+    public void print( ) throws IOException {
+	   System.out.println( "FileContents = " + contents );
+    }
+
+    /**
+     * @return byte[] the contents, inflated first if they were sent deflated
+     * @throws IllegalStateException if deflated contents are corrupt or truncated
+     */
+    public byte[] get( ) {
+	   return get( Integer.MAX_VALUE - 8 );
+    }
+
+    /**
+     * @param int maxLength is the most bytes the contents may inflate to
+     * @return byte[] the contents, inflated first if they were sent deflated
+     * @throws IllegalStateException if deflated contents are corrupt or truncated,
+     * or claim to be longer than maxLength
+     */
+    public byte[] get( int maxLength ) {
+	   if ( DEFLATE.equals(encoding) ) {
+		  // deflate can't shrink anything by more than about 1032:1, a longer length is a lie
+		  if ( length < 0 || length > maxLength
+			 || length > (long) encodedSize() * MAX_DEFLATE_RATIO + 64 )
+			 throw new IllegalStateException( "deflated contents claim " + length + " bytes" );
+		  Inflater inflater = new Inflater();
+		  inflater.setInput( contents );
+		  byte[] inflated = new byte[length];
+		  int size = 0;
+		  try {
+			 while ( size < length && !inflater.finished() ) {
+				int inflatedNow = inflater.inflate( inflated, size, length - size );
+				if ( inflatedNow == 0 && (inflater.needsInput() || inflater.needsDictionary()) )
+				   break;                       // truncated, no more bytes will come
+				size += inflatedNow;
+			 }
+		  } catch ( DataFormatException e ) {
+			 throw new IllegalStateException( "corrupt deflated contents", e );
+		  } finally {
+			 inflater.end();
+		  }
+		  if ( size != length )
+			 throw new IllegalStateException( "deflated contents hold " + size + " of " + length + " bytes" );
+		  contents = inflated;
+		  encoding = IDENTITY;
+	   }
+	   return contents;
+    }
+
+    /**
+     * @return int number of bytes this object carries on the wire
+     */
+    public int encodedSize( ) {
+	   return contents == null ? 0 : contents.length;
+    }
+
+    /**
+     * @return String encoding the contents are carried in
+     */
+    public String getEncoding( ) {
+	   return encoding;
+    }
+
+    /**
+     * @return long how long the reader may serve these contents without asking
+     * the server again, -1 if it keeps them until it is called back
+     */
+    public long getLeaseMillis( ) {
+	   return leaseMillis;
+    }
+
+    public void setLeaseMillis( long leaseMillis ) {
+	   this.leaseMillis = leaseMillis;
+    }
+
+    /**
+     * @return long version of the file these contents are, -1 if unknown.
+     * A client sends it back with its next download of the file
+     */
+    public long getVersion( ) {
+	   return version;
+    }
+
+    public void setVersion( long version ) {
+	   this.version = version;
+    }
+
+    /**
+     * @return boolean true if the client's copy is current and no bytes were sent
+     */
+    public boolean isNotModified( ) {
+	   return notModified;
+    }
+}
@@ -0,0 +1,106 @@
+package dfs;
+
+import java.io.*;
+import java.security.*;
+import java.util.*;
+
+/**
+ * This class describes a new version of a file in terms of the version the server already has.
+ * It is a list of operations, each one either copies a block of the old version
+ * or inserts literal bytes. Only the literal bytes travel over the network.
+ * The hash of the old version is sent along so the server can refuse a delta
+ * that was computed against content it doesn't have.
+ **/
+
+public class FileDelta implements Serializable {
+
+	private final int blockSize;				// size of the blocks of the old version
+	private final byte[] baseHash;				// MD5 of the old version
+	private final long length;					// length of the new version
+	private final int[] ops;					// >= 0 copies that block of the old version,
+												// < 0 inserts literals[-op - 1]
+	private final List<byte[]> literals;
+
+	public FileDelta(int blockSize, byte[] baseHash, long length, int[] ops, List<byte[]> literals) {
+		this.blockSize = blockSize;
+		this.baseHash = baseHash;
+		this.length = length;
+		this.ops = ops;
+		this.literals = literals;
+	}
+
+	/**
+	 * @return boolean true if base is the content this delta was computed against
+	 */
+	public boolean matches(byte[] base) {
+		return MessageDigest.isEqual(baseHash, md5(base));
+	}
+
+	/**
+	 * rebuilds the new version of the file from the old one
+	 * @throws IllegalArgumentException if the delta refers to blocks base doesn't have,
+	 * to literals it doesn't carry, or doesn't add up to its length
+	 */
+	public byte[] apply(byte[] base) {
+		if (length < 0 || length > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("delta result of " + length + " bytes");
+		if (blockSize <= 0 || ops == null || literals == null)
+			throw new IllegalArgumentException("malformed delta");
+		byte[] result = new byte[(int) length];
+		int position = 0;
+		for (int op : ops) {
+			byte[] from;
+			int offset;
+			int count;
+			if (op >= 0) {
+				from = base;
+				offset = op * blockSize;
+				count = blockSize;
+				if ((long) op * blockSize + blockSize > base.length)
+					throw new IllegalArgumentException("block " + op + " is out of range");
+			} else {
+				int index = -(op + 1);
+				if (index >= literals.size() || literals.get(index) == null)
+					throw new IllegalArgumentException("literal " + index + " is missing");
+				from = literals.get(index);
+				offset = 0;
+				count = from.length;
+			}
+			if (count > result.length - position)
+				throw new IllegalArgumentException("delta is longer than " + length + " bytes");
+			System.arraycopy(from, offset, result, position, count);
+			position += count;
+		}
+		if (position != length)
+			throw new IllegalArgumentException("delta doesn't add up to " + length + " bytes");
+		return result;
+	}
+
+	/**
+	 * @return long approximate number of bytes this delta takes on the wire
+	 */
+	public long size() {
+		long size = baseHash.length + 4L * ops.length;
+		for (byte[] literal : literals)
+			size += literal.length;
+		return size;
+	}
+
+	/**
+	 * @return long length of the new version of the file
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return byte[] MD5 of the given data
+	 */
+	public static byte[] md5(byte[] data) {
+		try {
+			return MessageDigest.getInstance("MD5").digest(data);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package dfs;
+
+import java.io.*;
+
+/**
+ * This class is the answer to one FileRequest of a batch download.
+ * Every request of a batch gets one, in the same order, so a file that can't be
+ * served doesn't fail the others. When the status is OK the client has been
+ * granted the mode it asked for and the contents are included. NOT_MODIFIED
+ * grants the mode too, but the client's copy is current and no bytes are sent.
+ **/
+
+public class FileGrant implements Serializable {
+	public static final String OK = "ok";					// granted, contents included
+	public static final String NOT_MODIFIED = "not modified";	// granted, the client's copy is current
+	public static final String NOT_FOUND = "not found";		// the server can't read the file
+	public static final String BUSY = "busy";				// another client owns the file
+	public static final String BAD_MODE = "bad mode";		// mode is neither "r" nor "w"
+	public static final String TOO_LARGE = "too large";		// 2 GB or more, read it with openRead
+
+	private final String fileName;
+	private final String mode;
+	private final String status;
+	private final FileContents contents;
+
+	public FileGrant(String fileName, String mode, String status, FileContents contents) {
+		this.fileName = fileName;
+		this.mode = mode;
+		this.status = status;
+		this.contents = contents;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public String getMode() {
+		return mode;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return boolean true if the mode was granted, with the contents or without
+	 * them if the client's copy is current
+	 */
+	public boolean isGranted() {
+		return OK.equals(status) || NOT_MODIFIED.equals(status);
+	}
+
+	/**
+	 * @return boolean true if the mode was granted and the client's copy is current
+	 */
+	public boolean isNotModified() {
+		return NOT_MODIFIED.equals(status);
+	}
+
+	/**
+	 * @return FileContents the contents of the file, with no bytes if not modified,
+	 * null unless granted
+	 */
+	public FileContents getContents() {
+		return contents;
+	}
+}
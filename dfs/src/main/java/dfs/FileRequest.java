@@ -0,0 +1,38 @@
+package dfs;
+
+import java.io.*;
+
+/**
+ * This class is one file of a batch download: the name of the file
+ * and the mode the client wants it in, "r" or "w", and the version of
+ * the copy the client has already, if any.
+ **/
+
+public class FileRequest implements Serializable {
+
+	private final String fileName;
+	private final String mode;
+	private final long version;		// version of the client's copy, -1 if it has none
+
+	public FileRequest(String fileName, String mode) {
+		this(fileName, mode, -1);
+	}
+
+	public FileRequest(String fileName, String mode, long version) {
+		this.fileName = fileName;
+		this.mode = mode;
+		this.version = version;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public String getMode() {
+		return mode;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+}
@@ -0,0 +1,2106 @@
+/**
+ * FileServer.java:<p>
+ * @author Darong Leng, Chris Knakal
+ * @since 05/24/2016
+ **/
+
+package dfs;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+import java.rmi.*;
+import java.rmi.server.*;
+import java.rmi.registry.*;
+
+/**
+ * This class server is used to accept requests from clients. It is used to manages the cache and decides
+ * which client will get the file. Some of its features are adding readers to cache objects, sending owner a 
+ * writeback request, sending invalidations to readers, and updating the content of the cache
+ *
+ * It has information of all cached files
+ *
+ * Several servers can share the files as shards of a consistent-hash ring (dfs.shards).
+ * Every shard only serves the files the ring gives it, and asks clients that come
+ * to the wrong shard to go to the right one. A shard added later takes over its
+ * files from the others one by one, whenever nobody is writing them.
+ *
+ * A server can also be a read replica of another one (dfs.replicaOf). The primary
+ * sends it every change of its file table, and the replica serves downloads for
+ * reading as long as it is no more than dfs.replica.maxStaleMs behind. Writes
+ * always go to the primary. A replica can be promoted to primary if it fails.
+ **/
+
+public class FileServer extends UnicastRemoteObject
+	implements ServerInterface, ShardInterface, ReplicaInterface {
+
+	public static void main( String args[] ) {
+		// verify arguments
+		int port = 0;
+		try {
+		    if ( args.length == 3 && args[0].equals( "addshard" ) ) {
+			addShard( args[1], args[2] );
+			return;
+		    }
+		    else if ( args.length >= 2 && args[0].equals( "promote" ) ) {
+			promote( Arrays.copyOfRange( args, 1, args.length ) );
+			return;
+		    }
+		    else if ( args.length == 1 ) {
+			port = Integer.parseInt( args[0] );
+			if ( port < 5001 || port > 65535 )
+			    throw new Exception( );
+		    }
+		    else 
+				throw new Exception( );
+		} catch ( Exception e ) {
+		    System.err.println( "usage: java Server port" );
+		    System.err.println( "       java Server addshard host:port newhost:newport" );
+		    System.err.println( "       java Server promote host:port [replicahost:port ...]" );
+		    System.exit( -1 );
+		}
+
+		try {     
+		    startRegistry( port );
+		    FileServer serverObject = new FileServer( port );
+		    Naming.rebind( "rmi://localhost:" + port + "/server", serverObject );
+		    serverObject.startBinaryServer( );
+		    String primary = System.getProperty( "dfs.replicaOf" );
+		    if ( primary != null && !serverObject.follow( primary ) )
+				throw new Exception( primary + " refused this replica" );
+		    Log.info("Server ready.");
+		} catch ( Exception e ) {
+		    e.printStackTrace( );
+		    System.exit( -1 );
+		}
+    }
+
+    /**
+     * serves the binary protocol next to RMI on dfs.binary.port, if it is set
+     * @throws IOException if the port couldn't be bound
+     */
+    void startBinaryServer( ) throws IOException {
+		Integer binaryPort = Integer.getInteger( "dfs.binary.port" );
+		if ( binaryPort == null )
+			return;
+		new BinaryServer( this, clientStubs, binaryPort, callbackTimeout ).start( );
+		Log.info("Binary protocol on port %s.", binaryPort);
+    }
+
+    /**
+     * puts a new shard, which must be running already, on the ring of the shard at
+     * host:port. Every shard of the ring is told first, so that none of them loads
+     * a file the new shard may load too, and then the new shard. In between, clients
+     * are sent back and forth between them and retry; the new shard serves nothing yet
+     */
+    private static void addShard( String existing, String shard ) throws Exception {
+		ShardInterface seed = ( ShardInterface ) Naming.lookup( "rmi://" + existing + "/server" );
+		List<String> ring = seed.getShards( );
+		if ( ring.isEmpty( ) )
+		    throw new Exception( existing + " is not sharded" );
+		for ( String other : ring )
+		    ( ( ShardInterface ) Naming.lookup( "rmi://" + other + "/server" ) ).addShard( shard );
+		( ( ShardInterface ) Naming.lookup( "rmi://" + shard + "/server" ) ).addShard( shard );
+		System.out.println( shard + " joined " + ring + "." );
+    }
+
+    /**
+     * makes a replica the primary, after the primary failed, and has the
+     * other replicas follow it instead
+     */
+    private static void promote( String[] servers ) throws Exception {
+		ReplicaInterface primary = ( ReplicaInterface ) Naming.lookup( "rmi://" + servers[0] + "/server" );
+		if ( !primary.promote( ) )
+		    throw new Exception( servers[0] + " is not a replica" );
+		for ( int i = 1; i < servers.length; i++ )
+		    ( ( ReplicaInterface ) Naming.lookup( "rmi://" + servers[i] + "/server" ) ).follow( servers[0] );
+		System.out.println( servers[0] + " is the primary now." );
+    }
+
+    private static void startRegistry( int port ) throws RemoteException {
+		try {
+		    Registry registry = LocateRegistry.getRegistry( port );
+		    registry.list( );  
+		}
+		catch ( RemoteException e ) { 
+		    Registry registry = LocateRegistry.createRegistry( port );
+		}
+    }
+
+   	// ------------------------- SERVER STARTS HERE -----------------------------
+    private int clientPort = 0;					// we'll use this port for connection
+	private ConcurrentHashMap<String, ServerEntry> entryTable;	// files that have been read,
+																// keyed by normalized path
+	private ContentCache contentCache;			// bounds the contents kept in memory
+	private ServerMetrics metrics;				// counters and latency histograms
+	private ConcurrentHashMap<Long, Transfer> transfers;	// open chunked transfers
+	private AtomicLong nextTransferId;
+	private boolean compressionEnabled;			// chunks may be sent compressed
+	private int maxChunk;						// most bytes one chunk may carry once inflated
+	private LeasePolicy leasePolicy;			// which files readers get leases on
+
+	private WriteAheadLog writeAheadLog;		// uploads not written back yet, null if disabled
+	private ClientStubCache clientStubs;		// stubs used to call clients back
+	private ExecutorService invalidationPool;	// sends invalidations in parallel
+	private long invalidateTimeout;				// how long an upload waits for readers
+	private long callbackTimeout;				// how long one callback waits for its client
+	private double invalidateQuorum;			// fraction of readers an upload waits for
+	private ConcurrentHashMap<Long, WriteTicket> writeTickets;	// queued writers, until they claim
+	private ExecutorService grantPool;			// grants queued writers and calls them back
+	private ShardMap shards;					// which files this shard serves, null if not sharded
+	private String serverName;					// "host:port" other servers know this one by
+	private Replicator replicator;				// sends changed files to the replicas
+	private volatile String primary;			// the server this one is a replica of, null if none
+	private volatile long upToDateAt;			// this replica's time it was last known to be
+												// up to date with the primary
+	private long maxStaleMillis;				// how far behind a replica may serve reads
+
+	private static final long TRANSFER_IDLE_MILLIS = 10 * 60 * 1000;	// abandoned after 10 minutes
+	private static final long TICKET_IDLE_MILLIS = 60 * 1000;	// waiting clients ask every few seconds
+	private static final long RANGE_IDLE_MILLIS = 10 * 60 * 1000;	// a range not uploaded to is abandoned
+    
+
+    /**
+     * saves client port
+     * instantiates the file table and the content cache, whose byte budget
+     * is read from the dfs.cache.bytes property (half of the heap by default),
+     * the pool used to send invalidations and the cache of client stubs,
+     * which is health checked every dfs.stubs.healthCheckMs. every call back to
+     * a client fails after dfs.callback.timeoutMs
+     * the metrics are registered with JMX and logged every dfs.metrics.dumpMs, if set
+     * reads the ring from dfs.shards, if the server is a shard, and the name
+     * it has for other servers, dfs.replica.self or this host's name and port
+     * replays the write-ahead log left by a previous run and opens a new one
+     * in dfs.wal.dir (".dfs-wal" by default, ".dfs-wal-port" for shards, "none" disables it)
+     * add a shut down hook so that when the server is closed with Ctrl^C,
+     * the server will saves everything in memory back into disk
+     * @param int port is the port that will be used to connect to the client
+     * @throws RemoteException
+     */
+    public FileServer(int port) throws RemoteException {
+    	clientPort = port;
+    	shards = ShardMap.fromProperties(port);
+    	if ( shards != null )
+    		Log.info("Shard %s of %s.", shards.self(), shards.shards());
+    	serverName = shards != null ? shards.self() : System.getProperty("dfs.replica.self", localName(port));
+    	openWriteAheadLog();
+    	entryTable = new ConcurrentHashMap<String, ServerEntry>();
+    	contentCache = new ContentCache(
+    		Long.getLong("dfs.cache.bytes", Runtime.getRuntime().maxMemory() / 2));
+    	metrics = new ServerMetrics(contentCache);
+    	metrics.register();
+    	long metricsPeriod = Long.getLong("dfs.metrics.dumpMs", 0);
+    	if ( metricsPeriod > 0 )
+    		Executors.newSingleThreadScheduledExecutor(daemonThreads("metrics")).scheduleWithFixedDelay(
+    			() -> Log.info("%s", metrics.dump()), metricsPeriod, metricsPeriod, TimeUnit.MILLISECONDS);
+    	transfers = new ConcurrentHashMap<Long, Transfer>();
+    	// servers start from different ids, so a client can tell whose transfer an id is
+    	nextTransferId = new AtomicLong((long) (serverName.hashCode() & 0x7fff) << 48);
+    	compressionEnabled = Boolean.parseBoolean(System.getProperty("dfs.compression.enabled", "true"));
+    	maxChunk = Integer.getInteger("dfs.chunk.maxBytes", 16 * 1024 * 1024);
+    	leasePolicy = LeasePolicy.fromProperties();
+    	if ( leasePolicy.isEnabled() )
+    		Log.info("Read leases are enabled.");
+    	// RMI waits for an answer forever, so one hung client would hold an
+    	// invalidation or grant thread for good without a limit on every callback
+    	callbackTimeout = Long.getLong("dfs.callback.timeoutMs", 10000);
+    	clientStubs = new ClientStubCache(port, Long.getLong("dfs.stubs.ttlMs", 5 * 60 * 1000), callbackTimeout);
+    	long healthCheckPeriod = Long.getLong("dfs.stubs.healthCheckMs", 30 * 1000);
+    	Executors.newSingleThreadScheduledExecutor(daemonThreads("stub-health")).scheduleWithFixedDelay(
+    		() -> clientStubs.checkHealth(), healthCheckPeriod, healthCheckPeriod, TimeUnit.MILLISECONDS);
+    	invalidationPool = Executors.newFixedThreadPool(
+    		Integer.getInteger("dfs.invalidate.threads", 32), daemonThreads("invalidate"));
+    	invalidateTimeout = Long.getLong("dfs.invalidate.timeoutMs", 2000);
+    	invalidateQuorum = Double.parseDouble(System.getProperty("dfs.invalidate.quorum", "1.0"));
+    	writeTickets = new ConcurrentHashMap<Long, WriteTicket>();
+    	grantPool = Executors.newFixedThreadPool(
+    		Integer.getInteger("dfs.grant.threads", 4), daemonThreads("grant"));
+    	replicator = new Replicator(this::snapshot);
+    	maxStaleMillis = Long.getLong("dfs.replica.maxStaleMs", 5000);
+    	addShutdownHook();
+    }
+
+    /**
+     * add clientIp to the cache list or
+     * gives write permission to the client
+     * and finally returns the content to the client
+     * 
+     * @param String clientIp is IP name of the client
+     * @param String fileName is name of the file client wants to access
+     * @param String mode is "r" for read, "w" for write
+     * @return FileContent if file is found, otherwise null
+     * @throws RemoteException
+     */
+    public FileContents download( String clientIp, String fileName, String mode )
+	throws RemoteException 
+	{
+		return download(clientIp, fileName, mode, -1);
+	}
+
+	/**
+     * same as download, but the client already has a copy of the given version.
+     * If it is still the server's version, the client is granted the file as usual
+     * but gets no bytes back, only a FileContents that isNotModified.
+     * This also makes a read-to-write upgrade of a file cost no transfer
+     *
+     * @param long version is the version of the client's copy, -1 if it has none
+     * @return FileContent if file is found, otherwise null
+     * @throws RemoteException
+     */
+    public FileContents download( String clientIp, String fileName, String mode, long version )
+	throws RemoteException
+	{
+		long start = System.nanoTime();
+		ServerEntry targetEntry = grantAccess(clientIp, fileName, mode, true);
+		if ( targetEntry == null )
+			return null;
+
+		FileContents outputContent;
+		try {
+			long lease = grantLease(targetEntry, mode);		// before the content is read
+			Transfer transfer = readTransfer(0, clientIp, targetEntry, version);
+			outputContent = transfer.isNotModified()
+				? FileContents.notModified(transfer.getVersion())
+				: new FileContents( transfer.getSnapshot().toByteArray() );
+			outputContent.setVersion(transfer.getVersion());
+			outputContent.setLeaseMillis(lease);
+			metrics.downloads.increment();
+			metrics.bytesSent.add(outputContent.encodedSize());
+			metrics.downloadLatency.recordSince(start);
+		} catch (IOException ie) {
+			Log.error("Error: IOException in download()");
+			return null;
+		}
+		Log.debug("Sends content to client %s", clientIp);
+
+		return outputContent;
+	}
+
+	/**
+     * same as download, but returns the entry's storage instead of a copy of it,
+     * so the binary protocol can write it to the socket directly
+     * @return Transfer a read transfer of the content that is not registered,
+     * null if the request can't be served
+     */
+	Transfer downloadContent( String clientIp, String fileName, String mode, long version ) {
+		long start = System.nanoTime();
+		ServerEntry targetEntry = grantAccess(clientIp, fileName, mode, true);
+		if ( targetEntry == null )
+			return null;
+		try {
+			long lease = grantLease(targetEntry, mode);
+			Transfer transfer = readTransfer(0, clientIp, targetEntry, version);
+			transfer.setLeaseMillis(lease);
+			metrics.downloads.increment();
+			metrics.bytesSent.add(transfer.getSnapshot().size());
+			metrics.downloadLatency.recordSince(start);
+			Log.debug("Sends content to client %s", clientIp);
+			return transfer;
+		} catch (IOException ie) {
+			Log.error("Error: IOException in download()");
+			return null;
+		}
+	}
+
+	/**
+     * downloads many files in one call. Every request gets a FileGrant in the
+     * same order, so one missing or busy file doesn't fail the batch.
+     * Each file is granted and read under a single acquisition of its lock, and
+     * the content cache is trimmed once for the whole batch.
+     * A batch never waits for another writer: a file owned by somebody else
+     * comes back BUSY and the client downloads it on its own later.
+     *
+     * @param String clientIp is IP name of the client
+     * @param List<FileRequest> requests are the files and the modes the client wants
+     * @param String acceptEncoding is the encoding the client can decode, "deflate" or "identity"
+     * @return List<FileGrant> one grant per request
+     * @throws RemoteException
+     */
+    public List<FileGrant> downloadBatch( String clientIp, List<FileRequest> requests, String acceptEncoding )
+    throws RemoteException
+	{
+		long start = System.nanoTime();
+		Log.debug("Batch-Download Request From: %s, %s files.", clientIp, requests.size());
+		for (FileRequest request : requests)
+			checkReplica(request.getFileName(), request.getMode());
+		String encoding = compressionEnabled && FileContents.DEFLATE.equals(acceptEncoding)
+			? FileContents.DEFLATE : FileContents.IDENTITY;
+
+		List<FileGrant> grants = new ArrayList<FileGrant>(requests.size());
+		int granted = 0;
+		for (FileRequest request : requests) {
+			FileGrant grant = grantInBatch(clientIp, request, encoding);
+			if (grant.isGranted()) {
+				granted++;
+				metrics.bytesSent.add(grant.getContents().encodedSize());
+			}
+			grants.add(grant);
+		}
+		contentCache.evict();
+		metrics.downloads.add(granted);
+		metrics.downloadLatency.recordSince(start);		// one sample per batch
+		Log.debug("Sends %s of %s files to client %s", granted, requests.size(), clientIp);
+		return grants;
+	}
+
+	/**
+     * grants one file of a batch and reads its content while holding its lock once
+     */
+	private FileGrant grantInBatch( String clientIp, FileRequest request, String encoding ) {
+		String fileName = request.getFileName();
+		String mode = request.getMode();
+		if ( !"r".equals(mode) && !"w".equals(mode) )
+			return new FileGrant(fileName, mode, FileGrant.BAD_MODE, null);
+
+		ServerEntry entry;
+		try {
+			entry = getOrLoadEntry(fileName);
+		} catch (IOException ie) {
+			return new FileGrant(fileName, mode, FileGrant.NOT_FOUND, null);
+		}
+
+		ContentStore content = null;
+		long lease = -1;
+		long version;
+		lockEntry(entry);
+		try {
+			if ( mode.equals("w") )
+				dropIdleRanges(entry);
+			if ( mode.equals("w") && (entry.isWriteShared() || entry.hasRanges() || entry.hasWaitingWriters())
+				&& !clientIp.equals(entry.owner) )
+				return new FileGrant(fileName, mode, FileGrant.BUSY, null);
+			long leaseMillis = leasePolicy.leaseMillis(entry.getFileName());
+			if ( mode.equals("r") && leaseMillis > 0 )
+				lease = entry.grantLease(leaseMillis);		// before the content is read
+			version = entry.getVersion();
+			if ( version != request.getVersion() )
+				content = contentCache.get(entry);
+			else
+				metrics.notModified.increment();
+			if ( content != null && content.size() > Integer.MAX_VALUE )
+				return new FileGrant(fileName, mode, FileGrant.TOO_LARGE, null);
+			if ( mode.equals("r") ) {
+				if (leaseMillis <= 0 && !entry.readerList.contains( clientIp ))
+					entry.readerList.add(clientIp);
+				if (entry.isNotShared())
+					entry.stateToReadShared();
+			} else {
+				entry.setWriter( clientIp );
+			}
+		} catch (IOException ie) {
+			Log.error("Error: IOException in downloadBatch()");
+			return new FileGrant(fileName, mode, FileGrant.NOT_FOUND, null);
+		} finally {
+			entry.unlock();
+		}
+		replicator.changed(entry.getFileName());
+		FileContents contents = content == null
+			? FileContents.notModified( version )
+			: FileContents.encode( content.toByteArray(), encoding );
+		contents.setVersion(version);
+		contents.setLeaseMillis(lease);
+		return new FileGrant(fileName, mode, content == null ? FileGrant.NOT_MODIFIED : FileGrant.OK, contents);
+	}
+
+	/**
+     * checks the mode, loads the file if needed, and then
+     * add clientIp to the cache list or gives write permission to the client
+     *
+     * @param boolean whole is true if the content is sent in one call, which
+     * can't hold a file of 2 GB or more; those are refused before they are granted
+     * @return ServerEntry the entry of the file, null if the request can't be served
+     */
+	private ServerEntry grantAccess( String clientIp, String fileName, String mode, boolean whole ) {
+		if (mode.equals("r"))
+			Log.debug("Read-Download Request From: %s, fileName: %s, mode: %s.", clientIp, fileName, mode);
+		else 
+			Log.debug("Write-Download Request From: %s, fileName: %s, mode: %s.", clientIp, fileName, mode);
+
+		// check if the mode is valid
+		if ( !mode.equals("r") && !mode.equals("w") ) {
+			Log.warn("%s: Unknown download mode. Download request not served.", mode);
+			return null;
+		}
+		checkReplica(fileName, mode);
+		if ( mode.equals("w") )
+			dropIdleTickets();				// an abandoned ticket may hold the file
+
+		// get file from cache or load it from disk to memory
+		ServerEntry targetEntry;
+		try {
+			targetEntry = getOrLoadEntry(fileName);
+		} catch (IOException ie) {
+			Log.error("Error: IOException in download()");
+			return null;
+		} catch (WrongShardException wse) {
+			throw wse;
+		} catch (Exception e) {
+			Log.error("Error: in download()");
+			return null;
+		}
+		if ( whole && isTooLarge(targetEntry) )
+			return null;
+			
+		if (mode.equals("r")) 
+			addReader(targetEntry, clientIp, fileName);
+		else if ( !addWriter(targetEntry, clientIp, fileName) )
+			return null;
+		return targetEntry;
+	}
+
+	/**
+     * updates the content of cache if method is called
+     * 
+     * @param String clientIp is IP name of the client
+     * @param String fileName is name of the file client wants to access
+     * @param FileContents content of the file
+     * @return boolean true if updates successfully, false otherwise
+     * @throws RemoteException
+     */
+    public boolean upload( String clientIp, String fileName, FileContents contents ) 
+    throws RemoteException 
+	{	
+		checkReplica(fileName, "w");
+		Log.debug("Received upload request from: %s.", clientIp);
+		metrics.bytesReceived.add(contents.encodedSize());
+		
+		// get file from cache if there is one
+		ServerEntry entry = getEntry(fileName);
+
+		// check if file not in cache
+		if ( entry == null )  		
+			return false;
+		
+		// return entry.updateContent(contents);
+		try {
+			return updateContent(entry, contents);
+		} catch (IllegalStateException e) {
+			Log.error("Error: bad upload from %s: %s", clientIp, e.getMessage());
+			return false;
+		}
+	}
+
+
+    /**
+     * same as download, but instead of returning the content it opens a read transfer
+     * the client then fetches the content chunk by chunk with readChunk
+     *
+     * @param String clientIp is IP name of the client
+     * @param String fileName is name of the file client wants to access
+     * @param String mode is "r" for read, "w" for write
+     * @return long id of the transfer, -1 if the file can't be served
+     * @throws RemoteException
+     */
+    public long openRead( String clientIp, String fileName, String mode )
+    throws RemoteException
+	{
+		return openRead(clientIp, fileName, mode, FileContents.IDENTITY);
+	}
+
+    /**
+     * same as openRead, but the chunks are compressed when the client accepts
+     * the encoding, the server allows compression (dfs.compression.enabled, on by default)
+     * and compressing actually makes a chunk smaller
+     *
+     * @param String acceptEncoding is the encoding the client can decode, "deflate" or "identity"
+     * @return long id of the transfer, -1 if the file can't be served
+     * @throws RemoteException
+     */
+    public long openRead( String clientIp, String fileName, String mode, String acceptEncoding )
+    throws RemoteException
+	{
+		return openRead(clientIp, fileName, mode, acceptEncoding, -1);
+	}
+
+    /**
+     * same as openRead, but the client already has a copy of the given version.
+     * If it is still the server's version the transfer has no content, and its
+     * only chunk isNotModified
+     *
+     * @param long version is the version of the client's copy, -1 if it has none
+     * @return long id of the transfer, -1 if the file can't be served
+     * @throws RemoteException
+     */
+    public long openRead( String clientIp, String fileName, String mode, String acceptEncoding, long version )
+    throws RemoteException
+	{
+		long start = System.nanoTime();
+		dropIdleTransfers();
+		ServerEntry targetEntry = grantAccess(clientIp, fileName, mode, false);
+		if ( targetEntry == null )
+			return -1;
+
+		try {
+			long lease = grantLease(targetEntry, mode);
+			Transfer transfer = readTransfer(nextTransferId.incrementAndGet(), clientIp, targetEntry, version);
+			transfer.setLeaseMillis(lease);
+			if ( compressionEnabled && FileContents.DEFLATE.equals(acceptEncoding) )
+				transfer.setEncoding(FileContents.DEFLATE);
+			transfers.put(transfer.getId(), transfer);
+			metrics.downloads.increment();
+			metrics.downloadLatency.recordSince(start);		// until the content is ready
+			return transfer.getId();
+		} catch (IOException ie) {
+			Log.error("Error: IOException in openRead()");
+			return -1;
+		}
+	}
+
+    /**
+     * reads one chunk of an open read transfer
+     * the transfer is closed once a chunk shorter than length is returned
+     *
+     * @param long transferId is the id returned by openRead
+     * @param long offset is the position of the chunk in the file
+     * @param int length is the maximum size of the chunk
+     * @return FileContents the chunk, null if the transfer doesn't exist
+     * @throws RemoteException
+     */
+    public FileContents readChunk( long transferId, long offset, int length )
+    throws RemoteException
+	{
+		Transfer transfer = transfers.get(transferId);
+		if ( transfer == null || !transfer.isRead() )
+			return null;
+
+		byte[] chunk = transfer.read(offset, length);
+		if ( chunk == null )
+			return null;
+		if ( chunk.length < length ) {		// end of file reached
+			transfers.remove(transferId);
+			transfer.discard();
+			Log.debug("Sends content to client %s", transfer.getClientIp());
+		}
+		FileContents contents = transfer.isNotModified()
+			? FileContents.notModified( transfer.getVersion() )
+			: FileContents.encode( chunk, transfer.getEncoding() );
+		contents.setVersion( transfer.getVersion() );
+		contents.setLeaseMillis( transfer.getLeaseMillis() );
+		metrics.bytesSent.add( contents.encodedSize() );
+		return contents;
+	}
+
+    /**
+     * opens a write transfer for a cached file
+     * the client then sends the content with writeChunk and finishes with commit
+     *
+     * @param String clientIp is IP name of the client
+     * @param String fileName is name of the file client wants to update
+     * @return long id of the transfer, -1 if the file is not cached
+     * @throws RemoteException
+     */
+    public long openWrite( String clientIp, String fileName )
+    throws RemoteException
+	{
+		checkReplica(fileName, "w");
+		Log.debug("Received upload request from: %s.", clientIp);
+		dropIdleTransfers();
+		ServerEntry entry = getEntry(fileName);
+		if ( entry == null )
+			return -1;
+
+		try {
+			Transfer transfer = Transfer.forWrite(nextTransferId.incrementAndGet(), clientIp, entry);
+			transfers.put(transfer.getId(), transfer);
+			return transfer.getId();
+		} catch (IOException ie) {
+			Log.error("Error: IOException in openWrite()");
+			return -1;
+		}
+	}
+
+    /**
+     * appends one chunk to an open write transfer
+     *
+     * @param long transferId is the id returned by openWrite
+     * @param long offset is the position of the chunk, chunks must be sent in order
+     * @param FileContents chunk is the data
+     * @return boolean true if the chunk was accepted
+     * @throws RemoteException
+     */
+    public boolean writeChunk( long transferId, long offset, FileContents chunk )
+    throws RemoteException
+	{
+		Transfer transfer = transfers.get(transferId);
+		if ( transfer == null || transfer.isRead() )
+			return false;
+		metrics.bytesReceived.add(chunk.encodedSize());
+		byte[] bytes;
+		try {
+			bytes = chunk.get(maxChunk);
+		} catch (IllegalStateException e) {
+			Log.error("Error: bad chunk from %s: %s", transfer.getClientIp(), e.getMessage());
+			return false;
+		}
+		return transfer.write(offset, bytes);
+	}
+
+    /**
+     * finishes a write transfer: the spooled content is moved over the file on disk
+     * and the entry drops the content it held, which is read again when it is next
+     * asked for. The upload is never held in memory as a whole, whatever its size
+     *
+     * @param long transferId is the id returned by openWrite
+     * @return boolean true if updates successfully, false otherwise
+     * @throws RemoteException
+     */
+    public boolean commit( long transferId ) throws RemoteException {
+		Transfer transfer = transfers.remove(transferId);
+		if ( transfer == null || transfer.isRead() )
+			return false;
+		try {
+			return replaceContent(transfer.getEntry(), transfer.finish());
+		} catch (IOException ie) {
+			Log.error("Error: IOException in commit()");
+			return false;
+		} finally {
+			transfer.discard();
+		}
+	}
+
+    /**
+     * rebuilds the new content of a file from the cached content and a delta
+     * and updates the cache with it
+     *
+     * @param String clientIp is IP name of the client
+     * @param String fileName is name of the file client wants to update
+     * @param FileDelta delta describes the new content in terms of the cached one
+     * @return boolean true if updates successfully, false if the delta doesn't apply
+     * to the cached content, in which case the client uploads the whole file instead
+     * @throws RemoteException
+     */
+    public boolean uploadDelta( String clientIp, String fileName, FileDelta delta )
+    throws RemoteException
+	{
+		checkReplica(fileName, "w");
+		Log.debug("Received delta upload request from: %s.", clientIp);
+		metrics.bytesReceived.add(delta.size());
+
+		ServerEntry entry = getEntry(fileName);
+		if ( entry == null )
+			return false;
+
+		// the new content is built under the lock, but updateContent takes it itself,
+		// since it calls readers back and waits for replicas after releasing it
+		byte[] content;
+		entry.lock();
+		try {
+			if ( !entry.isWriteShared() )
+				return false;
+			ContentStore cached = contentCache.get(entry);
+			if ( cached.size() > Integer.MAX_VALUE ) {
+				Log.warn("%s is too large for a delta upload.", entry.getFileName());
+				return false;
+			}
+			byte[] base = cached.toByteArray();
+			if ( !delta.matches(base) ) {
+				Log.warn("Delta from %s doesn't match cached content.", clientIp);
+				return false;
+			}
+			content = delta.apply(base);
+		} catch (IOException ie) {
+			Log.error("Error: IOException in uploadDelta()");
+			return false;
+		} catch (IllegalArgumentException iae) {
+			Log.error("Error: invalid delta in uploadDelta()");
+			return false;
+		} finally {
+			entry.unlock();
+		}
+		return updateContent(entry, new FileContents( content ));
+	}
+
+	/**
+	 * drops transfers that clients opened but never finished
+	 */
+	private void dropIdleTransfers() {
+		long now = System.currentTimeMillis();
+		for (Transfer transfer : transfers.values()) {
+			if ( transfer.isIdle(now, TRANSFER_IDLE_MILLIS) && transfers.remove(transfer.getId(), transfer) ) {
+				Log.info("Dropping idle transfer of %s.", transfer.getClientIp());
+				transfer.discard();
+			}
+		}
+	}
+
+	/**
+	 * drops write tickets whose clients stopped asking about them, because they
+	 * crashed or gave up. A queued ticket leaves the file's writer queue, and the
+	 * file of a granted one that was never claimed is given up. Either way the
+	 * next writer in line gets its turn
+	 */
+	private void dropIdleTickets() {
+		long now = System.currentTimeMillis();
+		for (WriteTicket ticket : writeTickets.values()) {
+			if ( !ticket.isIdle(now, TICKET_IDLE_MILLIS) || !writeTickets.remove(ticket.getId(), ticket) )
+				continue;
+			Log.info("Dropping idle write ticket of %s.", ticket.getClientIp());
+			ServerEntry entry = ticket.getEntry();
+			entry.lock();
+			try {
+				boolean passTurn = ticket.isGranted() || entry.isNextWriter(ticket);
+				if ( ticket.isGranted() ) {
+					if ( entry.isWriteShared() && ticket.getClientIp().equals(entry.owner) )
+						entry.releaseWriter();
+				} else if ( entry.hasWaitingWriter(ticket) ) {
+					entry.dequeueWriter(ticket);
+					metrics.waitingWriters.decrement();
+				}
+				if ( passTurn ) {
+					entry.signalNextWriter();
+					entry.signalRangesChanged();
+				}
+			} finally {
+				entry.unlock();
+			}
+			replicator.changed(entry.getFileName());
+		}
+	}
+
+	/**
+	 * drops the byte-range tokens of a file whose holders stopped uploading to them,
+	 * because they crashed or never released them. Whoever waits for the file or
+	 * part of it gets another look. the caller must hold the entry's lock
+	 */
+	private void dropIdleRanges(ServerEntry entry) {
+		for (ByteRange range : entry.dropIdleRanges(System.currentTimeMillis(), RANGE_IDLE_MILLIS))
+			Log.info("Dropping idle range %s of %s.", range, entry.getFileName());
+	}
+
+	/**
+     * add clientIp to the entry's reader list
+     * and sets entry's state to READ_SHARED if neccessary
+     * readers of files with leases are not added, they are never called back
+     */
+	private void addReader(ServerEntry entry, String clientIp, String fileName) {
+		boolean callback = leasePolicy.leaseMillis(entry.getFileName()) <= 0;
+		lockEntry(entry);
+		try {
+			if (callback && !entry.readerList.contains( clientIp )) 
+				entry.readerList.add(clientIp); 	
+			if (entry.isNotShared())
+				entry.stateToReadShared();
+		} finally {
+			entry.unlock();
+		}
+		replicator.changed(entry.getFileName());
+	}
+
+	/**
+     * it gives client the write permission immediately or
+     * has them wait.
+     * It sets entry's state to WRITE_SHARED if neccessary
+     *
+     * Writers of the same file wait on that file's queue in arrival order,
+     * so a busy file never blocks or wakes up writers of other files.
+     * Only the first writer in the queue asks the owner to write back.
+     * Holders of byte-range tokens are asked to write back the same way,
+     * and the writer waits until they have released them.
+     * @return boolean true if clientIp owns the file now, false if the
+     * thread was interrupted while waiting
+     */
+	private boolean addWriter(ServerEntry entry, String clientIp, String fileName) {
+		lockEntry(entry);
+		try {
+			dropIdleRanges(entry);
+			// nobody else owns the file or part of it and nobody is ahead of us
+			if (entry.isFreeFor( clientIp )) {
+				entry.setWriter( clientIp );				// updates owner and state
+				return true;
+			}
+
+			/*
+				this block sends a writeback request to the file owner once we are
+				first in line. if the file owner uploads the file back immediately
+				then clientIp (requester) doesn't have to wait, otherwise the owner
+				is still editing the file and will be uploading when done editing.
+				the entry lock is released during the callback since the owner's
+				upload needs it.
+			*/
+			WriteTicket turn = entry.enqueueWriter(clientIp);
+			metrics.waitingWriters.increment();
+			try {
+				while ( entry.isWriteShared() || entry.hasRanges() || !entry.isNextWriter(turn) ) {
+					if ( entry.isNextWriter(turn) ) {
+						List<String> owners = entry.isWriteShared()
+							? Collections.singletonList(entry.owner) : entry.rangeOwners();
+						entry.unlock();
+						try {
+							for (String owner : owners)
+								requestWriteback(owner, entry.getFileName());
+						} finally {
+							entry.lock();
+						}
+						if ( !entry.isWriteShared() && !entry.hasRanges() )
+							break;
+					}
+					Log.debug("%s is waiting for %s.", clientIp, fileName);
+					turn.await(RANGE_IDLE_MILLIS);		// an abandoned range is only dropped when looked at
+					dropIdleRanges(entry);
+				}
+				Log.debug("%s uploaded file back.", clientIp);
+				entry.setWriter( clientIp );
+				metrics.writebackWait.recordSince(turn.getQueuedAt());
+				return true;
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				return false;
+			} finally {
+				entry.dequeueWriter(turn);
+				metrics.waitingWriters.decrement();
+				// the next writer in line asks the new owner to write back
+				entry.signalNextWriter();
+				entry.signalRangesChanged();	// range writers may have waited for us
+			}
+		} finally {
+			entry.unlock();
+			replicator.changed(entry.getFileName());
+		}
+	}
+
+	/**
+	 * queues a write request without waiting for the file, so that no server
+	 * thread is parked while the current owner keeps editing.
+	 * When the file is free the client is granted it right away, otherwise it is
+	 * called back with writeGranted once ownership passes to it. Either way it then
+	 * gets the content with claimWrite.
+	 *
+	 * @param String clientIp is IP name of the client
+	 * @param String fileName is name of the file client wants to write
+	 * @return long the ticket of the request, -1 if the file can't be found
+	 * @throws RemoteException
+	 */
+	public long requestWrite( String clientIp, String fileName ) throws RemoteException {
+		checkReplica(fileName, "w");
+		Log.debug("Write Request From: %s, fileName: %s.", clientIp, fileName);
+		dropIdleTickets();
+		ServerEntry entry;
+		try {
+			entry = getOrLoadEntry(fileName);
+		} catch (IOException ie) {
+			Log.error("Error: IOException in requestWrite()");
+			return -1;
+		}
+
+		lockEntry(entry);
+		WriteTicket ticket = WriteTicket.queued(nextTransferId.incrementAndGet(), clientIp, entry,
+			t -> grantPool.execute(() -> serveQueuedWriter(t, true)));
+		writeTickets.put(ticket.getId(), ticket);
+		try {
+			dropIdleRanges(entry);
+			if (entry.isFreeFor( clientIp ))
+				grantWrite(entry, ticket);
+			else {
+				metrics.waitingWriters.increment();
+				entry.enqueueWriter(ticket);		// serveQueuedWriter runs once it is first
+			}
+		} finally {
+			entry.unlock();
+		}
+		return ticket.getId();
+	}
+
+	/**
+	 * gets the content of a file whose write request was granted,
+	 * through a read transfer as with openRead
+	 *
+	 * @param long ticketId is the ticket returned by requestWrite
+	 * @param String acceptEncoding is the encoding the client can decode, "deflate" or "identity"
+	 * @return long id of the transfer, 0 if the write hasn't been granted yet,
+	 * -1 if the ticket is unknown or was dropped because the client stopped asking
+	 * @throws RemoteException
+	 */
+	public long claimWrite( String clientIp, long ticketId, String acceptEncoding ) throws RemoteException {
+		return claimWrite(clientIp, ticketId, acceptEncoding, -1);
+	}
+
+	/**
+	 * same as claimWrite, but the client already has a copy of the given version,
+	 * as a reader upgrading to a writer usually does. If it is still the server's
+	 * version the transfer has no content
+	 *
+	 * @param long version is the version of the client's copy, -1 if it has none
+	 * @return long id of the transfer, 0 if the write hasn't been granted yet,
+	 * -1 if the ticket is unknown or was dropped because the client stopped asking
+	 * @throws RemoteException
+	 */
+	public long claimWrite( String clientIp, long ticketId, String acceptEncoding, long version )
+	throws RemoteException
+	{
+		WriteTicket ticket = writeTickets.get(ticketId);
+		if ( ticket == null || !ticket.getClientIp().equals(clientIp) )
+			return -1;
+		ticket.touch();
+		if ( !ticket.isGranted() ) {
+			ServerEntry entry = ticket.getEntry();
+			entry.lock();
+			try {
+				dropIdleRanges(entry);		// the writers in line are signaled if one was dropped
+			} finally {
+				entry.unlock();
+			}
+			return 0;
+		}
+		if ( !writeTickets.remove(ticketId, ticket) )
+			return -1;							// dropped as idle in the meantime
+
+		try {
+			ServerEntry entry = ticket.getEntry();
+			Transfer transfer = readTransfer(nextTransferId.incrementAndGet(), clientIp, entry, version);
+			if ( compressionEnabled && FileContents.DEFLATE.equals(acceptEncoding) )
+				transfer.setEncoding(FileContents.DEFLATE);
+			transfers.put(transfer.getId(), transfer);
+			metrics.downloads.increment();
+			return transfer.getId();
+		} catch (IOException ie) {
+			Log.error("Error: IOException in claimWrite()");
+			return -1;
+		}
+	}
+
+	/**
+	 * runs on the grant pool when a queued writer is first in line.
+	 * It grants the file if it is free, otherwise asks the owners to write back
+	 * once and leaves the writer queued until the file is signaled again.
+	 */
+	private void serveQueuedWriter(WriteTicket ticket, boolean askOwners) {
+		ServerEntry entry = ticket.getEntry();
+		List<String> owners;
+		entry.lock();
+		try {
+			if ( !entry.isNextWriter(ticket) )
+				return;
+			if ( !entry.isWriteShared() && !entry.hasRanges() ) {
+				entry.dequeueWriter(ticket);
+				metrics.waitingWriters.decrement();
+				metrics.writebackWait.recordSince(ticket.getQueuedAt());
+				grantWrite(entry, ticket);
+				entry.signalNextWriter();		// the next writer asks the new owner to write back
+				entry.signalRangesChanged();
+			} else if ( !askOwners ) {
+				return;
+			}
+			owners = entry.isWriteShared()
+				? Collections.singletonList(entry.owner) : entry.rangeOwners();
+		} finally {
+			entry.unlock();
+		}
+
+		if ( ticket.isGranted() ) {
+			notifyGranted(ticket);
+			return;
+		}
+		Log.debug("%s is queued for %s.", ticket.getClientIp(), entry.getFileName());
+		for (String owner : owners)
+			requestWriteback(owner, entry.getFileName());
+		serveQueuedWriter(ticket, false);		// the owners may have written back already
+	}
+
+	/**
+	 * makes the client of ticket the owner of the file. the caller must hold the entry's lock
+	 */
+	private void grantWrite(ServerEntry entry, WriteTicket ticket) {
+		entry.setWriter( ticket.getClientIp() );
+		ticket.setGranted();
+		replicator.changed(entry.getFileName());
+	}
+
+	/**
+	 * tells a queued writer that the file is its now
+	 */
+	private void notifyGranted(WriteTicket ticket) {
+		String fileName = ticket.getEntry().getFileName();
+		Log.debug("%s was granted %s.", ticket.getClientIp(), fileName);
+		try {
+			clientStubs.invoke( ticket.getClientIp(), client -> client.writeGranted(fileName, ticket.getId()) );
+		} catch (Exception e) {
+			Log.error("Error when telling a writer it was granted a file.");
+		}
+	}
+
+	/**
+	 * grants a read lease on the file if it has leases
+	 * @return long length of the lease, 0 if none could be granted right now,
+	 * -1 if readers of the file are called back instead
+	 */
+	private long grantLease(ServerEntry entry, String mode) {
+		long leaseMillis = leasePolicy.leaseMillis(entry.getFileName());
+		if ( !mode.equals("r") || leaseMillis <= 0 )
+			return -1;
+		lockEntry(entry);
+		try {
+			return entry.grantLease(leaseMillis);
+		} finally {
+			entry.unlock();
+		}
+	}
+
+	/**
+	 * sends a writeback request to the owner of a file
+	 * @return boolean true if the owner uploaded the file back immediately
+	 */
+	private boolean requestWriteback(String ownerIp, String fileName) {
+		metrics.writebackRequests.increment();
+		try {
+			return clientStubs.invoke( ownerIp, client -> client.writeback(fileName) );
+		} catch (Exception e) {
+			Log.error("Error when asking an owner to write back.");
+			return false;
+		}
+	}
+
+
+	/**
+	 * It updates the content of the cache with uploaded bytes, which are logged
+	 * and kept in memory until they are written back, see updateContent below
+	 */
+	private boolean updateContent(ServerEntry entry, FileContents contents) {
+		byte[] content = contents.get();
+		return updateContent(entry, () -> entry.contentEquals(content), () -> {
+			if ( !logContent(entry, content) )
+				return false;
+			entry.setContent(content);
+			contentCache.update(entry);
+			return true;
+		});
+	}
+
+	/**
+	 * It updates the file with an upload spooled to disk, which is moved over
+	 * the file instead of being read into memory, see updateContent below.
+	 * The move makes the upload durable, so only the fact that the file on disk
+	 * is current goes to the write-ahead log
+	 */
+	private boolean replaceContent(ServerEntry entry, Path spooled) {
+		return updateContent(entry, () -> entry.contentEquals(spooled), () -> {
+			try {
+				entry.replaceFile(spooled);
+			} catch (IOException ie) {
+				Log.error("Error: when moving the upload of %s into place.", entry.getFileName());
+				return false;
+			}
+			contentCache.remove(entry);
+			logSaved(entry);
+			return true;
+		});
+	}
+
+	/**
+	 * It updates the content of the cache
+	 * sets state to NOT_SHARED, resets the owner, invalidates all readers
+	 * It also wakes up the next writer waiting for this file
+	 * An upload of the content the file has already only gives the file up:
+	 * the version stays, and so do the readers, whose copies are still current
+	 * The readers are invalidated after the entry lock is released,
+	 * so a slow reader never holds up the next writer of this file
+	 * @param BooleanSupplier unchanged tells, under the entry's lock, whether the
+	 * upload is the content the file has already
+	 * @param BooleanSupplier apply sets the new content under the entry's lock,
+	 * false if it couldn't
+     * return false if update is not successful
+     * return true if update is sucessful
+     */
+	private boolean updateContent(ServerEntry entry, BooleanSupplier unchanged, BooleanSupplier apply) {
+		long start = System.nanoTime();
+		List<String> readers;
+		long version;
+		if ( releaseUnchanged(entry, unchanged) ) {
+			replicator.changed(entry.getFileName());		// only the owner changed
+			metrics.uploads.increment();
+			metrics.uploadLatency.recordSince(start);
+			return true;
+		}
+		entry.lock();
+		try {
+			if ( entry.isNotShared() || entry.isReadShared() )
+				return false;
+			// readers holding a lease still serve the old content until it runs out
+			long waited = entry.awaitLeases();
+			if ( waited > 0 )
+				Log.debug("Waited %s ms for the read leases of %s.", waited, entry.getFileName());
+			if ( !entry.isWriteShared() )
+				return false;
+			if ( !apply.getAsBoolean() )
+				return false;
+			version = entry.getVersion();
+			entry.stateToNotShared();
+			entry.resetOwner();
+			readers = new ArrayList<String>(entry.readerList);
+			entry.readerList.removeAllElements();
+			entry.signalNextWriter();  		// resume the download of the next writer
+			entry.signalRangesChanged();	// and of clients waiting for a range
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			entry.unlock();
+		}
+		replicate(entry.getFileName(), version);
+		metrics.uploads.increment();
+		metrics.uploadLatency.recordSince(start);		// readers are invalidated after this
+		invalidateCopies(entry.getFileName(), readers);
+		return true;
+	}
+
+	/**
+	 * gives the file up without changing it if the upload is its content already
+	 * @return boolean true if the file was written and unchanged
+	 */
+	private boolean releaseUnchanged(ServerEntry entry, BooleanSupplier unchanged) {
+		entry.lock();
+		try {
+			if ( !entry.isWriteShared() || !unchanged.getAsBoolean() )
+				return false;
+			entry.releaseWriter();
+			entry.signalNextWriter();
+			entry.signalRangesChanged();
+		} finally {
+			entry.unlock();
+		}
+		Log.debug("%s was uploaded unchanged.", entry.getFileName());
+		return true;
+	}
+
+	/**
+	 * turns the client's read copy into a write copy in one call, if nobody else
+	 * owns the file or waits for it. The client stops being a reader in the same
+	 * step, so it is never invalidated for its own write, and its copy doesn't
+	 * come back if it is current. A busy file isn't waited for: the client
+	 * then asks for it the usual way
+	 *
+	 * @param String clientIp is IP name of the client
+	 * @param String fileName is name of the file client wants to write
+	 * @param long version is the version of the client's copy, -1 if it has none
+	 * @return FileGrant NOT_MODIFIED, or OK with the content if the copy is stale,
+	 * BUSY if another client has the file
+	 * @throws RemoteException
+	 */
+	public FileGrant upgrade( String clientIp, String fileName, long version ) throws RemoteException {
+		long start = System.nanoTime();
+		checkReplica(fileName, "w");
+		Log.debug("Upgrade Request From: %s, fileName: %s.", clientIp, fileName);
+		FileGrant grant = grantInBatch(clientIp, new FileRequest(fileName, "w", version), FileContents.IDENTITY);
+		contentCache.evict();
+		if ( grant.isGranted() ) {
+			metrics.downloads.increment();
+			metrics.bytesSent.add(grant.getContents().encodedSize());
+			metrics.downloadLatency.recordSince(start);
+		}
+		return grant;
+	}
+
+	/**
+	 * the owner of a file stops writing it and keeps its copy for reading, without
+	 * sending it back since it didn't change it. Writers waiting for the file get it
+	 * as after an upload, and readers keep their copies
+	 *
+	 * @param String clientIp is IP name of the client
+	 * @param String fileName is name of the file client owns
+	 * @return FileContents with no bytes, holding the version of the client's copy
+	 * and its read lease, null if the client doesn't own the file
+	 * @throws RemoteException
+	 */
+	public FileContents downgrade( String clientIp, String fileName ) throws RemoteException {
+		checkReplica(fileName, "w");
+		Log.debug("Downgrade Request From: %s, fileName: %s.", clientIp, fileName);
+		ServerEntry entry = getEntry(fileName);
+		if ( entry == null )
+			return null;
+
+		long leaseMillis = leasePolicy.leaseMillis(entry.getFileName());
+		FileContents grant;
+		lockEntry(entry);
+		try {
+			if ( !entry.isWriteShared() || !clientIp.equals(entry.owner) )
+				return null;
+			entry.releaseWriter();
+			long lease = -1;
+			if ( leaseMillis > 0 )
+				lease = entry.grantLease(leaseMillis);
+			else
+				entry.addReader(clientIp);
+			entry.stateToReadShared();
+			grant = FileContents.notModified(entry.getVersion());
+			grant.setLeaseMillis(lease);
+			entry.signalNextWriter();
+			entry.signalRangesChanged();
+		} finally {
+			entry.unlock();
+		}
+		replicator.changed(entry.getFileName());
+		return grant;
+	}
+
+	/**
+	 * the client dropped its copy of a file, so it stops being a reader and
+	 * isn't called back when the file changes. An owner dropping a copy it
+	 * didn't change gives the file up, as with downgrade
+	 *
+	 * @param String clientIp is IP name of the client
+	 * @param String fileName is name of the file client dropped
+	 * @return boolean true if the client was reading or owning the file
+	 * @throws RemoteException
+	 */
+	public boolean release( String clientIp, String fileName ) throws RemoteException {
+		Log.debug("Release From: %s, fileName: %s.", clientIp, fileName);
+		ServerEntry entry = getEntry(fileName);
+		if ( entry == null )
+			return false;
+
+		boolean released;
+		lockEntry(entry);
+		try {
+			released = entry.removeReader(clientIp);
+			if ( entry.isWriteShared() && clientIp.equals(entry.owner) ) {
+				entry.releaseWriter();
+				entry.signalNextWriter();
+				entry.signalRangesChanged();
+				released = true;
+			}
+		} finally {
+			entry.unlock();
+		}
+		if ( released )
+			replicator.changed(entry.getFileName());
+		return released;
+	}
+
+	/**
+	 * gives the client a write token on part of a file, so that clients writing
+	 * different parts of the same file don't wait for each other.
+	 * A token that overlaps another client's token, or a file owned as a whole,
+	 * goes through the usual handoff: the holder is asked to write back
+	 * and the client waits until it has released. Whole-file writers waiting
+	 * for the file go first. A token nobody uploads to for RANGE_IDLE_MILLIS
+	 * is dropped the next time someone waits for it.
+	 *
+	 * @param String clientIp is IP name of the client
+	 * @param String fileName is name of the file client wants to change
+	 * @param long offset is the first byte of the range
+	 * @param long length is the number of bytes, the range may go past the end of the file
+	 * @return FileContents the bytes of the range that are in the file now, null if
+	 * the file can't be found or the range is invalid
+	 * @throws RemoteException
+	 */
+	public FileContents acquireRange( String clientIp, String fileName, long offset, long length )
+	throws RemoteException
+	{
+		checkReplica(fileName, "w");
+		Log.debug("Range-Write Request From: %s, fileName: %s, bytes: %s-%s.", clientIp, fileName, offset, (offset + length));
+		// the range must end within the largest content an entry can hold
+		if ( offset < 0 || length <= 0 || length > Integer.MAX_VALUE - offset )
+			return null;
+
+		ServerEntry entry;
+		try {
+			entry = getOrLoadEntry(fileName);
+		} catch (IOException ie) {
+			Log.error("Error: IOException in acquireRange()");
+			return null;
+		}
+
+		ByteRange range = new ByteRange(clientIp, offset, length);
+		lockEntry(entry);
+		try {
+			dropIdleRanges(entry);
+			while ( isRangeBlocked(entry, range) ) {
+				String holder = entry.isWriteShared() ? entry.owner : entry.rangeConflict(range);
+				if ( holder != null ) {
+					entry.unlock();
+					try {
+						requestWriteback(holder, entry.getFileName());
+					} finally {
+						entry.lock();
+					}
+					if ( !isRangeBlocked(entry, range) )
+						break;
+				}
+				Log.debug("%s is waiting for %s of %s.", clientIp, range, fileName);
+				entry.awaitRangesChanged(RANGE_IDLE_MILLIS);	// an abandoned range is only dropped when looked at
+				dropIdleRanges(entry);
+			}
+			entry.addRange(range);
+			return new FileContents( contentCache.get(entry).read(offset, (int) length) );
+		} catch (InterruptedException ie) {
+			Log.warn("InterruptedException when acquiring a range.");
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (IOException ie) {
+			Log.error("Error: IOException in acquireRange()");
+			entry.removeRange(clientIp, offset);
+			return null;
+		} finally {
+			entry.unlock();
+		}
+	}
+
+	/**
+	 * @return boolean true if range can't be handed out yet
+	 */
+	private boolean isRangeBlocked(ServerEntry entry, ByteRange range) {
+		return entry.isWriteShared() || entry.hasWaitingWriters() || entry.rangeConflict(range) != null;
+	}
+
+	/**
+	 * writes the bytes of a range the client holds a token on into the file.
+	 * Other bytes of the file are left as they are, so uploads of different
+	 * ranges of the same file don't overwrite each other.
+	 * Readers are invalidated as with a whole-file upload.
+	 *
+	 * @param long offset is where the bytes go, they must be inside a range the client holds
+	 * @return boolean true if the bytes were written
+	 * @throws RemoteException
+	 */
+	public boolean uploadRange( String clientIp, String fileName, long offset, FileContents contents )
+	throws RemoteException
+	{
+		checkReplica(fileName, "w");
+		Log.debug("Received range upload request from: %s.", clientIp);
+		ServerEntry entry = getEntry(fileName);
+		if ( entry == null )
+			return false;
+
+		long start = System.nanoTime();
+		metrics.bytesReceived.add(contents.encodedSize());
+		byte[] bytes;
+		try {
+			bytes = contents.get();
+		} catch (IllegalStateException e) {
+			Log.error("Error: bad range upload from %s: %s", clientIp, e.getMessage());
+			return false;
+		}
+		if ( offset < 0 || bytes.length > Integer.MAX_VALUE - offset )
+			return false;
+		List<String> readers;
+		long version;
+		entry.lock();
+		try {
+			ByteRange held = entry.heldRange(clientIp, offset, bytes.length);
+			if ( held == null )
+				return false;
+			held.touch();
+			long waited = entry.awaitLeases();
+			if ( waited > 0 )
+				Log.debug("Waited %s ms for the read leases of %s.", waited, entry.getFileName());
+
+			ContentStore cached = contentCache.get(entry);
+			if ( cached.size() > Integer.MAX_VALUE ) {
+				Log.warn("%s is too large for range uploads.", entry.getFileName());
+				return false;
+			}
+			byte[] current = cached.toByteArray();
+			int end = Math.toIntExact(offset + bytes.length);		// checked above
+			byte[] updated = Arrays.copyOf(current, Math.max(current.length, end));
+			System.arraycopy(bytes, 0, updated, (int) offset, bytes.length);
+			if ( !logContent(entry, updated) )
+				return false;
+			entry.setContent(updated);
+			version = entry.getVersion();
+			contentCache.update(entry);
+			if ( entry.isReadShared() )
+				entry.stateToNotShared();
+			readers = new ArrayList<String>(entry.readerList);
+			entry.readerList.removeAllElements();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (IOException ie) {
+			Log.error("Error: IOException in uploadRange()");
+			return false;
+		} finally {
+			entry.unlock();
+		}
+		replicate(entry.getFileName(), version);
+		metrics.uploads.increment();
+		metrics.uploadLatency.recordSince(start);
+		invalidateCopies(entry.getFileName(), readers);
+		return true;
+	}
+
+	/**
+	 * gives back a write token, waking up whoever waits for that part of the file
+	 *
+	 * @param long offset is the first byte of the range, as passed to acquireRange
+	 * @return boolean true if the client held such a token
+	 * @throws RemoteException
+	 */
+	public boolean releaseRange( String clientIp, String fileName, long offset )
+	throws RemoteException
+	{
+		checkReplica(fileName, "w");
+		ServerEntry entry = getEntry(fileName);
+		if ( entry == null )
+			return false;
+		entry.lock();
+		try {
+			return entry.removeRange(clientIp, offset);
+		} finally {
+			entry.unlock();
+		}
+	}
+
+	/**
+	 * @return List<String> the shards of the ring, empty if the server isn't sharded
+	 * @throws RemoteException
+	 */
+	public List<String> getShards( ) throws RemoteException {
+		return shards == null ? new ArrayList<String>() : shards.shards();
+	}
+
+	/**
+	 * puts a new shard on the ring. The files the new shard owns now are moved
+	 * to it in the background; until then they are still served here
+	 *
+	 * @param String shard is the new shard, as "host:port"
+	 * @return boolean false if the server isn't sharded or knew the shard already
+	 * @throws RemoteException
+	 */
+	public boolean addShard( String shard ) throws RemoteException {
+		if ( shards == null || !shards.add(shard) )
+			return false;
+		Log.info("Shard %s joined the ring.", shard);
+		if ( !shard.equals(shards.self()) )
+			daemonThreads("migrate").newThread(() -> migrate(shard)).start();
+		return true;
+	}
+
+	/**
+	 * @return boolean true if the file is in this shard's file table
+	 * @throws RemoteException
+	 */
+	public boolean holdsEntry( String fileName ) throws RemoteException {
+		return entryTable.containsKey(normalize(fileName));
+	}
+
+	/**
+	 * takes over a file another shard moved here
+	 *
+	 * @param List<String> readers are the clients to invalidate when the file changes
+	 * @param long leaseExpiry is when the read leases granted on the file run out
+	 * @param long version is the version of the content
+	 * @return boolean false if the file can't be found
+	 * @throws RemoteException
+	 */
+	public boolean adoptEntry( String fileName, List<String> readers, long leaseExpiry, long version )
+	throws RemoteException
+	{
+		ServerEntry entry;
+		try {
+			entry = loadEntry(normalize(fileName));
+		} catch (IOException ie) {
+			Log.error("Error: IOException in adoptEntry()");
+			return false;
+		}
+		entry.lock();
+		try {
+			entry.adopt(readers, leaseExpiry, version);
+		} finally {
+			entry.unlock();
+		}
+		return true;
+	}
+
+	/**
+	 * @param String shard is an old shard that has moved every file this one owns now
+	 * @throws RemoteException
+	 */
+	public void migrationDone( String shard ) throws RemoteException {
+		if ( shards != null )
+			shards.migrationDone(shard);
+	}
+
+	/**
+	 * moves the files a new shard owns to it, every dfs.shards.migrateMs
+	 * trying again the ones that are being written, and tells it once all are there.
+	 * Contents are saved to disk, which the shards share, so only the state
+	 * of each entry is sent
+	 */
+	private void migrate(String shard) {
+		long pause = Long.getLong("dfs.shards.migrateMs", 200);
+		int moved = 0;
+		try {
+			ShardInterface target = shards.stub(shard);
+			while (true) {
+				int left = 0;
+				for (ServerEntry entry : entryTable.values()) {
+					if ( !shard.equals(shards.ownerOf(entry.getFileName())) )
+						continue;
+					if ( moveEntry(entry, target) )
+						moved++;
+					else
+						left++;
+				}
+				if ( left == 0 )
+					break;
+				Thread.sleep(pause);
+			}
+			if ( writeAheadLog != null )
+				checkpoint();			// the moved uploads must not be replayed here
+			target.migrationDone(shards.self());
+			Log.info("Moved %s files to shard %s.", moved, shard);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		} catch (RemoteException re) {
+			shards.evict(shard);
+			Log.error("Error: when moving files to shard %s, %s were moved.", shard, moved);
+		}
+	}
+
+	/**
+	 * hands an entry over to another shard, unless it is being written
+	 * @return boolean true if the entry isn't here anymore
+	 * @throws RemoteException if the other shard couldn't be reached
+	 */
+	private boolean moveEntry(ServerEntry entry, ShardInterface target) throws RemoteException {
+		if ( !entry.tryLock() )
+			return false;
+		try {
+			if ( entry.isMoved() )
+				return true;
+			dropIdleRanges(entry);
+			if ( entry.isWriteShared() || entry.hasRanges() || entry.hasWaitingWriters() )
+				return false;
+			if ( entry.isDirty() && !entry.saveContent() )
+				return false;
+			if ( !target.adoptEntry(entry.getFileName(), new ArrayList<String>(entry.readerList),
+				entry.leaseExpiry, entry.getVersion()) )
+				return false;
+			entry.markMoved();
+			entryTable.remove(entry.getFileName(), entry);
+			contentCache.remove(entry);
+			return true;
+		} finally {
+			entry.unlock();
+		}
+	}
+
+	/**
+	 * @return List<String> the replicas following this server
+	 * @throws RemoteException
+	 */
+	public List<String> getReplicas( ) throws RemoteException {
+		return replicator.replicas();
+	}
+
+	/**
+	 * starts sending the changes of the file table to a replica, beginning
+	 * with every file in the table. The replica must have a copy of the files
+	 * on disk as they were when they were loaded here
+	 *
+	 * @param String replica is the replica, as "host:port"
+	 * @return boolean false if this server is a replica itself
+	 * @throws RemoteException if the replica couldn't be found
+	 */
+	public boolean addReplica( String replica ) throws RemoteException {
+		if ( primary != null )
+			return false;
+		ReplicaInterface stub;
+		try {
+			stub = ( ReplicaInterface ) Naming.lookup( "rmi://" + replica + "/server" );
+		} catch (NotBoundException | java.net.MalformedURLException e) {
+			throw new RemoteException("Error: no replica at " + replica, e);
+		}
+		replicator.add(replica, stub, new ArrayList<String>(entryTable.keySet()));
+		Log.info("Replica %s is following.", replica);
+		return true;
+	}
+
+	/**
+	 * applies the changes the primary sent. A content of another version is logged and kept
+	 * like an upload, and the clients that read the file here are invalidated.
+	 * Who owns and reads the file on the primary is only remembered, for promote
+	 *
+	 * @param List<EntryState> updates are the files that changed
+	 * @param long lagMillis is how long before sending the batch the primary took the
+	 * states, every change before then is in it or was sent already
+	 * @return boolean false if this server isn't a replica anymore
+	 * @throws RemoteException
+	 */
+	public boolean applyUpdates( List<EntryState> updates, long lagMillis ) throws RemoteException {
+		long receivedAt = System.currentTimeMillis();
+		if ( primary == null )
+			return false;
+		for (EntryState state : updates) {
+			ServerEntry entry;
+			try {
+				entry = loadEntry(normalize(state.getFileName()));
+			} catch (IOException ie) {
+				Log.error("Error: %s is not in this replica's copy of the files.", state.getFileName());
+				continue;
+			}
+			List<String> readers = Collections.emptyList();
+			entry.lock();
+			try {
+				byte[] content = state.getContent();
+				if ( content != null && state.getVersion() != entry.getVersion() ) {
+					if ( !logContent(entry, content) )
+						throw new RemoteException("Error: when logging " + state.getFileName());
+					entry.replicate(content, state.getVersion());
+					contentCache.update(entry);
+					readers = new ArrayList<String>(entry.readerList);
+					entry.readerList.removeAllElements();
+					if ( entry.isReadShared() )
+						entry.stateToNotShared();
+				}
+				entry.setPrimaryState(state.getOwner(), state.getReaders());
+			} finally {
+				entry.unlock();
+			}
+			if ( !readers.isEmpty() ) {
+				final List<String> stale = readers;
+				grantPool.execute(() -> invalidateCopies(entry.getFileName(), stale));
+			}
+		}
+		contentCache.evict();
+		// only this server's clock is compared with upToDateAt, so clock skew doesn't matter;
+		// the time the batch was in transit is not counted as lag
+		upToDateAt = Math.max(upToDateAt, receivedAt - lagMillis);
+		return true;
+	}
+
+	/**
+	 * takes over from the primary: the owners and readers it had become this
+	 * server's, and it serves writes from now on
+	 *
+	 * @return boolean false if this server isn't a replica
+	 * @throws RemoteException
+	 */
+	public boolean promote( ) throws RemoteException {
+		if ( primary == null )
+			return false;
+		Log.info("Taking over from primary %s.", primary);
+		primary = null;
+		for (ServerEntry entry : entryTable.values()) {
+			entry.lock();
+			try {
+				entry.takeOverPrimaryState();
+			} finally {
+				entry.unlock();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * becomes a replica of another server
+	 *
+	 * @param String primary is the server to follow, as "host:port"
+	 * @return boolean false if the primary didn't accept this replica
+	 * @throws RemoteException if the primary couldn't be reached
+	 */
+	public boolean follow( String primary ) throws RemoteException {
+		ReplicaInterface stub;
+		try {
+			stub = ( ReplicaInterface ) Naming.lookup( "rmi://" + primary + "/server" );
+		} catch (NotBoundException | java.net.MalformedURLException e) {
+			throw new RemoteException("Error: no primary at " + primary, e);
+		}
+		this.upToDateAt = 0;
+		this.primary = primary;
+		if ( !stub.addReplica(serverName) )
+			return false;
+		Log.info("Replica of %s.", primary);
+		return true;
+	}
+
+	/**
+	 * @return EntryState the state of a file for a replica that has the given
+	 * version of it, with the content only if it is older. null if the file
+	 * isn't in the file table or its content can't be read
+	 */
+	private EntryState snapshot(String fileName, long replicaVersion) {
+		ServerEntry entry = entryTable.get(fileName);
+		if ( entry == null )
+			return null;
+		entry.lock();
+		try {
+			byte[] content = null;
+			if ( entry.getVersion() > replicaVersion ) {
+				ContentStore cached = contentCache.get(entry);
+				if ( cached.size() > Integer.MAX_VALUE ) {
+					Log.error("Error: %s is too large to replicate.", fileName);
+					return null;
+				}
+				content = cached.toByteArray();
+			}
+			return new EntryState(fileName, entry.getVersion(), content,
+				entry.isWriteShared() ? entry.owner : null, new ArrayList<String>(entry.readerList));
+		} catch (IOException ie) {
+			Log.error("Error: IOException when replicating %s.", fileName);
+			return null;
+		} finally {
+			entry.unlock();
+		}
+	}
+
+	/**
+	 * queues a new version of a file for the replicas and, with
+	 * dfs.replication=semisync, waits until one of them has it
+	 */
+	private void replicate(String fileName, long version) {
+		replicator.changed(fileName);
+		try {
+			if ( !replicator.awaitReplicated(fileName, version) )
+				Log.warn("No replica has %s yet, the upload returns anyway.", fileName);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * appends the new content of an entry to the write-ahead log and waits
+	 * until it is on disk, so that the upload survives a crash
+	 * @return boolean false if the content couldn't be logged
+	 */
+	private boolean logContent(ServerEntry entry, byte[] content) {
+		if (writeAheadLog == null)
+			return true;
+		try {
+			writeAheadLog.append(entry.getFileName(), content);
+			return true;
+		} catch (IOException ie) {
+			Log.error("Error: when appending to the write-ahead log.");
+			ie.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * records in the write-ahead log that the file on disk holds the entry's
+	 * content, so the contents logged for it before are not replayed over it.
+	 * The upload is on disk already, so it stands even if this fails
+	 */
+	private void logSaved(ServerEntry entry) {
+		if (writeAheadLog == null)
+			return;
+		try {
+			writeAheadLog.appendSaved(entry.getFileName());
+		} catch (IOException ie) {
+			Log.error("Error: when appending to the write-ahead log.");
+			ie.printStackTrace();
+		}
+	}
+
+	/**
+	 * writes back the uploads left in the log by a previous run,
+	 * opens a new log and schedules checkpoints every dfs.checkpoint.intervalMs
+	 */
+	private void openWriteAheadLog() {
+		String dir = System.getProperty("dfs.wal.dir", shards == null ? ".dfs-wal" : ".dfs-wal-" + clientPort);
+		if (dir.equals("none"))
+			return;
+		try {
+			long start = System.currentTimeMillis();
+			int records = WriteAheadLog.replay(Paths.get(dir));
+			if (records > 0)
+				Log.info("Replayed %s uploads from the write-ahead log in %s ms.", records, (System.currentTimeMillis() - start));
+			writeAheadLog = new WriteAheadLog(Paths.get(dir));
+		} catch (IOException ie) {
+			Log.error("Error: when opening the write-ahead log.");
+			ie.printStackTrace();
+			System.exit( -1 );
+		}
+		long interval = Long.getLong("dfs.checkpoint.intervalMs", 30 * 1000);
+		Executors.newSingleThreadScheduledExecutor(daemonThreads("checkpoint")).scheduleWithFixedDelay(
+			() -> checkpoint(), interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * starts a new log segment, writes every dirty entry back to disk and
+	 * then deletes the segments the written entries were logged in.
+	 * An upload is logged and applied under its entry's lock, so every upload
+	 * in the old segments is visible here once the entry's lock is taken
+	 */
+	private void checkpoint() {
+		try {
+			long lastSegment = writeAheadLog.rotate();
+			boolean flushed = true;
+			int written = 0;
+			for (ServerEntry entry : entryTable.values()) {
+				entry.lock();
+				try {
+					if ( entry.isDirty() ) {
+						flushed &= entry.saveContent();
+						written++;
+					}
+				} finally {
+					entry.unlock();
+				}
+			}
+			if (flushed)
+				writeAheadLog.truncate(lastSegment);
+			if (written > 0)
+				Log.info("Checkpoint wrote back %s files.", written);
+		} catch (Exception e) {
+			Log.error("Error: in checkpoint()");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * It sends client.invalidate() to all readers at the same time
+	 * on the invalidation pool, and waits until a quorum of them
+	 * (dfs.invalidate.quorum, all of them by default) acknowledged it
+	 * or until the deadline (dfs.invalidate.timeoutMs) passed.
+	 * Readers that fail or don't answer in time are only logged,
+	 * they were removed from the reader list already
+     */
+	private void invalidateCopies(String fileName, List<String> readers) {
+		if (readers.isEmpty())
+			return;
+
+		long start = System.nanoTime();
+		metrics.invalidations.add(readers.size());
+		CompletionService<Boolean> pending = new ExecutorCompletionService<Boolean>(invalidationPool);
+		for (final String readerIp : readers) {
+			pending.submit(() -> {
+				try {
+					return clientStubs.invoke( readerIp, client -> client.invalidate(fileName) );
+				} catch (Exception e) {
+					Log.error("Error: when invalidating client %s.", readerIp);
+					metrics.invalidationFailures.increment();
+					return false;
+				}
+			});
+		}
+
+		int needed = (int) Math.ceil(invalidateQuorum * readers.size());
+		int acknowledged = 0;
+		int answered = 0;
+		long deadline = System.currentTimeMillis() + invalidateTimeout;
+		try {
+			while (acknowledged < needed && answered < readers.size()) {
+				long left = deadline - System.currentTimeMillis();
+				Future<Boolean> done = left > 0 ? pending.poll(left, TimeUnit.MILLISECONDS) : null;
+				if (done == null)
+					break;						// deadline passed
+				answered++;
+				if (done.get())
+					acknowledged++;
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException ee) {
+			Log.error("Error: when invalidating clients.");
+		}
+		metrics.invalidateLatency.recordSince(start);
+		if (acknowledged < needed)
+			Log.warn("Invalidated %s of %s readers of %s before the deadline.", acknowledged, readers.size(), fileName);
+	}
+
+	/**
+	 * @return String this host's name and the port, as other servers and clients call it
+	 */
+	static String localName(int port) {
+		try {
+			return java.net.InetAddress.getLocalHost().getHostName() + ":" + port;
+		} catch (java.net.UnknownHostException uhe) {
+			return "localhost:" + port;
+		}
+	}
+
+	/**
+	 * @return ThreadFactory creating daemon threads, so that pools never keep the server alive
+	 */
+	static ThreadFactory daemonThreads(final String name) {
+		final AtomicInteger count = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * Looks up the file table to see if a file has been cached based on fileName
+	 * @return the cached entry, or null if the file has not been read yet
+     */
+	ServerEntry getEntry(String fileName) {
+		String key = normalize(fileName);
+		ServerEntry entry = entryTable.get(key);
+		if (entry == null) {
+			metrics.entryMisses.increment();
+			route(key);
+		} else {
+			metrics.entryHits.increment();
+		}
+		return entry;
+	}
+
+	/**
+	 * Looks up the file table and loads the file from disk if it is not cached yet.
+	 * The insert is atomic, so two concurrent downloads of the same cold file
+	 * end up sharing a single entry.
+	 * @throws IOException if reading the file from disk went wrong
+     */
+	ServerEntry getOrLoadEntry(String fileName) throws IOException {
+		String key = normalize(fileName);
+		ServerEntry entry = entryTable.get(key);	// lock-free fast path
+		if (entry != null) {
+			metrics.entryHits.increment();
+			return entry;
+		}
+		metrics.entryMisses.increment();
+		route(key);
+		return loadEntry(key);
+	}
+
+	/**
+	 * puts the entry of a file in the file table, unless there is one already
+	 * @throws IOException if the file doesn't exist
+	 */
+	private ServerEntry loadEntry(String key) throws IOException {
+		try {
+			return entryTable.computeIfAbsent(key, k -> {
+				try {
+					return new ServerEntry(k);
+				} catch (IOException ie) {
+					throw new UncheckedIOException(ie);
+				}
+			});
+		} catch (UncheckedIOException uie) {
+			throw uie.getCause();
+		}
+	}
+
+	/**
+	 * checks that this shard serves a file that isn't in its file table.
+	 * While this shard is joining, the file may still be held by the shard
+	 * that owned it before, and it is served there until it is moved here
+	 * @throws WrongShardException naming the shard to ask instead
+	 */
+	private void route(String key) {
+		if (shards == null)
+			return;
+		String owner = shards.ownerOf(key);
+		if (!owner.equals(shards.self()))
+			throw new WrongShardException(key, owner);
+		String previous = shards.previousOwnerOf(key);
+		if (previous == null || previous.equals(owner))
+			return;
+		try {
+			if (shards.stub(previous).holdsEntry(key))
+				throw new WrongShardException(key, previous);
+		} catch (RemoteException re) {
+			shards.evict(previous);
+			Log.warn("Shard %s is unreachable, serving %s here.", previous, key);
+		}
+	}
+
+	/**
+	 * a replica only serves reads, and only while it is at most
+	 * dfs.replica.maxStaleMs behind its primary
+	 * @throws WrongShardException naming the primary
+	 */
+	private void checkReplica(String fileName, String mode) {
+		String primary = this.primary;
+		if (primary == null)
+			return;
+		if (!mode.equals("r") || System.currentTimeMillis() - upToDateAt > maxStaleMillis)
+			throw new WrongShardException(fileName, primary);
+	}
+
+	/**
+	 * whole-file downloads send the content as one array, which can't hold
+	 * 2 GB or more. Such files are read with openRead instead
+	 * @return boolean true if the content is too large to be sent in one call
+	 */
+	private boolean isTooLarge(ServerEntry entry) {
+		long size;
+		lockEntry(entry);
+		try {
+			size = contentCache.get(entry).size();
+		} catch (IOException ie) {
+			return false;				// reading it fails again, and is reported, later
+		} finally {
+			entry.unlock();
+		}
+		if ( size <= Integer.MAX_VALUE )
+			return false;
+		Log.warn("%s is too large to download in one call.", entry.getFileName());
+		return true;
+	}
+
+	/**
+	 * locks an entry a request looked up, unless it was handed over to another
+	 * shard in the meantime, in which case the client has to ask that shard
+	 * @throws WrongShardException naming the shard the entry was moved to
+	 */
+	private void lockEntry(ServerEntry entry) {
+		entry.lock();
+		if (entry.isMoved()) {
+			entry.unlock();
+			throw new WrongShardException(entry.getFileName(), shards.ownerOf(entry.getFileName()));
+		}
+	}
+
+	/**
+	 * makes a read transfer of the entry's content and its version, read together
+	 * under the entry's lock. A client whose copy has that version already gets a
+	 * transfer with no content
+	 * @param long clientVersion is the version of the client's copy, -1 if it has none
+	 * @throws IOException if the file couldn't be read from disk
+	 */
+	private Transfer readTransfer(long id, String clientIp, ServerEntry entry, long clientVersion)
+	throws IOException
+	{
+		ContentStore content;
+		long version;
+		lockEntry(entry);
+		try {
+			version = entry.getVersion();
+			if ( version == clientVersion ) {
+				metrics.notModified.increment();
+				return Transfer.notModified(id, clientIp, entry, version);
+			}
+			content = contentCache.get(entry);
+		} finally {
+			entry.unlock();
+		}
+		contentCache.evict();
+		Transfer transfer = Transfer.forRead(id, clientIp, entry, content);
+		transfer.setVersion(version);
+		return transfer;
+	}
+
+	/**
+	 * converts a file name into the key used by the file table,
+	 * so that "a.txt", "./a.txt" and "dir/../a.txt" refer to the same entry
+	 */
+	static String normalize(String fileName) {
+		return Paths.get(fileName).normalize().toString();
+	}
+
+	/**
+	 * this hook will make sure that when the client shut down the application with
+	 * control-c, the server will write all of modified files to the disk
+	 */
+    private void addShutdownHook() {
+    	Runtime.getRuntime().addShutdownHook( new Thread() {
+    		public void run() {
+    			boolean saved = true;
+    			for (ServerEntry curEntry : entryTable.values()) {
+    				if (curEntry.isDirty())				// only modified files are written
+    					saved &= curEntry.saveContent();
+    			}
+    			if (saved && writeAheadLog != null) {
+    				try {
+    					writeAheadLog.close();
+    					writeAheadLog.truncate(Long.MAX_VALUE);
+    				} catch (IOException ie) {
+    					System.out.println("Error: when removing the write-ahead log.");
+    				}
+    			}
+    			System.out.println(contentCache);
+    			System.out.println(ChunkStore.shared());
+    			System.out.println(metrics.dump());
+    		}
+    	});
+    }
+
+
+}
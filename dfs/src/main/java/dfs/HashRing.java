@@ -0,0 +1,101 @@
+package dfs;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * This class places file names on shards by consistent hashing. Every shard is put
+ * on a ring of 64-bit hashes at many points (virtual nodes), and a file belongs to the
+ * first point at or after its own hash. Adding a shard only moves the files that now
+ * fall on its points, about 1/n of them, and spreads them evenly over the old shards.
+ * Shards are named "host:port".
+ **/
+
+public class HashRing {
+
+	private final int virtualNodes;			// points per shard
+	private final TreeMap<Long, String> points = new TreeMap<Long, String>();
+	private final List<String> shards = new ArrayList<String>();
+
+	/**
+	 * @param virtualNodes number of points each shard gets on the ring
+	 */
+	public HashRing(int virtualNodes) {
+		this.virtualNodes = virtualNodes;
+	}
+
+	/**
+	 * @param shards comma separated "host:port" list
+	 * @return HashRing with those shards, dfs.shards.vnodes points each (128 by default)
+	 */
+	public static HashRing of(String shards) {
+		HashRing ring = new HashRing(Integer.getInteger("dfs.shards.vnodes", 128));
+		for (String shard : shards.split(","))
+			if (!shard.trim().isEmpty())
+				ring.add(shard.trim());
+		return ring;
+	}
+
+	/**
+	 * puts a shard on the ring, nothing happens if it is already there
+	 */
+	public synchronized void add(String shard) {
+		if (shards.contains(shard))
+			return;
+		shards.add(shard);
+		for (int i = 0; i < virtualNodes; i++)
+			points.put(hash(shard + "#" + i), shard);
+	}
+
+	/**
+	 * @return HashRing a copy of this ring without the given shard
+	 */
+	public synchronized HashRing without(String shard) {
+		HashRing ring = new HashRing(virtualNodes);
+		for (String other : shards)
+			if (!other.equals(shard))
+				ring.add(other);
+		return ring;
+	}
+
+	/**
+	 * @return String the shard the file belongs to, null if the ring is empty.
+	 * the name is normalized first, so clients and shards place "a.txt" and "./a.txt" alike
+	 */
+	public synchronized String shardFor(String fileName) {
+		if (points.isEmpty())
+			return null;
+		Map.Entry<Long, String> point = points.ceilingEntry(hash(Paths.get(fileName).normalize().toString()));
+		return point != null ? point.getValue() : points.firstEntry().getValue();
+	}
+
+	/**
+	 * @return List<String> the shards, in the order they were added
+	 */
+	public synchronized List<String> shards() {
+		return new ArrayList<String>(shards);
+	}
+
+	public synchronized boolean contains(String shard) {
+		return shards.contains(shard);
+	}
+
+	/**
+	 * 64-bit FNV-1a of the UTF-8 bytes, finished with MurmurHash3's mixer
+	 * so that similar names land far apart on the ring
+	 */
+	static long hash(String key) {
+		long h = 0xcbf29ce484222325L;
+		for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+			h ^= b & 0xff;
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb93fe1a85394L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,39 @@
+package dfs;
+
+import java.nio.*;
+
+/**
+ * This class keeps the content of a file in a byte array on the Java heap.
+ **/
+
+public class HeapContentStore implements ContentStore {
+
+	private final byte[] content;
+
+	public HeapContentStore(byte[] content) {
+		this.content = content;
+	}
+
+	public long size() {
+		return content.length;
+	}
+
+	public byte[] read(long offset, int length) {
+		int from = (int) Math.min(Math.max(offset, 0), content.length);
+		int to = (int) Math.min((long) from + length, content.length);
+		byte[] chunk = new byte[to - from];
+		System.arraycopy(content, from, chunk, 0, chunk.length);
+		return chunk;
+	}
+
+	/**
+	 * @return byte[] the array itself, no copy is made
+	 */
+	public byte[] toByteArray() {
+		return content;
+	}
+
+	public ByteBuffer asByteBuffer() {
+		return ByteBuffer.wrap(content).asReadOnlyBuffer();
+	}
+}
@@ -0,0 +1,104 @@
+package dfs;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * This class counts latencies in log-linear buckets, the way HdrHistogram does:
+ * each power of two is split into 8 buckets, so a percentile is off by at most 12.5%.
+ * Recording is a single atomic increment, so it can be done on every request.
+ **/
+
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 3;					// 8 buckets per power of two
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+	private final LongAdder total = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * counts one latency
+	 * @param nanos the latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		counts.incrementAndGet(bucket(nanos));
+		total.increment();
+		sum.add(nanos);
+		max.accumulate(nanos);
+	}
+
+	/**
+	 * counts the time elapsed since start
+	 * @param start a value of System.nanoTime()
+	 */
+	public void recordSince(long start) {
+		record(System.nanoTime() - start);
+	}
+
+	private static int bucket(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * @return long the smallest value that falls in the bucket
+	 */
+	private static long lowest(int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		return (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return long the latency in nanoseconds below which that percentage of the
+	 * recorded latencies fall, 0 if nothing was recorded
+	 */
+	public long percentile(double percentile) {
+		long count = total.sum();
+		if (count == 0)
+			return 0;
+		long rank = (long) Math.ceil(count * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= Math.max(rank, 1))
+				return Math.min(lowest(i + 1) - 1, getMax());
+		}
+		return getMax();
+	}
+
+	public long getCount() {
+		return total.sum();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return long the mean latency in nanoseconds, 0 if nothing was recorded
+	 */
+	public long getMean() {
+		long count = total.sum();
+		return count == 0 ? 0 : sum.sum() / count;
+	}
+
+	/**
+	 * @return String count, mean, percentiles and max in microseconds
+	 */
+	public String toString() {
+		return String.format("n=%d mean=%dus p50=%dus p99=%dus p999=%dus max=%dus",
+			getCount(), getMean() / 1000, percentile(50) / 1000, percentile(99) / 1000,
+			percentile(99.9) / 1000, getMax() / 1000);
+	}
+}
@@ -0,0 +1,72 @@
+package dfs;
+
+import java.util.*;
+
+/**
+ * This class decides how long the read leases of a file last.
+ * A reader holding a lease serves its copy locally until the lease runs out,
+ * and is never called back: a writer instead waits until the leases run out.
+ * Files without a lease use invalidation callbacks, as before.
+ *
+ * dfs.lease.ms is the default length, 0 (no leases) if it is not set.
+ * dfs.lease.prefixes overrides it per file or directory, e.g.
+ * "logs/=0,shared/=5000,shared/config.txt=30000". The longest matching prefix wins.
+ **/
+
+public class LeasePolicy {
+
+	private final long defaultMillis;
+	private final TreeMap<String, Long> prefixes = new TreeMap<String, Long>();
+
+	/**
+	 * @param defaultMillis length of leases of files no prefix matches
+	 * @param prefixes comma separated prefix=millis pairs, may be empty
+	 * @throws IllegalArgumentException if a pair can't be parsed
+	 */
+	public LeasePolicy(long defaultMillis, String prefixes) {
+		this.defaultMillis = defaultMillis;
+		for (String pair : prefixes.split(",")) {
+			if (pair.trim().isEmpty())
+				continue;
+			int equals = pair.lastIndexOf('=');
+			if (equals <= 0)
+				throw new IllegalArgumentException("bad lease prefix: " + pair);
+			this.prefixes.put(pair.substring(0, equals).trim(),
+				Long.parseLong(pair.substring(equals + 1).trim()));
+		}
+	}
+
+	/**
+	 * @return LeasePolicy configured with dfs.lease.ms and dfs.lease.prefixes
+	 */
+	public static LeasePolicy fromProperties() {
+		return new LeasePolicy(Long.getLong("dfs.lease.ms", 0),
+							   System.getProperty("dfs.lease.prefixes", ""));
+	}
+
+	/**
+	 * @param fileName normalized name of the file
+	 * @return long length of the read leases of the file, 0 if its readers are called back
+	 */
+	public long leaseMillis(String fileName) {
+		// the longest matching prefix sorts last among the keys <= fileName
+		for (Map.Entry<String, Long> prefix = prefixes.floorEntry(fileName); prefix != null;
+			 prefix = prefixes.lowerEntry(prefix.getKey())) {
+			if (fileName.startsWith(prefix.getKey()))
+				return prefix.getValue();
+		}
+		return defaultMillis;
+	}
+
+	/**
+	 * @return boolean true if some file may get read leases
+	 */
+	public boolean isEnabled() {
+		if (defaultMillis > 0)
+			return true;
+		for (long millis : prefixes.values())
+			if (millis > 0)
+				return true;
+		return false;
+	}
+}
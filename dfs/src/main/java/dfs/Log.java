@@ -0,0 +1,120 @@
+package dfs;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * This class writes the server's log lines on a background thread, so request
+ * threads never wait for the console. A line below the level set with dfs.log.level
+ * (ERROR, WARN, INFO or DEBUG, INFO by default) costs a comparison. Arguments
+ * that may change after the call are turned into strings before they are queued,
+ * the message itself is only formatted on the background thread.
+ * When the queue is full, INFO and DEBUG lines are dropped and counted rather than
+ * blocking, while ERROR and WARN lines are written by the calling thread.
+ **/
+
+public class Log {
+
+	public enum Level { ERROR, WARN, INFO, DEBUG }
+
+	private static final Level LEVEL = Level.valueOf(System.getProperty("dfs.log.level", "INFO"));
+	private static final BlockingQueue<Object[]> QUEUE =	// level, format, arguments
+		new ArrayBlockingQueue<Object[]>(Integer.getInteger("dfs.log.queue", 8192));
+	private static final AtomicLong DROPPED = new AtomicLong();
+
+	static {
+		Thread writer = FileServer.daemonThreads("log").newThread(Log::drain);
+		writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(Log::flush));
+	}
+
+	private Log() { }
+
+	public static boolean isEnabled(Level level) {
+		return level.compareTo(LEVEL) <= 0;
+	}
+
+	public static void error(String format, Object... args) {
+		log(Level.ERROR, format, args);
+	}
+
+	public static void warn(String format, Object... args) {
+		log(Level.WARN, format, args);
+	}
+
+	public static void info(String format, Object... args) {
+		log(Level.INFO, format, args);
+	}
+
+	public static void debug(String format, Object... args) {
+		log(Level.DEBUG, format, args);
+	}
+
+	/**
+	 * @return long the number of lines dropped because the queue was full
+	 */
+	public static long dropped() {
+		return DROPPED.get();
+	}
+
+	private static void log(Level level, String format, Object[] args) {
+		if (!isEnabled(level))
+			return;
+		Object[] line = { level, format, snapshot(args) };
+		if (QUEUE.offer(line))
+			return;
+		if (level.compareTo(Level.WARN) <= 0)
+			write(line);				// problems are never lost, even out of order
+		else
+			DROPPED.incrementAndGet();
+	}
+
+	/**
+	 * @return Object[] args, with those that could change before the line is written
+	 * replaced by their string form as of now. Boxed numbers are kept for %d and %x,
+	 * atomic counters and the like are not
+	 */
+	private static Object[] snapshot(Object[] args) {
+		Object[] copy = args;
+		for (int i = 0; i < args.length; i++) {
+			if (isImmutable(args[i]))
+				continue;
+			if (copy == args)
+				copy = args.clone();			// the caller may have passed its own array
+			copy[i] = String.valueOf(args[i]);
+		}
+		return copy;
+	}
+
+	private static boolean isImmutable(Object arg) {
+		return arg == null || arg instanceof String || arg instanceof Integer || arg instanceof Long
+			|| arg instanceof Double || arg instanceof Float || arg instanceof Short || arg instanceof Byte
+			|| arg instanceof Boolean || arg instanceof Character || arg instanceof Enum;
+	}
+
+	private static void drain() {
+		try {
+			while (true)
+				write(QUEUE.take());
+		} catch (InterruptedException ie) {
+			// the server is going away
+		}
+	}
+
+	/**
+	 * writes what is still queued, so the last lines aren't lost on exit
+	 */
+	private static synchronized void flush() {
+		List<Object[]> left = new ArrayList<Object[]>();
+		QUEUE.drainTo(left);
+		for (Object[] line : left)
+			write(line);
+	}
+
+	private static synchronized void write(Object[] line) {
+		Object[] args = (Object[]) line[2];
+		String message = args.length == 0 ? (String) line[1] : String.format((String) line[1], args);
+		System.out.println(message);
+	}
+}
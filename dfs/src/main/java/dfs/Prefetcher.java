@@ -0,0 +1,151 @@
+package dfs;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * This class downloads, in the background and read-only, the files the user is
+ * likely to open next, so that opening them is a local cache hit.
+ * Prefetches are limited in bandwidth by a token bucket and in disk by a budget
+ * of bytes prefetched but not opened yet. It counts how many opens were served
+ * from the cache and how many prefetched files were actually used.
+ **/
+
+public class Prefetcher {
+
+	private final AccessHistory history;
+	private final ClientCache cache;
+	private final Function<List<String>, List<ClientCacheEntry>> download;	// batch download, "r"
+	private final ExecutorService worker =				// one prefetch at a time
+		Executors.newSingleThreadExecutor(FileServer.daemonThreads("prefetch"));
+
+	private final int count;				// files prefetched after each open
+	private final double minShare;			// how likely a file must be to be prefetched
+	private final long bytesPerSecond;		// bandwidth given to prefetching
+	private final long maxBytes;			// bytes prefetched but not opened yet
+
+	private double tokens;					// bytes that may be downloaded now, negative when in debt
+	private long lastRefill = System.nanoTime();
+
+	private long opens, hits, prefetched, used, wasted;	// metrics
+
+	/**
+	 * @param download downloads the given files read-only in one call
+	 * and returns the entries it wrote
+	 */
+	public Prefetcher(AccessHistory history, ClientCache cache,
+					  Function<List<String>, List<ClientCacheEntry>> download) {
+		this.history = history;
+		this.cache = cache;
+		this.download = download;
+		this.count = Integer.getInteger("dfs.prefetch.count", 3);
+		this.minShare = Double.parseDouble(System.getProperty("dfs.prefetch.minShare", "0.25"));
+		this.bytesPerSecond = Long.getLong("dfs.prefetch.bytesPerSec", 1024 * 1024);
+		this.maxBytes = Long.getLong("dfs.prefetch.maxBytes", cache.getCapacity() / 10);
+		this.tokens = bytesPerSecond;
+	}
+
+	/**
+	 * records that the user opened a file and prefetches what usually comes next
+	 * @param hit true if the open was served from the cache
+	 */
+	public void opened(ClientCacheEntry entry, boolean hit) {
+		synchronized (this) {
+			opens++;
+			if (hit)
+				hits++;
+			if (entry.prefetched) {
+				entry.prefetched = false;
+				used++;
+			}
+		}
+		history.record(entry.fileName);
+		if (count > 0)
+			worker.execute(() -> prefetchAfter(entry.fileName));
+	}
+
+	/**
+	 * counts a prefetched file that left the cache without being opened
+	 */
+	public synchronized void evicted(ClientCacheEntry entry) {
+		if (entry.prefetched) {
+			entry.prefetched = false;
+			wasted++;
+		}
+	}
+
+	private void prefetchAfter(String fileName) {
+		List<String> fileNames = new ArrayList<String>();
+		for (String next : history.predict(fileName, count, minShare)) {
+			ClientCacheEntry entry = cache.peek(next);
+			if (entry == null || !entry.isValidFor("r"))
+				fileNames.add(next);
+		}
+		if (fileNames.isEmpty() || pendingBytes() >= maxBytes)
+			return;
+		try {
+			awaitTokens();
+		} catch (InterruptedException ie) {
+			return;
+		}
+
+		long bytes = 0;
+		List<ClientCacheEntry> entries = download.apply(fileNames);
+		synchronized (this) {
+			for (ClientCacheEntry entry : entries) {
+				entry.prefetched = true;
+				bytes += entry.size();
+				prefetched++;
+			}
+			tokens -= bytes;			// paid after the fact, the next prefetch waits for it
+		}
+		if (!entries.isEmpty())
+			System.out.println("Prefetched " + entries.size() + " files after " + fileName + ".");
+	}
+
+	/**
+	 * @return long bytes of prefetched files that haven't been opened yet
+	 */
+	private long pendingBytes() {
+		long bytes = 0;
+		for (ClientCacheEntry entry : cache.entries())
+			if (entry.prefetched)
+				bytes += entry.size();
+		return bytes;
+	}
+
+	/**
+	 * waits until the bucket is out of debt, refilling it at bytesPerSecond
+	 * up to one second worth of bytes
+	 */
+	private void awaitTokens() throws InterruptedException {
+		while (true) {
+			long waitMillis;
+			synchronized (this) {
+				long now = System.nanoTime();
+				tokens = Math.min(bytesPerSecond, tokens + bytesPerSecond * (now - lastRefill) / 1e9);
+				lastRefill = now;
+				if (tokens >= 0)
+					return;
+				waitMillis = (long) Math.ceil(-tokens * 1000 / bytesPerSecond);
+			}
+			Thread.sleep(waitMillis);
+		}
+	}
+
+	/**
+	 * @return String how often opens hit the cache and how many prefetches were used
+	 */
+	public synchronized String toString() {
+		return String.format("Opens: %d, cache hits %d (%.0f%%); prefetched %d, used %d, evicted unused %d",
+			opens, hits, opens == 0 ? 0.0 : 100.0 * hits / opens, prefetched, used, wasted);
+	}
+
+	/**
+	 * stops prefetching
+	 */
+	public void close() {
+		worker.shutdownNow();
+	}
+}
@@ -0,0 +1,18 @@
+package dfs;
+
+import java.rmi.*;
+import java.util.*;
+
+// what a primary and its read replicas ask each other
+public interface ReplicaInterface extends Remote {
+    // the replicas of this primary as "host:port", empty if it has none
+    public List<String> getReplicas( ) throws RemoteException;
+    // a replica starts following this primary
+    public boolean addReplica( String replica ) throws RemoteException;
+    // the primary's files that changed, as they were lagMillis before they were sent
+    public boolean applyUpdates( List<EntryState> updates, long lagMillis ) throws RemoteException;
+    // the replica takes over as primary, with the file table it was sent
+    public boolean promote( ) throws RemoteException;
+    // the replica starts following another primary
+    public boolean follow( String primary ) throws RemoteException;
+}
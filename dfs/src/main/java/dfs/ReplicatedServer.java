@@ -0,0 +1,218 @@
+package dfs;
+
+import java.rmi.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * This class is the client side of a primary with read replicas. It implements
+ * ServerInterface by sending downloads for reading to the replicas in turn and
+ * everything else to the primary. A replica that is too far behind, or can't
+ * be reached, sends the read back to the primary.
+ **/
+
+public class ReplicatedServer implements ServerInterface {
+
+	/*
+	a read sent to one replica
+	*/
+	private interface ReadCall<T> {
+		T call(ServerInterface replica) throws RemoteException;
+	}
+
+	private final ServerInterface primary;
+	private final List<String> replicas;
+	private final ConcurrentHashMap<String, ServerInterface> stubs = new ConcurrentHashMap<String, ServerInterface>();
+	private final ConcurrentHashMap<Long, ServerInterface> issuers = new ConcurrentHashMap<Long, ServerInterface>();	// read
+																							// transfers of replicas
+	private final AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * @param primary the stub of the primary
+	 * @param replicas its replicas, as "host:port"
+	 */
+	public ReplicatedServer(ServerInterface primary, List<String> replicas) {
+		this.primary = primary;
+		this.replicas = new ArrayList<String>(replicas);
+	}
+
+	public FileContents download( String client, String filename, String mode ) throws RemoteException {
+		if (!mode.equals("r"))
+			return primary.download(client, filename, mode);
+		return read(replica -> replica.download(client, filename, mode),
+			() -> primary.download(client, filename, mode));
+	}
+
+	/**
+	 * any replica can tell whether the client's copy is current, since
+	 * the versions on the replicas are the primary's
+	 */
+	public FileContents download( String client, String filename, String mode, long version )
+		throws RemoteException
+	{
+		if (!mode.equals("r"))
+			return primary.download(client, filename, mode, version);
+		return read(replica -> replica.download(client, filename, mode, version),
+			() -> primary.download(client, filename, mode, version));
+	}
+
+	public boolean upload( String client, String filename, FileContents contents ) throws RemoteException {
+		return primary.upload(client, filename, contents);
+	}
+
+	public long openRead( String client, String filename, String mode ) throws RemoteException {
+		return openRead(client, filename, mode, FileContents.IDENTITY);
+	}
+
+	public long openRead( String client, String filename, String mode, String acceptEncoding )
+		throws RemoteException
+	{
+		return openRead(client, filename, mode, acceptEncoding, -1);
+	}
+
+	public long openRead( String client, String filename, String mode, String acceptEncoding, long version )
+		throws RemoteException
+	{
+		if (!mode.equals("r"))
+			return primary.openRead(client, filename, mode, acceptEncoding, version);
+		return read(replica -> {
+			long id = replica.openRead(client, filename, mode, acceptEncoding, version);
+			if (id > 0)
+				issuers.put(id, replica);
+			return id;
+		}, () -> primary.openRead(client, filename, mode, acceptEncoding, version));
+	}
+
+	public FileContents readChunk( long transferId, long offset, int length ) throws RemoteException {
+		ServerInterface issuer = issuers.get(transferId);
+		if (issuer == null)
+			return primary.readChunk(transferId, offset, length);
+		FileContents chunk = issuer.readChunk(transferId, offset, length);
+		if (chunk == null || chunk.get().length < length)		// the replica closed the transfer
+			issuers.remove(transferId);
+		return chunk;
+	}
+
+	public long openWrite( String client, String filename ) throws RemoteException {
+		return primary.openWrite(client, filename);
+	}
+
+	public boolean writeChunk( long transferId, long offset, FileContents chunk ) throws RemoteException {
+		return primary.writeChunk(transferId, offset, chunk);
+	}
+
+	public boolean commit( long transferId ) throws RemoteException {
+		return primary.commit(transferId);
+	}
+
+	public boolean uploadDelta( String client, String filename, FileDelta delta ) throws RemoteException {
+		return primary.uploadDelta(client, filename, delta);
+	}
+
+	/**
+	 * a batch goes to a replica only if every file of it is for reading
+	 */
+	public List<FileGrant> downloadBatch( String client, List<FileRequest> requests, String acceptEncoding )
+		throws RemoteException
+	{
+		for (FileRequest request : requests)
+			if (!"r".equals(request.getMode()))
+				return primary.downloadBatch(client, requests, acceptEncoding);
+		return read(replica -> replica.downloadBatch(client, requests, acceptEncoding),
+			() -> primary.downloadBatch(client, requests, acceptEncoding));
+	}
+
+	public FileContents acquireRange( String client, String filename, long offset, long length )
+		throws RemoteException
+	{
+		return primary.acquireRange(client, filename, offset, length);
+	}
+
+	public boolean uploadRange( String client, String filename, long offset, FileContents contents )
+		throws RemoteException
+	{
+		return primary.uploadRange(client, filename, offset, contents);
+	}
+
+	public boolean releaseRange( String client, String filename, long offset ) throws RemoteException {
+		return primary.releaseRange(client, filename, offset);
+	}
+
+	public long requestWrite( String client, String filename ) throws RemoteException {
+		return primary.requestWrite(client, filename);
+	}
+
+	public long claimWrite( String client, long ticket, String acceptEncoding ) throws RemoteException {
+		return primary.claimWrite(client, ticket, acceptEncoding);
+	}
+
+	public long claimWrite( String client, long ticket, String acceptEncoding, long version )
+		throws RemoteException
+	{
+		return primary.claimWrite(client, ticket, acceptEncoding, version);
+	}
+
+	public FileGrant upgrade( String client, String filename, long version ) throws RemoteException {
+		return primary.upgrade(client, filename, version);
+	}
+
+	public FileContents downgrade( String client, String filename ) throws RemoteException {
+		return primary.downgrade(client, filename);
+	}
+
+	/**
+	 * the client may have read the file from any replica, so every one of them
+	 * forgets it. A replica that can't be reached calls the client back at worst
+	 */
+	public boolean release( String client, String filename ) throws RemoteException {
+		boolean released = primary.release(client, filename);
+		for (String replica : replicas) {
+			try {
+				released |= stub(replica).release(client, filename);
+			} catch (RemoteException re) {
+				stubs.remove(replica);
+			}
+		}
+		return released;
+	}
+
+	/**
+	 * sends a read to the next replica, or to the primary if the replica
+	 * is behind or unreachable
+	 */
+	private <T> T read(ReadCall<T> request, Callable<T> fallback) throws RemoteException {
+		String replica = replicas.get(Math.floorMod(next.getAndIncrement(), replicas.size()));
+		try {
+			return request.call(stub(replica));
+		} catch (WrongShardException wse) {
+			// the replica is too far behind its primary
+		} catch (RemoteException re) {
+			stubs.remove(replica);
+		}
+		try {
+			return fallback.call();
+		} catch (RemoteException re) {
+			throw re;
+		} catch (Exception e) {
+			throw new RemoteException("Error: when reading from the primary", e);
+		}
+	}
+
+	/**
+	 * @return ServerInterface the stub of the replica, looked up the first time
+	 * @throws RemoteException if the lookup went wrong
+	 */
+	private ServerInterface stub(String replica) throws RemoteException {
+		ServerInterface stub = stubs.get(replica);
+		if (stub != null)
+			return stub;
+		try {
+			stub = ( ServerInterface ) Naming.lookup( "rmi://" + replica + "/server" );
+		} catch (NotBoundException | java.net.MalformedURLException e) {
+			throw new RemoteException("Error: no replica at " + replica, e);
+		}
+		stubs.put(replica, stub);
+		return stub;
+	}
+}
@@ -0,0 +1,185 @@
+package dfs;
+
+import java.rmi.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class sends the files that change on a primary to its read replicas.
+ * Every replica has its own sender thread and its own set of changed files, so a
+ * slow replica only falls behind by itself. A file that changes again before it was
+ * sent is sent once, as it is when the sender gets to it, and its content only
+ * if the replica doesn't have that version yet. When nothing changes, an empty
+ * batch is sent every dfs.replication.heartbeatMs, so replicas know how far
+ * behind they are.
+ * Uploads return once they are applied here (dfs.replication=async, the default),
+ * or once a replica has them too, waiting at most dfs.replication.timeoutMs (semisync).
+ **/
+
+public class Replicator {
+
+	/*
+	reads the state of a file under its lock, with the content if the replica
+	has an older version than the one in the file table
+	*/
+	public interface Snapshots {
+		EntryState snapshot(String fileName, long replicaVersion);
+	}
+
+	/*
+	a replica, the files it hasn't been sent yet and the versions it has
+	*/
+	private class Replica {
+		final String name;
+		final LinkedHashSet<String> pending = new LinkedHashSet<String>();	// guarded by Replicator.this
+		final ConcurrentHashMap<String, Long> versions = new ConcurrentHashMap<String, Long>();
+		volatile boolean stopped;
+
+		Replica(String name) {
+			this.name = name;
+		}
+	}
+
+	private final Snapshots snapshots;
+	private final boolean semiSync;
+	private final long timeoutMillis;
+	private final long heartbeatMillis;
+	private final int batchSize;
+	private final Map<String, Replica> replicas = new LinkedHashMap<String, Replica>();	// guarded by this
+	private volatile boolean active;			// there are replicas, read without the lock
+
+	/**
+	 * reads dfs.replication, dfs.replication.timeoutMs, dfs.replication.heartbeatMs
+	 * and dfs.replication.batch
+	 */
+	public Replicator(Snapshots snapshots) {
+		this.snapshots = snapshots;
+		this.semiSync = System.getProperty("dfs.replication", "async").equals("semisync");
+		this.timeoutMillis = Long.getLong("dfs.replication.timeoutMs", 1000);
+		this.heartbeatMillis = Long.getLong("dfs.replication.heartbeatMs", 1000);
+		this.batchSize = Integer.getInteger("dfs.replication.batch", 64);
+	}
+
+	/**
+	 * starts sending to a replica, beginning with the given files. A replica
+	 * that was following already starts over, since it may have restarted
+	 */
+	public synchronized void add(String name, ReplicaInterface stub, Collection<String> fileNames) {
+		Replica old = replicas.get(name);
+		if (old != null)
+			old.stopped = true;
+		Replica replica = new Replica(name);
+		replica.pending.addAll(fileNames);
+		replicas.put(name, replica);
+		active = true;
+		FileServer.daemonThreads("replicate-" + name).newThread(() -> send(replica, stub)).start();
+		notifyAll();
+	}
+
+	/**
+	 * @return List<String> the replicas being sent to
+	 */
+	public synchronized List<String> replicas() {
+		return new ArrayList<String>(replicas.keySet());
+	}
+
+	/**
+	 * queues a changed file for every replica
+	 */
+	public void changed(String fileName) {
+		if (!active)
+			return;						// reads don't contend here without replicas
+		synchronized (this) {
+			for (Replica replica : replicas.values())
+				replica.pending.add(fileName);
+			notifyAll();
+		}
+	}
+
+	/**
+	 * in semisync mode, waits until a replica has the given version of a file,
+	 * or until dfs.replication.timeoutMs passed
+	 * @return boolean false if no replica had it in time
+	 */
+	public boolean awaitReplicated(String fileName, long version) throws InterruptedException {
+		if (!semiSync)
+			return true;
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (this) {
+			while (true) {
+				if (replicas.isEmpty())
+					return true;
+				for (Replica replica : replicas.values())
+					if (replica.versions.getOrDefault(fileName, -1L) >= version)
+						return true;
+				long left = deadline - System.currentTimeMillis();
+				if (left <= 0)
+					return false;
+				wait(left);
+			}
+		}
+	}
+
+	/**
+	 * runs on the replica's thread: sends the changed files in batches, or a heartbeat
+	 */
+	private void send(Replica replica, ReplicaInterface stub) {
+		long retry = heartbeatMillis;
+		long caughtUpAt = 0;			// every change before this is in the batch or sent already
+		while (!replica.stopped) {
+			List<String> fileNames = new ArrayList<String>();
+			long sentAt = caughtUpAt;
+			try {
+				synchronized (this) {
+					if (replica.pending.isEmpty())
+						wait(heartbeatMillis);
+					Iterator<String> it = replica.pending.iterator();
+					while (it.hasNext() && fileNames.size() < batchSize) {
+						fileNames.add(it.next());
+						it.remove();
+					}
+					if (replica.pending.isEmpty())
+						sentAt = System.currentTimeMillis();		// before the snapshots are taken
+				}
+				List<EntryState> updates = new ArrayList<EntryState>(fileNames.size());
+				for (String fileName : fileNames) {
+					EntryState state = snapshots.snapshot(fileName, replica.versions.getOrDefault(fileName, 0L));
+					if (state != null)
+						updates.add(state);
+				}
+				// the lag is measured on this clock only, the replica counts it back from its own
+				if (!stub.applyUpdates(updates, System.currentTimeMillis() - sentAt)) {
+					Log.warn("Replica %s refused the updates, it doesn't follow this server.", replica.name);
+					remove(replica);
+					return;
+				}
+				synchronized (this) {
+					for (EntryState state : updates)
+						replica.versions.put(state.getFileName(), state.getVersion());
+					notifyAll();
+				}
+				caughtUpAt = sentAt;
+				retry = heartbeatMillis;
+			} catch (InterruptedException ie) {
+				return;
+			} catch (RemoteException re) {
+				Log.error("Error: when sending updates to replica %s.", replica.name);
+				synchronized (this) {
+					replica.pending.addAll(fileNames);
+				}
+				try {
+					Thread.sleep(retry);
+				} catch (InterruptedException ie) {
+					return;
+				}
+				retry = Math.min(retry * 2, 30 * heartbeatMillis);
+			}
+		}
+	}
+
+	private synchronized void remove(Replica replica) {
+		replicas.remove(replica.name, replica);
+		active = !replicas.isEmpty();
+		notifyAll();
+	}
+}
@@ -0,0 +1,70 @@
+package dfs;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * This class keeps a file too large for one array or buffer, 2 GB or more,
+ * as read-only memory-mapped segments of the file, whatever the storage backend.
+ * The bytes stay in the page cache, outside the heap, and reads are copied out
+ * a range at a time, so such files can only be sent in chunks.
+ * Like every mapping, the segments keep the content they were mapped with
+ * after the file is replaced with a rename.
+ **/
+
+public class SegmentedContentStore implements ContentStore {
+
+	private static final int SEGMENT_SIZE = 1 << 30;		// 1 GB per mapping
+
+	private final ByteBuffer[] segments;		// read only, each SEGMENT_SIZE but the last
+	private final long size;
+
+	/**
+	 * maps size bytes of the file open in channel
+	 * @throws IOException if the file couldn't be mapped
+	 */
+	public SegmentedContentStore(FileChannel channel, long size) throws IOException {
+		this.segments = new ByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+		for (int i = 0; i < segments.length; i++) {
+			long position = (long) i * SEGMENT_SIZE;
+			segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+				Math.min(SEGMENT_SIZE, size - position)).asReadOnlyBuffer();
+		}
+		this.size = size;
+	}
+
+	public long size() {
+		return size;
+	}
+
+	public byte[] read(long offset, int length) {
+		long from = Math.min(Math.max(offset, 0), size);
+		long to = Math.min(from + Math.max(length, 0), size);
+		byte[] chunk = new byte[(int) (to - from)];
+		int copied = 0;
+		while (copied < chunk.length) {
+			long position = from + copied;
+			ByteBuffer view = segments[(int) (position / SEGMENT_SIZE)].duplicate();
+			view.position((int) (position % SEGMENT_SIZE));
+			int count = Math.min(view.remaining(), chunk.length - copied);
+			view.get(chunk, copied, count);
+			copied += count;
+		}
+		return chunk;
+	}
+
+	/**
+	 * @throws UnsupportedOperationException always, the content doesn't fit in an array
+	 */
+	public byte[] toByteArray() {
+		throw new UnsupportedOperationException("content of " + size + " bytes doesn't fit in an array");
+	}
+
+	/**
+	 * @throws UnsupportedOperationException always, the content doesn't fit in a buffer
+	 */
+	public ByteBuffer asByteBuffer() {
+		throw new UnsupportedOperationException("content of " + size + " bytes doesn't fit in a buffer");
+	}
+}
@@ -0,0 +1,639 @@
+/**
+ * ServerEntry.java:<p>
+ * @author Darong Leng, Chris Knakal
+ * @since 05/24/2016
+ **/
+
+package dfs;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * This class is used to store the content of a file. In other words, it acts as a cached.
+ * It has information about the file's name, state of cache, owner of cache, a list of readers.
+ **/
+
+public class ServerEntry {
+
+	/*
+	enum FileState represents file state
+	*/
+	public enum FileState {
+		NOT_SHARED,
+		READ_SHARED,
+		WRITE_SHARED,
+		OWNERSHIP_CHANGE
+	}
+
+	protected String fileName; 				// name of the file
+	protected String owner;					// store clientIp
+	protected FileState state;				// state of the file
+	protected ContentStore content;			// content of the file, null while evicted
+	protected boolean dirty;				// content differs from the file on disk
+	protected long version = FIRST_VERSION;	// bumped every time the content changes
+	protected Vector<String> readerList;		// clients who involved with the file, 
+												// stores clients' IPS
+	protected long leaseExpiry;				// when the last read lease granted runs out
+	private int waitingUploads;				// uploads waiting for the leases to run out
+	private boolean moved;					// handed over to another shard
+	private String primaryOwner;			// on a replica, who writes the file on the primary
+	private List<String> primaryReaders = Collections.emptyList();	// and who reads it there
+
+	// the write-ahead log is truncated after a save, so contents are forced by default
+	private static final boolean SYNC_ON_SAVE =
+			Boolean.parseBoolean(System.getProperty("dfs.flush.fsync", "true"));
+
+	private static final StorageBackend STORAGE = StorageBackend.fromProperty();
+	private static final int COMPARE_BLOCK = 64 * 1024;		// read at a time by contentEquals
+
+	// versions start from the time the server started, so a version a client kept
+	// from an earlier run of the server never matches a version of this run
+	private static final long FIRST_VERSION = System.currentTimeMillis() << 16;
+
+	private final ReentrantLock lock = new ReentrantLock(true);	// guards this entry only
+	private final ArrayDeque<WriteTicket> writerQueue 			// writers waiting for this file,
+					= new ArrayDeque<WriteTicket>();			// in arrival order
+	private final List<ByteRange> ranges = new ArrayList<ByteRange>();	// byte-range write tokens
+	private final Condition rangesChanged = lock.newCondition();	// a token or the whole file was released
+
+	/**
+     * sets state to NOT_SHARED
+     * instatiate reader list
+     * the content is read from the disk later, when it is first asked for
+     * @param fileName name of the cached file
+     * @throws IOException if the file doesn't exist
+     */
+	public ServerEntry(String fileName) throws IOException{
+		this.state = FileState.NOT_SHARED;
+		this.readerList = new Vector<String>();
+		this.fileName = fileName;
+		if ( !new File(fileName).isFile() )
+			throw new FileNotFoundException(fileName);
+	}
+
+	/**
+	* @return ContentStore contentn of the cache, null if it is not in memory
+	*/
+	public ContentStore getContent() {
+		return content;
+	}
+
+	/**
+	* goes read the content from the disk based on fileName,
+	* into the storage backend chosen with dfs.storage
+	* @return ContentStore content of the file on disk
+	* @throws IOException if reading from a file went wrong
+	*/
+	public ContentStore loadContent() throws IOException {
+		File file = new File(fileName);
+		return STORAGE.load( file.toPath() ); // read from disk
+	}
+
+	/**
+	* replaces the content with uploaded bytes, kept in the storage backend
+	* and marks it as changed. the caller must hold this entry's lock
+	*/
+	public void setContent(byte[] uploaded) {
+		content = STORAGE.wrap(uploaded);
+		dirty = true;
+		version++;
+	}
+
+	/**
+	* @return boolean true if the content held in memory is the same as the given bytes,
+	* false if it differs or isn't in memory. the caller must hold this entry's lock
+	*/
+	public boolean contentEquals(byte[] uploaded) {
+		ContentStore current = content;
+		return current != null && current.size() == uploaded.length
+			&& current.asByteBuffer().equals(ByteBuffer.wrap(uploaded));
+	}
+
+	/**
+	* @return boolean true if the content held in memory is the same as the uploaded file,
+	* compared a block at a time. false if it differs, isn't in memory or the file
+	* couldn't be read. the caller must hold this entry's lock
+	*/
+	public boolean contentEquals(Path uploaded) {
+		ContentStore current = content;
+		try {
+			if (current == null || current.size() != Files.size(uploaded))
+				return false;
+			InputStream input = new BufferedInputStream(Files.newInputStream(uploaded));
+			try {
+				byte[] block = new byte[COMPARE_BLOCK];
+				long offset = 0;
+				int read;
+				while ((read = input.readNBytes(block, 0, block.length)) > 0) {
+					byte[] cached = current.read(offset, read);
+					if (!Arrays.equals(block, 0, read, cached, 0, cached.length))
+						return false;
+					offset += read;
+				}
+				return true;
+			} finally {
+				input.close();
+			}
+		} catch (IOException ie) {
+			return false;
+		}
+	}
+
+	/**
+	* moves an uploaded file over the file on disk, in one atomic rename, and
+	* drops the content held in memory, so the new one is read from disk the next
+	* time it is asked for. the upload is forced to the device first unless
+	* dfs.flush.fsync is false. the caller must hold this entry's lock
+	* @throws IOException if the file couldn't be replaced, it is left as it was
+	*/
+	public void replaceFile(Path uploaded) throws IOException {
+		AtomicFileWriter.replace(uploaded, Paths.get(fileName), SYNC_ON_SAVE);
+		content = null;
+		dirty = false;
+		version++;
+	}
+
+	/**
+	* replaces the file on disk with the content and marks it as clean.
+	* the file is replaced atomically, so a crash leaves either the old or the new
+	* content, and the content is forced to the device unless dfs.flush.fsync is false
+	* the caller must hold this entry's lock
+	* @return boolean true if the content was written successfully
+	*/
+	public boolean saveContent() {
+		try {
+			AtomicFileWriter.write(Paths.get(fileName), content.asByteBuffer(), SYNC_ON_SAVE);
+			dirty = false;
+			return true;
+		}catch(IOException ioException) {
+			Log.error("Error: when writing file.");
+			ioException.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	* @return long version of the content, bumped every time it changes
+	*/
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	* @return boolean true if the content differs from the file on disk
+	*/
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	* @return String the name of the cached file
+	*/
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	* @return true if "fileName" is equal to the name of cache, false otherwise
+	*/
+	public boolean isFileName(String fileName) {
+		return fileName.equals(this.fileName);
+	}
+
+	/**
+	* @return void set owner
+	*/
+	public void setOwner(String owner) {
+		this.owner = owner;
+	}
+
+	/**
+	* @return void set owner to null
+	*/
+	public void resetOwner() {
+		this.owner = null;
+	}
+
+	/**
+	* @return void add readIp to the reader list
+	*/
+	public void addReader(String readerIp) {
+		readerList.add(readerIp);
+	}
+
+	/**
+	* @return boolean true if readerIp was a reader. the file goes back to NOT_SHARED
+	* when its last reader is gone. the caller must hold this entry's lock
+	*/
+	public boolean removeReader(String readerIp) {
+		boolean removed = readerList.remove(readerIp);
+		if (isReadShared() && readerList.isEmpty())
+			stateToNotShared();
+		return removed;
+	}
+
+	/**
+	* @return void makes writerIp the owner in one step: it stops being a reader,
+	* so it is not called back for the content it is about to replace.
+	* the caller must hold this entry's lock
+	*/
+	public void setWriter(String writerIp) {
+		readerList.remove(writerIp);
+		owner = writerIp;
+		stateToWriteShared();
+	}
+
+	/**
+	* @return void the owner gives the file up without changing it: the readers'
+	* copies are still current, so the file stays READ_SHARED if it has any.
+	* the caller must hold this entry's lock
+	*/
+	public void releaseWriter() {
+		owner = null;
+		if (readerList.isEmpty())
+			stateToNotShared();
+		else
+			stateToReadShared();
+	}
+
+	/**
+	* @return boolean true if writerIp can own the file right now: nobody else owns it
+	* or part of it and no writer is waiting. the caller must hold this entry's lock
+	*/
+	public boolean isFreeFor(String writerIp) {
+		return (!isWriteShared() || writerIp.equals(owner)) && !hasRanges() && !hasWaitingWriters();
+	}
+
+	/**
+	* @return boolean check if cache in is NOT_SHARED state
+	*/
+	public boolean isNotShared() {
+		return state == FileState.NOT_SHARED;
+	}
+
+	/**
+	* @return boolean check if cache is in READ_SHARED state
+	*/
+	public boolean isReadShared() {
+		return state == FileState.READ_SHARED;
+	}
+
+	/**
+	* @return boolean check if cache is in WRITE_SHARED state
+	*/
+	public boolean isWriteShared() {
+		return state == FileState.WRITE_SHARED;
+	}
+
+	/**
+	* @return boolean check if cache is in OWNERSHIP_CHANGE state
+	*/
+	public boolean isOwnershipChanged() {
+		return state == FileState.OWNERSHIP_CHANGE;
+	}
+
+	/**
+	* @return void change state of cache to NOT_SHARED
+	*/
+	public void stateToNotShared() {
+		state = FileState.NOT_SHARED;		
+	}
+
+	/**
+	* @return void change state of cache to READ_SHARED
+	*/
+	public void stateToReadShared() {
+		state = FileState.READ_SHARED;
+	}
+
+	/**
+	* @return void change state of cache to WRITE_SHARED
+	*/
+	public void stateToWriteShared() {
+		state = FileState.WRITE_SHARED;	
+	}
+
+	/**
+	* @return void change state of cache to OWNERSHIP_SHARED
+	*/
+	public void stateToOwnershipChanged() {
+		state = FileState.OWNERSHIP_CHANGE;		
+	}
+
+	/**
+	* @return void acquire this entry's lock
+	*/
+	public void lock() {
+		lock.lock();
+	}
+
+	/**
+	* @return boolean true if this entry's lock was free and is now held
+	*/
+	public boolean tryLock() {
+		return lock.tryLock();
+	}
+
+	/**
+	* @return void release this entry's lock
+	*/
+	public void unlock() {
+		lock.unlock();
+	}
+
+	/**
+	* appends a new blocking waiter to the end of the writer queue.
+	* the caller must hold this entry's lock
+	* @return WriteTicket the waiter will be signaled on when it is its turn
+	*/
+	public WriteTicket enqueueWriter(String clientIp) {
+		WriteTicket ticket = WriteTicket.blocking(clientIp, this, lock.newCondition());
+		writerQueue.addLast(ticket);
+		return ticket;
+	}
+
+	/**
+	* appends a waiter that doesn't block to the end of the writer queue,
+	* and signals it right away if it is first in line.
+	* the caller must hold this entry's lock
+	*/
+	public void enqueueWriter(WriteTicket ticket) {
+		writerQueue.addLast(ticket);
+		if (writerQueue.peekFirst() == ticket)
+			ticket.signal();
+	}
+
+	/**
+	* removes a waiter from the writer queue.
+	* the caller must hold this entry's lock
+	*/
+	public void dequeueWriter(WriteTicket ticket) {
+		writerQueue.remove(ticket);
+	}
+
+	/**
+	* @return boolean true if ticket is the first waiter in the writer queue
+	*/
+	public boolean isNextWriter(WriteTicket ticket) {
+		return writerQueue.peekFirst() == ticket;
+	}
+
+	/**
+	* @return boolean true if ticket is in the writer queue
+	*/
+	public boolean hasWaitingWriter(WriteTicket ticket) {
+		return writerQueue.contains(ticket);
+	}
+
+	/**
+	* @return boolean true if there are writers waiting for this file
+	*/
+	public boolean hasWaitingWriters() {
+		return !writerQueue.isEmpty();
+	}
+
+	/**
+	* @return void wake up the first waiting writer only, if there is one.
+	* the caller must hold this entry's lock
+	*/
+	public void signalNextWriter() {
+		WriteTicket next = writerQueue.peekFirst();
+		if (next != null)
+			next.signal();
+	}
+
+	/**
+	* @return String the holder of a token that overlaps range, null if there is none.
+	* the caller must hold this entry's lock
+	*/
+	public String rangeConflict(ByteRange range) {
+		for (ByteRange held : ranges)
+			if (held.overlaps(range) && !held.getOwner().equals(range.getOwner()))
+				return held.getOwner();
+		return null;
+	}
+
+	/**
+	* @return boolean true if a client holds a token on part of this file
+	*/
+	public boolean hasRanges() {
+		return !ranges.isEmpty();
+	}
+
+	/**
+	* @return List<String> clients holding a token on part of this file, without duplicates.
+	* the caller must hold this entry's lock
+	*/
+	public List<String> rangeOwners() {
+		List<String> owners = new ArrayList<String>();
+		for (ByteRange held : ranges)
+			if (!owners.contains(held.getOwner()))
+				owners.add(held.getOwner());
+		return owners;
+	}
+
+	/**
+	* @return void hand out a token. the caller must hold this entry's lock
+	* and have checked there is no conflict
+	*/
+	public void addRange(ByteRange range) {
+		ranges.add(range);
+	}
+
+	/**
+	* @return boolean true if owner holds a token covering the given bytes
+	*/
+	public boolean holdsRange(String owner, long offset, long length) {
+		return heldRange(owner, offset, length) != null;
+	}
+
+	/**
+	* @return ByteRange the token of owner covering the given bytes, null if it holds none
+	*/
+	public ByteRange heldRange(String owner, long offset, long length) {
+		for (ByteRange held : ranges)
+			if (held.getOwner().equals(owner) && held.covers(offset, length))
+				return held;
+		return null;
+	}
+
+	/**
+	* removes the token of owner that starts at offset and wakes up whoever waits for it.
+	* the caller must hold this entry's lock
+	* @return boolean true if there was such a token
+	*/
+	public boolean removeRange(String owner, long offset) {
+		for (Iterator<ByteRange> it = ranges.iterator(); it.hasNext(); ) {
+			ByteRange held = it.next();
+			if (held.getOwner().equals(owner) && held.getOffset() == offset) {
+				it.remove();
+				signalRangesChanged();
+				signalNextWriter();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	* removes the tokens nobody uploaded to for maxIdleMillis and wakes up whoever
+	* waits for them. the caller must hold this entry's lock
+	* @return List<ByteRange> the tokens removed
+	*/
+	public List<ByteRange> dropIdleRanges(long now, long maxIdleMillis) {
+		List<ByteRange> dropped = new ArrayList<ByteRange>();
+		for (Iterator<ByteRange> it = ranges.iterator(); it.hasNext(); ) {
+			ByteRange held = it.next();
+			if (held.isIdle(now, maxIdleMillis)) {
+				it.remove();
+				dropped.add(held);
+			}
+		}
+		if (!dropped.isEmpty()) {
+			signalRangesChanged();
+			signalNextWriter();
+		}
+		return dropped;
+	}
+
+	/**
+	* waits until a token or the whole file is released, or for at most millis.
+	* the caller must hold this entry's lock
+	*/
+	public void awaitRangesChanged(long millis) throws InterruptedException {
+		rangesChanged.await(millis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	* @return void wake up every client waiting for a token on this file.
+	* the caller must hold this entry's lock
+	*/
+	public void signalRangesChanged() {
+		rangesChanged.signalAll();
+	}
+
+	/**
+	* grants a read lease unless an upload is waiting for the current ones to run out,
+	* so that readers can't hold off a writer forever.
+	* the caller must hold this entry's lock
+	* @param long millis is the length of the lease
+	* @return long the length of the granted lease, 0 if none was granted
+	*/
+	public long grantLease(long millis) {
+		if (millis <= 0 || waitingUploads > 0)
+			return 0;
+		leaseExpiry = Math.max(leaseExpiry, System.currentTimeMillis() + millis);
+		return millis;
+	}
+
+	/**
+	* waits until every read lease granted on this file has run out.
+	* no lease is granted in the meantime. the lock is released while waiting.
+	* the caller must hold this entry's lock
+	* @return long the number of milliseconds waited
+	* @throws InterruptedException if the thread was interrupted while waiting
+	*/
+	public long awaitLeases() throws InterruptedException {
+		long start = System.currentTimeMillis();
+		long left = leaseExpiry - start;
+		if (left <= 0)
+			return 0;
+		Condition expired = lock.newCondition();	// nobody signals it, it only times out
+		waitingUploads++;
+		try {
+			while (left > 0) {
+				expired.await(left, java.util.concurrent.TimeUnit.MILLISECONDS);
+				left = leaseExpiry - System.currentTimeMillis();
+			}
+		} finally {
+			waitingUploads--;
+		}
+		return System.currentTimeMillis() - start;
+	}
+
+	/**
+	* takes over the state of a file another shard handed over: the readers to call
+	* back, the read leases still running and the version of the content.
+	* the content itself is read from disk, where the other shard saved it.
+	* the caller must hold this entry's lock
+	*/
+	public void adopt(List<String> readers, long leaseExpiry, long version) {
+		for (String reader : readers)
+			if (!readerList.contains(reader))
+				readerList.add(reader);
+		if (!readerList.isEmpty() && isNotShared())
+			stateToReadShared();
+		this.leaseExpiry = Math.max(this.leaseExpiry, leaseExpiry);
+		this.version = Math.max(this.version, version);
+	}
+
+	/**
+	* @return void mark this entry as handed over to another shard, requests that
+	* looked it up before must go there. the caller must hold this entry's lock
+	*/
+	public void markMoved() {
+		moved = true;
+	}
+
+	/**
+	* @return boolean true if this entry was handed over to another shard
+	*/
+	public boolean isMoved() {
+		return moved;
+	}
+
+	/**
+	* replaces the content with a version the primary sent. unlike setContent the
+	* version is the primary's, so it is the same on every replica and clients can
+	* ask any of them whether their copy is still current.
+	* the caller must hold this entry's lock
+	*/
+	public void replicate(byte[] content, long version) {
+		this.content = STORAGE.wrap(content);
+		this.dirty = true;
+		this.version = version;
+	}
+
+	/**
+	* @return void remember who owns and reads the file on the primary, for when this
+	* replica takes over. the caller must hold this entry's lock
+	*/
+	public void setPrimaryState(String owner, List<String> readers) {
+		primaryOwner = owner;
+		primaryReaders = readers;
+	}
+
+	/**
+	* makes the owner and the readers the primary had this entry's own, once this
+	* replica has taken over from it. the caller must hold this entry's lock
+	*/
+	public void takeOverPrimaryState() {
+		for (String reader : primaryReaders)
+			if (!readerList.contains(reader))
+				readerList.add(reader);
+		if (primaryOwner != null) {
+			setOwner(primaryOwner);
+			stateToWriteShared();
+		} else if (!readerList.isEmpty() && isNotShared()) {
+			stateToReadShared();
+		}
+		primaryOwner = null;
+		primaryReaders = Collections.emptyList();
+	}
+
+	/**
+	* @return String info of the cache
+	*/
+	public String toString() {
+		return "File Name: " + fileName + "\n" +
+			   "State    : " + state + "\n" +
+			   "Owner    : " + owner + "\n" + 
+			   "Readers  : " + readerList;
+	}
+
+}
@@ -0,0 +1,63 @@
+package dfs;
+
+import java.rmi.*;
+import java.util.*;
+
+public interface ServerInterface extends Remote {
+    public FileContents download( String client, String filename, String mode )
+		throws RemoteException;
+    // conditional download: no bytes if the client's copy still has this version
+    public FileContents download( String client, String filename, String mode,
+			   long version ) throws RemoteException;
+    public boolean upload( String client, String filename, 
+			   FileContents contents ) throws RemoteException;
+
+    // chunked transfers, so that no call carries more than one chunk
+    public long openRead( String client, String filename, String mode )
+		throws RemoteException;
+    public long openRead( String client, String filename, String mode,
+			   String acceptEncoding ) throws RemoteException;
+    public long openRead( String client, String filename, String mode,
+			   String acceptEncoding, long version ) throws RemoteException;
+    public FileContents readChunk( long transferId, long offset, int length )
+		throws RemoteException;
+    public long openWrite( String client, String filename )
+		throws RemoteException;
+    public boolean writeChunk( long transferId, long offset,
+			   FileContents chunk ) throws RemoteException;
+    public boolean commit( long transferId ) throws RemoteException;
+
+    // sends only the blocks that changed since the client downloaded the file
+    public boolean uploadDelta( String client, String filename,
+			   FileDelta delta ) throws RemoteException;
+
+    // downloads many files in one call, with one FileGrant per request
+    public List<FileGrant> downloadBatch( String client, List<FileRequest> requests,
+			   String acceptEncoding ) throws RemoteException;
+
+    // write tokens on parts of a file, so writers of different parts don't wait
+    public FileContents acquireRange( String client, String filename,
+			   long offset, long length ) throws RemoteException;
+    public boolean uploadRange( String client, String filename, long offset,
+			   FileContents contents ) throws RemoteException;
+    public boolean releaseRange( String client, String filename,
+			   long offset ) throws RemoteException;
+
+    // write requests that are queued instead of waiting for the file;
+    // the client is called back with writeGranted and then claims the content
+    public long requestWrite( String client, String filename )
+		throws RemoteException;
+    public long claimWrite( String client, long ticket,
+			   String acceptEncoding ) throws RemoteException;
+    public long claimWrite( String client, long ticket,
+			   String acceptEncoding, long version ) throws RemoteException;
+
+    // moves a client between reading and writing a file without sending it
+    // again, and lets a client drop its copy so it isn't called back anymore
+    public FileGrant upgrade( String client, String filename,
+			   long version ) throws RemoteException;
+    public FileContents downgrade( String client, String filename )
+		throws RemoteException;
+    public boolean release( String client, String filename )
+		throws RemoteException;
+}
@@ -0,0 +1,161 @@
+package dfs;
+
+import java.lang.management.*;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
+
+/**
+ * This class counts what the server does: requests, bytes, file table and content
+ * cache hits, invalidations and writebacks, with latency histograms of downloads,
+ * uploads, invalidation rounds and writer handoffs.
+ * Counters are LongAdders, so request threads never contend on them.
+ * The metrics are registered with JMX and can also be logged periodically.
+ **/
+
+public class ServerMetrics implements ServerMetricsMBean {
+
+	final LongAdder downloads = new LongAdder();
+	final LongAdder uploads = new LongAdder();
+	final LongAdder bytesSent = new LongAdder();
+	final LongAdder bytesReceived = new LongAdder();
+	final LongAdder notModified = new LongAdder();			// downloads the client had the content of
+	final LongAdder entryHits = new LongAdder();			// file already in the file table
+	final LongAdder entryMisses = new LongAdder();			// file wasn't in the file table
+	final LongAdder invalidations = new LongAdder();
+	final LongAdder invalidationFailures = new LongAdder();
+	final LongAdder writebackRequests = new LongAdder();
+	final LongAdder waitingWriters = new LongAdder();		// writers queued right now
+
+	final LatencyHistogram downloadLatency = new LatencyHistogram();
+	final LatencyHistogram uploadLatency = new LatencyHistogram();
+	final LatencyHistogram invalidateLatency = new LatencyHistogram();	// one round of invalidations
+	final LatencyHistogram writebackWait = new LatencyHistogram();		// queued until granted
+
+	private final ContentCache contentCache;
+
+	public ServerMetrics(ContentCache contentCache) {
+		this.contentCache = contentCache;
+	}
+
+	/**
+	 * registers the metrics as dfs:type=ServerMetrics with the platform MBean server
+	 */
+	public void register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(
+				this, new ObjectName("dfs:type=ServerMetrics"));
+		} catch (JMException je) {
+			Log.error("Error: when registering the server metrics with JMX.");
+		}
+	}
+
+	public long getDownloads() {
+		return downloads.sum();
+	}
+
+	public long getUploads() {
+		return uploads.sum();
+	}
+
+	public long getBytesSent() {
+		return bytesSent.sum();
+	}
+
+	public long getBytesReceived() {
+		return bytesReceived.sum();
+	}
+
+	public long getNotModified() {
+		return notModified.sum();
+	}
+
+	public long getEntryHits() {
+		return entryHits.sum();
+	}
+
+	public long getEntryMisses() {
+		return entryMisses.sum();
+	}
+
+	public long getContentCacheHits() {
+		return contentCache.getHits();
+	}
+
+	public long getContentCacheMisses() {
+		return contentCache.getMisses();
+	}
+
+	public long getInvalidations() {
+		return invalidations.sum();
+	}
+
+	public long getInvalidationFailures() {
+		return invalidationFailures.sum();
+	}
+
+	public long getWritebackRequests() {
+		return writebackRequests.sum();
+	}
+
+	public long getWaitingWriters() {
+		return waitingWriters.sum();
+	}
+
+	public long getDroppedLogLines() {
+		return Log.dropped();
+	}
+
+	public double getEntryHitRate() {
+		long hits = entryHits.sum();
+		long total = hits + entryMisses.sum();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	public long getDownloadP50Micros() {
+		return downloadLatency.percentile(50) / 1000;
+	}
+
+	public long getDownloadP99Micros() {
+		return downloadLatency.percentile(99) / 1000;
+	}
+
+	public long getUploadP50Micros() {
+		return uploadLatency.percentile(50) / 1000;
+	}
+
+	public long getUploadP99Micros() {
+		return uploadLatency.percentile(99) / 1000;
+	}
+
+	public long getInvalidateP50Micros() {
+		return invalidateLatency.percentile(50) / 1000;
+	}
+
+	public long getInvalidateP99Micros() {
+		return invalidateLatency.percentile(99) / 1000;
+	}
+
+	public long getWritebackWaitP50Micros() {
+		return writebackWait.percentile(50) / 1000;
+	}
+
+	public long getWritebackWaitP99Micros() {
+		return writebackWait.percentile(99) / 1000;
+	}
+
+	public String dump() {
+		return String.format(
+			"Requests: %d downloads (%d not modified), %d uploads, %d bytes sent, %d bytes received%n" +
+			"File table: %d hits, %d misses; content cache: %d hits, %d misses%n" +
+			"Callbacks: %d invalidations (%d failed), %d writeback requests, %d writers waiting%n" +
+			"Download:       %s%n" +
+			"Upload:         %s%n" +
+			"Invalidate:     %s%n" +
+			"Writeback wait: %s%n" +
+			"Log lines dropped: %d",
+			getDownloads(), getNotModified(), getUploads(), getBytesSent(), getBytesReceived(),
+			getEntryHits(), getEntryMisses(), getContentCacheHits(), getContentCacheMisses(),
+			getInvalidations(), getInvalidationFailures(), getWritebackRequests(), getWaitingWriters(),
+			downloadLatency, uploadLatency, invalidateLatency, writebackWait, getDroppedLogLines());
+	}
+}
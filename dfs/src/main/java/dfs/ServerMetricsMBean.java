@@ -0,0 +1,36 @@
+package dfs;
+
+/**
+ * This interface is what ServerMetrics shows through JMX,
+ * e.g. in jconsole under dfs:type=ServerMetrics. Latencies are in microseconds.
+ **/
+
+public interface ServerMetricsMBean {
+	public long getDownloads();
+	public long getUploads();
+	public long getBytesSent();
+	public long getBytesReceived();
+	public long getNotModified();
+	public long getEntryHits();
+	public long getEntryMisses();
+	public double getEntryHitRate();
+	public long getContentCacheHits();
+	public long getContentCacheMisses();
+	public long getInvalidations();
+	public long getInvalidationFailures();
+	public long getWritebackRequests();
+	public long getWaitingWriters();
+	public long getDroppedLogLines();
+
+	public long getDownloadP50Micros();
+	public long getDownloadP99Micros();
+	public long getUploadP50Micros();
+	public long getUploadP99Micros();
+	public long getInvalidateP50Micros();
+	public long getInvalidateP99Micros();
+	public long getWritebackWaitP50Micros();
+	public long getWritebackWaitP99Micros();
+
+	// every counter and histogram, one per line
+	public String dump();
+}
@@ -0,0 +1,19 @@
+package dfs;
+
+import java.rmi.*;
+import java.util.*;
+
+// what shards ask each other, and what clients ask to route requests
+public interface ShardInterface extends Remote {
+    // the shards of the ring as "host:port", empty if the server isn't sharded
+    public List<String> getShards( ) throws RemoteException;
+    // puts a new shard on the ring and moves the files it now owns to it
+    public boolean addShard( String shard ) throws RemoteException;
+    // true if the shard still has the file in its file table
+    public boolean holdsEntry( String filename ) throws RemoteException;
+    // takes over a file moved from another shard
+    public boolean adoptEntry( String filename, List<String> readers,
+			   long leaseExpiry, long version ) throws RemoteException;
+    // the given shard has moved every file this one owns now
+    public void migrationDone( String shard ) throws RemoteException;
+}
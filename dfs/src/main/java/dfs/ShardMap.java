@@ -0,0 +1,144 @@
+package dfs;
+
+import java.rmi.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class is a shard's view of the ring: which shard it is, which shard every file
+ * belongs to, and the stubs of the other shards. While a new shard joins, the ring it
+ * had before is kept, so that it knows which shard may still hold a file it owns now,
+ * until every old shard said it has moved those files over.
+ * Shards are configured with dfs.shards, a comma separated "host:port" list.
+ **/
+
+public class ShardMap {
+
+	private final String self;					// this shard, as "host:port"
+	private final HashRing ring;
+	private volatile HashRing previous;			// the ring before this shard joined
+	private final Set<String> migrating = ConcurrentHashMap.newKeySet();	// old shards still moving files here
+	private final Set<String> migrated = ConcurrentHashMap.newKeySet();	// old shards that were done before
+																		// this shard was told it joined
+	private final ConcurrentHashMap<String, ShardInterface> stubs = new ConcurrentHashMap<String, ShardInterface>();
+
+	/**
+	 * @param self this shard, as "host:port"
+	 * @param ring the shards placing the files
+	 */
+	public ShardMap(String self, HashRing ring) {
+		this.self = self;
+		this.ring = ring;
+	}
+
+	/**
+	 * reads dfs.shards and dfs.shard.self. If dfs.shard.self isn't set, this shard is the
+	 * listed one with the same port, or this host's name and port if none is listed:
+	 * a shard that isn't listed serves nothing until it is added with addShard
+	 * @param port the port of this shard's registry
+	 * @return ShardMap the ring, null if the server isn't sharded
+	 */
+	public static ShardMap fromProperties(int port) {
+		String shards = System.getProperty("dfs.shards");
+		if (shards == null || shards.trim().isEmpty())
+			return null;
+		HashRing ring = HashRing.of(shards);
+		String self = System.getProperty("dfs.shard.self");
+		if (self == null) {
+			for (String shard : ring.shards())
+				if (shard.endsWith(":" + port))
+					self = shard;
+		}
+		if (self == null)
+			self = FileServer.localName(port);
+		return new ShardMap(self, ring);
+	}
+
+	/**
+	 * @return String this shard, as "host:port"
+	 */
+	public String self() {
+		return self;
+	}
+
+	/**
+	 * @return String the shard the file belongs to now
+	 */
+	public String ownerOf(String fileName) {
+		return ring.shardFor(fileName);
+	}
+
+	/**
+	 * @return String the shard the file belonged to before this shard joined,
+	 * null if every old shard has moved its files here
+	 */
+	public String previousOwnerOf(String fileName) {
+		HashRing before = previous;
+		return before == null ? null : before.shardFor(fileName);
+	}
+
+	/**
+	 * @return List<String> the shards of the ring
+	 */
+	public List<String> shards() {
+		return ring.shards();
+	}
+
+	/**
+	 * puts a shard on the ring. If it is this shard, the shards already on the ring
+	 * are expected to move files here and to call migrationDone when they are done
+	 * @return boolean false if the shard was on the ring already
+	 */
+	public synchronized boolean add(String shard) {
+		if (ring.contains(shard))
+			return false;
+		if (shard.equals(self)) {
+			migrating.addAll(ring.shards());
+			migrating.removeAll(migrated);
+			previous = ring.without(shard);
+		}
+		ring.add(shard);
+		if (shard.equals(self) && migrating.isEmpty())
+			previous = null;
+		return true;
+	}
+
+	/**
+	 * an old shard has moved every file this shard owns now. The old shards learn
+	 * about this shard first, so one may be done before this shard knows it joined
+	 */
+	public synchronized void migrationDone(String shard) {
+		if (!ring.contains(self)) {
+			migrated.add(shard);
+			return;
+		}
+		if (migrating.remove(shard) && migrating.isEmpty()) {
+			previous = null;
+			Log.info("Every file of shard %s has been moved here.", self);
+		}
+	}
+
+	/**
+	 * @return ShardInterface the stub of another shard, looked up the first time
+	 * @throws RemoteException if the lookup went wrong
+	 */
+	public ShardInterface stub(String shard) throws RemoteException {
+		ShardInterface stub = stubs.get(shard);
+		if (stub != null)
+			return stub;
+		try {
+			stub = ( ShardInterface ) Naming.lookup( "rmi://" + shard + "/server" );
+		} catch (NotBoundException | java.net.MalformedURLException e) {
+			throw new RemoteException("Error: no shard at " + shard, e);
+		}
+		stubs.put(shard, stub);
+		return stub;
+	}
+
+	/**
+	 * drops the stub of a shard after a call through it failed
+	 */
+	public void evict(String shard) {
+		stubs.remove(shard);
+	}
+}
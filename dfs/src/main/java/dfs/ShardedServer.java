@@ -0,0 +1,263 @@
+package dfs;
+
+import java.rmi.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class is the client side of a sharded deployment. It implements ServerInterface
+ * by sending every request about a file to the shard the ring places it on, and every
+ * request about a transfer or a write ticket to the shard that handed it out.
+ * A shard that doesn't serve the file names the one that does; the ring is then
+ * read again from that shard and the request is sent there.
+ **/
+
+public class ShardedServer implements ServerInterface {
+
+	/*
+	a request sent to one shard
+	*/
+	private interface ShardCall<T> {
+		T call(ServerInterface shard) throws RemoteException;
+	}
+
+	private static final int MAX_HOPS = 4;		// a file being moved may take a few
+
+	private volatile HashRing ring;
+	private final ConcurrentHashMap<String, ServerInterface> stubs = new ConcurrentHashMap<String, ServerInterface>();
+	private final ConcurrentHashMap<Long, String> issuers = new ConcurrentHashMap<Long, String>();	// transfer id
+																							// to its shard
+
+	/**
+	 * @param shards the shards of the ring, as "host:port"
+	 */
+	public ShardedServer(List<String> shards) {
+		this.ring = HashRing.of(String.join(",", shards));
+	}
+
+	public FileContents download( String client, String filename, String mode ) throws RemoteException {
+		return route(filename, shard -> shard.download(client, filename, mode));
+	}
+
+	public FileContents download( String client, String filename, String mode, long version )
+		throws RemoteException
+	{
+		return route(filename, shard -> shard.download(client, filename, mode, version));
+	}
+
+	public boolean upload( String client, String filename, FileContents contents ) throws RemoteException {
+		return route(filename, shard -> shard.upload(client, filename, contents));
+	}
+
+	public long openRead( String client, String filename, String mode ) throws RemoteException {
+		return openRead(client, filename, mode, FileContents.IDENTITY);
+	}
+
+	public long openRead( String client, String filename, String mode, String acceptEncoding )
+		throws RemoteException
+	{
+		return issued(filename, shard -> shard.openRead(client, filename, mode, acceptEncoding));
+	}
+
+	public long openRead( String client, String filename, String mode, String acceptEncoding, long version )
+		throws RemoteException
+	{
+		return issued(filename, shard -> shard.openRead(client, filename, mode, acceptEncoding, version));
+	}
+
+	public FileContents readChunk( long transferId, long offset, int length ) throws RemoteException {
+		String issuer = issuers.get(transferId);
+		if (issuer == null)
+			return null;
+		FileContents chunk = stub(issuer).readChunk(transferId, offset, length);
+		if (chunk == null || chunk.get().length < length)		// the shard closed the transfer
+			issuers.remove(transferId);
+		return chunk;
+	}
+
+	public long openWrite( String client, String filename ) throws RemoteException {
+		return issued(filename, shard -> shard.openWrite(client, filename));
+	}
+
+	public boolean writeChunk( long transferId, long offset, FileContents chunk ) throws RemoteException {
+		String issuer = issuers.get(transferId);
+		return issuer != null && stub(issuer).writeChunk(transferId, offset, chunk);
+	}
+
+	public boolean commit( long transferId ) throws RemoteException {
+		String issuer = issuers.remove(transferId);
+		return issuer != null && stub(issuer).commit(transferId);
+	}
+
+	public boolean uploadDelta( String client, String filename, FileDelta delta ) throws RemoteException {
+		return route(filename, shard -> shard.uploadDelta(client, filename, delta));
+	}
+
+	/**
+	 * splits the batch by shard and puts the grants back in the order of the requests.
+	 * The files of a part that went to the wrong shard are sent one by one, so each
+	 * of them follows its own redirects
+	 */
+	public List<FileGrant> downloadBatch( String client, List<FileRequest> requests, String acceptEncoding )
+		throws RemoteException
+	{
+		Map<String, List<Integer>> byShard = new LinkedHashMap<String, List<Integer>>();
+		for (int i = 0; i < requests.size(); i++)
+			byShard.computeIfAbsent(ring.shardFor(requests.get(i).getFileName()),
+				shard -> new ArrayList<Integer>()).add(i);
+
+		FileGrant[] grants = new FileGrant[requests.size()];
+		for (Map.Entry<String, List<Integer>> part : byShard.entrySet()) {
+			List<FileRequest> partRequests = new ArrayList<FileRequest>(part.getValue().size());
+			for (int i : part.getValue())
+				partRequests.add(requests.get(i));
+			List<FileGrant> partGrants;
+			try {
+				partGrants = stub(part.getKey()).downloadBatch(client, partRequests, acceptEncoding);
+			} catch (WrongShardException wse) {
+				refresh(wse.getShard());
+				partGrants = new ArrayList<FileGrant>(partRequests.size());
+				for (FileRequest request : partRequests)
+					partGrants.add(route(request.getFileName(), shard -> shard.downloadBatch(
+						client, Collections.singletonList(request), acceptEncoding)).get(0));
+			} catch (RemoteException re) {
+				stubs.remove(part.getKey());
+				throw re;
+			}
+			for (int i = 0; i < part.getValue().size(); i++)
+				grants[part.getValue().get(i)] = partGrants.get(i);
+		}
+		return Arrays.asList(grants);
+	}
+
+	public FileContents acquireRange( String client, String filename, long offset, long length )
+		throws RemoteException
+	{
+		return route(filename, shard -> shard.acquireRange(client, filename, offset, length));
+	}
+
+	public boolean uploadRange( String client, String filename, long offset, FileContents contents )
+		throws RemoteException
+	{
+		return route(filename, shard -> shard.uploadRange(client, filename, offset, contents));
+	}
+
+	public boolean releaseRange( String client, String filename, long offset ) throws RemoteException {
+		return route(filename, shard -> shard.releaseRange(client, filename, offset));
+	}
+
+	public long requestWrite( String client, String filename ) throws RemoteException {
+		return issued(filename, shard -> shard.requestWrite(client, filename));
+	}
+
+	public long claimWrite( String client, long ticket, String acceptEncoding ) throws RemoteException {
+		return claimWrite(client, ticket, acceptEncoding, -1);
+	}
+
+	public long claimWrite( String client, long ticket, String acceptEncoding, long version )
+		throws RemoteException
+	{
+		String issuer = issuers.get(ticket);
+		if (issuer == null)
+			return -1;
+		long transferId = stub(issuer).claimWrite(client, ticket, acceptEncoding, version);
+		if (transferId != 0)
+			issuers.remove(ticket);
+		if (transferId > 0)
+			issuers.put(transferId, issuer);
+		return transferId;
+	}
+
+	public FileGrant upgrade( String client, String filename, long version ) throws RemoteException {
+		return route(filename, shard -> shard.upgrade(client, filename, version));
+	}
+
+	public FileContents downgrade( String client, String filename ) throws RemoteException {
+		return route(filename, shard -> shard.downgrade(client, filename));
+	}
+
+	public boolean release( String client, String filename ) throws RemoteException {
+		return route(filename, shard -> shard.release(client, filename));
+	}
+
+	/**
+	 * sends a request to the shard of the file, following the shards that say
+	 * another one serves it
+	 * @throws RemoteException if the shard couldn't be reached or the file kept moving
+	 */
+	private <T> T route(String fileName, ShardCall<T> request) throws RemoteException {
+		String shard = ring.shardFor(fileName);
+		for (int hop = 1; ; hop++) {
+			try {
+				return request.call(stub(shard));
+			} catch (WrongShardException wse) {
+				shard = follow(wse, hop, fileName);
+			} catch (RemoteException re) {
+				stubs.remove(shard);
+				throw re;
+			}
+		}
+	}
+
+	/**
+	 * same as route, for requests that return the id of a transfer or a write ticket,
+	 * which is then remembered with the shard that handed it out
+	 */
+	private long issued(String fileName, ShardCall<Long> request) throws RemoteException {
+		String shard = ring.shardFor(fileName);
+		for (int hop = 1; ; hop++) {
+			try {
+				long id = request.call(stub(shard));
+				if (id > 0)
+					issuers.put(id, shard);
+				return id;
+			} catch (WrongShardException wse) {
+				shard = follow(wse, hop, fileName);
+			} catch (RemoteException re) {
+				stubs.remove(shard);
+				throw re;
+			}
+		}
+	}
+
+	/**
+	 * @return String the shard a redirect names, after reading the ring again from it
+	 * @throws RemoteException if the request was redirected too many times
+	 */
+	private String follow(WrongShardException wse, int hop, String fileName) throws RemoteException {
+		if (hop >= MAX_HOPS)
+			throw new RemoteException("Error: no shard serves " + fileName, wse);
+		refresh(wse.getShard());
+		return wse.getShard();
+	}
+
+	/**
+	 * reads the ring again from a shard, after a shard was added
+	 */
+	private void refresh(String shard) {
+		try {
+			List<String> shards = ((ShardInterface) stub(shard)).getShards();
+			if (!shards.isEmpty())
+				ring = HashRing.of(String.join(",", shards));
+		} catch (RemoteException | ClassCastException e) {
+			Log.warn("Could not read the shards from %s.", shard);
+		}
+	}
+
+	/**
+	 * @return ServerInterface the stub of the shard, looked up the first time
+	 * @throws RemoteException if the lookup went wrong
+	 */
+	private ServerInterface stub(String shard) throws RemoteException {
+		ServerInterface stub = stubs.get(shard);
+		if (stub != null)
+			return stub;
+		try {
+			stub = ( ServerInterface ) Naming.lookup( "rmi://" + shard + "/server" );
+		} catch (NotBoundException | java.net.MalformedURLException e) {
+			throw new RemoteException("Error: no shard at " + shard, e);
+		}
+		stubs.put(shard, stub);
+		return stub;
+	}
+}
@@ -0,0 +1,72 @@
+package dfs;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * This enum picks where the server keeps file contents, set with dfs.storage:
+ * "heap" keeps byte arrays on the Java heap,
+ * "direct" copies contents into direct buffers outside the heap,
+ * "mapped" maps files read from disk into memory and keeps uploaded contents
+ * in direct buffers until they are loaded from disk again,
+ * "dedup" splits contents into chunks shared between all files, see ChunkStore.
+ * Files of 2 GB or more are always mapped, as no array or buffer can hold them.
+ **/
+
+public enum StorageBackend {
+	HEAP,
+	DIRECT,
+	MAPPED,
+	DEDUP;
+
+	/**
+	 * @return StorageBackend the backend named by dfs.storage, heap by default
+	 */
+	public static StorageBackend fromProperty() {
+		return valueOf(System.getProperty("dfs.storage", "heap").toUpperCase());
+	}
+
+	/**
+	 * reads a file from disk into a store of this backend. A file of 2 GB or
+	 * more is mapped in segments whatever the backend, see SegmentedContentStore
+	 * @throws IOException if reading from a file went wrong
+	 */
+	public ContentStore load(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				return new SegmentedContentStore(channel, size);
+			if (this == HEAP)
+				return new HeapContentStore(Files.readAllBytes(path));
+			if (this == DEDUP)
+				return new DedupContentStore(Files.readAllBytes(path));
+			if (this == MAPPED)
+				return new BufferContentStore(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+
+			ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0)
+				;
+			buffer.flip();
+			return new BufferContentStore(buffer);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * puts uploaded content into a store of this backend
+	 */
+	public ContentStore wrap(byte[] content) {
+		if (this == HEAP)
+			return new HeapContentStore(content);
+		if (this == DEDUP)
+			return new DedupContentStore(content);
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(content.length);
+		buffer.put(content).flip();
+		return new BufferContentStore(buffer);
+	}
+}
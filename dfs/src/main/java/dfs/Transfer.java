@@ -0,0 +1,193 @@
+package dfs;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * This class keeps the server side state of one chunked transfer.
+ * A read transfer holds a snapshot of the entry's content, so all of its chunks
+ * come from the same version of the file even if an upload happens in between.
+ * A write transfer spools the received chunks to a temporary file next to the file,
+ * which the commit moves over it, so the server holds no more than one chunk of
+ * an upload at a time, whatever the size of the file.
+ **/
+
+public class Transfer {
+
+	private final long id;					// id handed to the client
+	private final String clientIp;			// client that opened the transfer
+	private final ServerEntry entry;		// file being transferred
+	private ContentStore snapshot;			// content being read, null for writes
+	private Path spoolFile;					// chunks received so far, null for reads
+	private FileChannel spool;
+	private long position;					// next expected offset of a write
+	private long lastAccess;				// used to drop abandoned transfers
+	private String encoding = FileContents.IDENTITY;	// how chunks are sent to the client
+	private long leaseMillis = -1;			// read lease granted with the content
+	private long version = -1;				// version of the snapshot
+	private boolean notModified;			// the client's copy is current, nothing to read
+
+	private Transfer(long id, String clientIp, ServerEntry entry) {
+		this.id = id;
+		this.clientIp = clientIp;
+		this.entry = entry;
+		touch();
+	}
+
+	/**
+	 * creates a transfer that reads the given content
+	 */
+	public static Transfer forRead(long id, String clientIp, ServerEntry entry, ContentStore content) {
+		Transfer transfer = new Transfer(id, clientIp, entry);
+		transfer.snapshot = content;
+		return transfer;
+	}
+
+	/**
+	 * creates a read transfer with no content, for a client whose copy
+	 * of the given version is still current
+	 */
+	public static Transfer notModified(long id, String clientIp, ServerEntry entry, long version) {
+		Transfer transfer = forRead(id, clientIp, entry, new HeapContentStore(new byte[0]));
+		transfer.version = version;
+		transfer.notModified = true;
+		return transfer;
+	}
+
+	/**
+	 * creates a transfer that receives new content into a temporary file
+	 * in the directory of the file, so that it can be renamed over it
+	 * @throws IOException if the temporary file couldn't be created
+	 */
+	public static Transfer forWrite(long id, String clientIp, ServerEntry entry) throws IOException {
+		Transfer transfer = new Transfer(id, clientIp, entry);
+		transfer.spoolFile = AtomicFileWriter.createTemp(Paths.get(entry.getFileName()));
+		transfer.spool = FileChannel.open(transfer.spoolFile, StandardOpenOption.WRITE);
+		return transfer;
+	}
+
+	/**
+	 * @return byte[] up to length bytes of the snapshot starting at offset,
+	 * an empty array once offset reaches the end of the file
+	 */
+	public synchronized byte[] read(long offset, int length) {
+		touch();
+		if (snapshot == null || offset < 0 || length < 0)
+			return null;
+		return snapshot.read(offset, length);
+	}
+
+	/**
+	 * appends a chunk to the spooled content. chunks must arrive in order
+	 * @return boolean false if the chunk is out of order or writing failed
+	 */
+	public synchronized boolean write(long offset, byte[] chunk) {
+		touch();
+		if (spool == null || offset != position)
+			return false;
+		try {
+			ByteBuffer data = ByteBuffer.wrap(chunk);
+			while (data.hasRemaining())
+				spool.write(data);
+			position += chunk.length;
+			return true;
+		} catch (IOException ie) {
+			Log.error("Error: when spooling chunk.");
+			return false;
+		}
+	}
+
+	/**
+	 * closes the spool. the file is deleted by discard unless it was moved before
+	 * @return Path the temporary file holding the received content
+	 * @throws IOException if closing the spool failed
+	 */
+	public synchronized Path finish() throws IOException {
+		spool.close();
+		spool = null;
+		return spoolFile;
+	}
+
+	/**
+	 * releases whatever the transfer holds
+	 */
+	public synchronized void discard() {
+		snapshot = null;
+		try {
+			if (spool != null)
+				spool.close();
+			if (spoolFile != null)
+				Files.deleteIfExists(spoolFile);
+		} catch (IOException ie) {
+			Log.error("Error: when discarding transfer.");
+		}
+		spool = null;
+	}
+
+	/**
+	 * @return boolean true if nothing happened on this transfer for maxIdleMillis
+	 */
+	public synchronized boolean isIdle(long now, long maxIdleMillis) {
+		return now - lastAccess > maxIdleMillis;
+	}
+
+	private void touch() {
+		lastAccess = System.currentTimeMillis();
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public String getClientIp() {
+		return clientIp;
+	}
+
+	public ServerEntry getEntry() {
+		return entry;
+	}
+
+	public String getEncoding() {
+		return encoding;
+	}
+
+	public void setEncoding(String encoding) {
+		this.encoding = encoding;
+	}
+
+	public boolean isRead() {
+		return snapshot != null;
+	}
+
+	/**
+	 * @return ContentStore the content being read, null for writes
+	 */
+	public ContentStore getSnapshot() {
+		return snapshot;
+	}
+
+	public long getLeaseMillis() {
+		return leaseMillis;
+	}
+
+	public void setLeaseMillis(long leaseMillis) {
+		this.leaseMillis = leaseMillis;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
+	/**
+	 * @return boolean true if the client's copy is current and there is nothing to read
+	 */
+	public boolean isNotModified() {
+		return notModified;
+	}
+}
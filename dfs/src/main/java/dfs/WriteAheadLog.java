@@ -0,0 +1,276 @@
+package dfs;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * This class is an append-only log of uploaded contents. An upload is appended
+ * and forced to disk before it is acknowledged, so it survives a crash even if the
+ * cached file was never written back. Uploads that arrive while another thread is
+ * forcing the log are forced together by the next sync (group commit).
+ *
+ * The log is split into numbered segments. The checkpointer rotates to a new segment,
+ * writes the dirty files back, and then deletes the old segments.
+ * At startup, replay() writes whatever the remaining segments hold back to the files.
+ * An upload that was moved into place on disk instead is logged with no content,
+ * so that the contents logged for the file before it are not replayed over it.
+ **/
+
+public class WriteAheadLog {
+
+	private static final int MAGIC = 0x4446534c;			// "DFSL", starts every record
+	private static final String PREFIX = "wal-";
+	private static final String SUFFIX = ".log";
+	private static final int SAVED = -1;					// content length of a record saying
+														// the file on disk is current
+
+	private final Path dir;						// directory of the segments
+	private final Object syncLock = new Object();	// held by the thread forcing the log
+	private FileChannel channel;				// current segment
+	private long segment;						// number of the current segment
+	private long appended;						// records appended so far
+	private long durable;						// records known to be on disk
+	private boolean torn;						// a failed append left part of a record
+												// in the current segment
+
+	/**
+	 * opens a new segment after the ones already in dir
+	 * @throws IOException if the directory or the segment couldn't be created
+	 */
+	public WriteAheadLog(Path dir) throws IOException {
+		this.dir = dir;
+		Files.createDirectories(dir);
+		List<Long> existing = segments(dir);
+		segment = existing.isEmpty() ? 0 : existing.get(existing.size() - 1);
+		channel = openSegment(++segment);
+	}
+
+	/**
+	 * appends the new content of a file and waits until it is on disk
+	 * @throws IOException if writing or forcing the log went wrong
+	 */
+	public void append(String fileName, byte[] content) throws IOException {
+		append(fileName, content, content.length);
+	}
+
+	/**
+	 * appends a record saying the file on disk holds its latest content,
+	 * because an upload replaced it there, and waits until it is on disk
+	 * @throws IOException if writing or forcing the log went wrong
+	 */
+	public void appendSaved(String fileName) throws IOException {
+		append(fileName, new byte[0], SAVED);
+	}
+
+	private void append(String fileName, byte[] content, int length) throws IOException {
+		byte[] name = fileName.getBytes(StandardCharsets.UTF_8);
+		CRC32 crc = new CRC32();
+		crc.update(name);
+		crc.update(content);
+
+		ByteBuffer header = ByteBuffer.allocate(12 + name.length);
+		header.putInt(MAGIC).putInt(name.length).put(name).putInt(length).flip();
+		ByteBuffer trailer = ByteBuffer.allocate(8);
+		trailer.putLong(crc.getValue()).flip();
+
+		ByteBuffer[] buffers = { header, ByteBuffer.wrap(content), trailer };
+		long record = -1;
+		while (record < 0) {
+			synchronized (this) {
+				if (!torn)
+					record = write(buffers);
+			}
+			if (record < 0)
+				rotate();				// records after a torn one would never be replayed
+		}
+		sync(record);
+	}
+
+	/**
+	 * writes a whole record at the end of the current segment. If that fails,
+	 * the segment is cut back to where the record started, since replay stops at
+	 * a torn record and would miss every record appended after it. If even that
+	 * fails, the segment is marked torn and the next append starts a new one.
+	 * the caller must hold this object's lock
+	 * @return long the number of the record
+	 * @throws IOException if the record couldn't be written
+	 */
+	private long write(ByteBuffer[] buffers) throws IOException {
+		long start = channel.size();
+		try {
+			ByteBuffer trailer = buffers[buffers.length - 1];
+			while (trailer.hasRemaining())
+				channel.write(buffers);
+		} catch (IOException ie) {
+			try {
+				channel.truncate(start);
+			} catch (IOException te) {
+				torn = true;
+			}
+			throw ie;
+		}
+		return ++appended;
+	}
+
+	/**
+	 * forces the log until the given record is on disk. Whoever gets the sync lock
+	 * forces everything appended so far, so the threads waiting behind it usually
+	 * find their record is durable already
+	 */
+	private void sync(long record) throws IOException {
+		synchronized (syncLock) {
+			if (durable >= record)
+				return;
+			long target;
+			FileChannel current;
+			synchronized (this) {
+				target = appended;
+				current = channel;
+			}
+			current.force(false);
+			durable = target;
+		}
+	}
+
+	/**
+	 * switches appends to a new segment
+	 * @return long number of the last segment that may hold records from before the call
+	 * @throws IOException if the new segment couldn't be created
+	 */
+	public long rotate() throws IOException {
+		synchronized (syncLock) {
+			synchronized (this) {
+				channel.force(false);
+				channel.close();
+				durable = appended;
+				channel = openSegment(++segment);
+				torn = false;
+				return segment - 1;
+			}
+		}
+	}
+
+	/**
+	 * deletes the segments up to and including the given one,
+	 * once everything they hold has been written back to the files
+	 */
+	public void truncate(long upTo) throws IOException {
+		for (long number : segments(dir)) {
+			if (number <= upTo)
+				Files.deleteIfExists(segmentPath(dir, number));
+		}
+	}
+
+	/**
+	 * closes the current segment
+	 */
+	public void close() throws IOException {
+		synchronized (syncLock) {
+			synchronized (this) {
+				channel.close();
+			}
+		}
+	}
+
+	/**
+	 * writes the last logged content of every file in the segments of dir back
+	 * to the file and then deletes the segments. A torn record at the end of a
+	 * segment, left by a crash in the middle of an append, ends that segment.
+	 * A file whose last record says it was saved is left as it is on disk
+	 * @return int number of records replayed
+	 * @throws IOException if a file couldn't be written back
+	 */
+	public static int replay(Path dir) throws IOException {
+		if (!Files.isDirectory(dir))
+			return 0;
+		List<Long> numbers = segments(dir);
+		LinkedHashMap<String, byte[]> latest = new LinkedHashMap<String, byte[]>();
+		int records = 0;
+		for (long number : numbers) {
+			long size = Files.size(segmentPath(dir, number));
+			DataInputStream input = new DataInputStream(new BufferedInputStream(
+				Files.newInputStream(segmentPath(dir, number))));
+			try {
+				while (true) {
+					String fileName;
+					byte[] content;
+					try {
+						if (input.readInt() != MAGIC)
+							break;
+						int nameLength = input.readInt();
+						if (nameLength < 0 || nameLength > size)
+							break;
+						byte[] name = new byte[nameLength];
+						input.readFully(name);
+						int contentLength = input.readInt();
+						if (contentLength < SAVED || contentLength > size)
+							break;
+						content = new byte[Math.max(contentLength, 0)];
+						input.readFully(content);
+						long expected = input.readLong();
+						CRC32 crc = new CRC32();
+						crc.update(name);
+						crc.update(content);
+						if (crc.getValue() != expected)
+							break;
+						fileName = new String(name, StandardCharsets.UTF_8);
+						if (contentLength == SAVED)
+							content = null;
+					} catch (EOFException e) {
+						break;
+					}
+					latest.put(fileName, content);
+					records++;
+				}
+			} finally {
+				input.close();
+			}
+		}
+
+		for (Map.Entry<String, byte[]> e : latest.entrySet())
+			if (e.getValue() != null)
+				AtomicFileWriter.write(Paths.get(e.getKey()), ByteBuffer.wrap(e.getValue()), true);
+		for (long number : numbers)
+			Files.deleteIfExists(segmentPath(dir, number));
+		return records;
+	}
+
+	/**
+	 * opens a segment for appending. package private, so that tests can make writes fail
+	 */
+	FileChannel openSegment(long number) throws IOException {
+		return FileChannel.open(segmentPath(dir, number),
+			StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	private static Path segmentPath(Path dir, long number) {
+		return dir.resolve(PREFIX + String.format("%019d", number) + SUFFIX);
+	}
+
+	/**
+	 * @return List<Long> numbers of the segments in dir, in order
+	 */
+	private static List<Long> segments(Path dir) throws IOException {
+		ArrayList<Long> numbers = new ArrayList<Long>();
+		DirectoryStream<Path> stream = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX);
+		try {
+			for (Path path : stream) {
+				String name = path.getFileName().toString();
+				try {
+					numbers.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+				} catch (NumberFormatException e) {
+					// not one of ours
+				}
+			}
+		} finally {
+			stream.close();
+		}
+		Collections.sort(numbers);
+		return numbers;
+	}
+}
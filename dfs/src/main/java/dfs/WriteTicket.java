@@ -0,0 +1,107 @@
+package dfs;
+
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+
+/**
+ * This class is one writer waiting in a file's writer queue.
+ * A blocking writer parks its thread on a Condition of the entry lock until its turn.
+ * A queued writer parks no thread at all: when its turn comes, the entry calls
+ * onTurn, which hands the grant to another thread, and the client is called back.
+ **/
+
+public class WriteTicket {
+
+	private final long id;						// handed to the client, 0 for blocking writers
+	private final String clientIp;				// client waiting to write
+	private final ServerEntry entry;			// file it waits for
+	private final Condition turn;				// blocking writers only
+	private final Consumer<WriteTicket> onTurn;	// queued writers only, must not block
+	private volatile boolean granted;			// the client owns the file now
+	private final long queuedAt = System.nanoTime();
+	private volatile long lastAccess = System.currentTimeMillis();	// used to drop abandoned tickets
+
+	private WriteTicket(long id, String clientIp, ServerEntry entry,
+						Condition turn, Consumer<WriteTicket> onTurn) {
+		this.id = id;
+		this.clientIp = clientIp;
+		this.entry = entry;
+		this.turn = turn;
+		this.onTurn = onTurn;
+	}
+
+	/**
+	 * creates a ticket for a writer whose thread waits on turn
+	 */
+	public static WriteTicket blocking(String clientIp, ServerEntry entry, Condition turn) {
+		return new WriteTicket(0, clientIp, entry, turn, null);
+	}
+
+	/**
+	 * creates a ticket for a writer that doesn't wait, onTurn is called when it is first in line
+	 */
+	public static WriteTicket queued(long id, String clientIp, ServerEntry entry,
+									 Consumer<WriteTicket> onTurn) {
+		return new WriteTicket(id, clientIp, entry, null, onTurn);
+	}
+
+	/**
+	 * tells the writer it is first in line. the caller must hold the entry's lock
+	 */
+	public void signal() {
+		if (turn != null)
+			turn.signal();
+		else
+			onTurn.accept(this);
+	}
+
+	/**
+	 * waits until signaled, or for at most millis, for blocking writers.
+	 * the caller must hold the entry's lock
+	 */
+	public void await(long millis) throws InterruptedException {
+		turn.await(millis, TimeUnit.MILLISECONDS);
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public String getClientIp() {
+		return clientIp;
+	}
+
+	public ServerEntry getEntry() {
+		return entry;
+	}
+
+	/**
+	 * @return long System.nanoTime() when the ticket was created
+	 */
+	public long getQueuedAt() {
+		return queuedAt;
+	}
+
+	/**
+	 * records that the client asked about the ticket, so it isn't abandoned
+	 */
+	public void touch() {
+		lastAccess = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return boolean true if the client didn't ask about the ticket for maxIdleMillis
+	 */
+	public boolean isIdle(long now, long maxIdleMillis) {
+		return now - lastAccess > maxIdleMillis;
+	}
+
+	public boolean isGranted() {
+		return granted;
+	}
+
+	public void setGranted() {
+		granted = true;
+	}
+}
@@ -0,0 +1,25 @@
+package dfs;
+
+/**
+ * This exception is thrown by a shard that is asked for a file it doesn't serve.
+ * It names the shard to ask instead, which the client retries at after
+ * refreshing its ring. A replica throws it too, naming its primary, for
+ * writes and for reads while it is too far behind.
+ **/
+
+public class WrongShardException extends RuntimeException {
+
+	private final String shard;		// "host:port" of the shard that serves the file
+
+	public WrongShardException(String fileName, String shard) {
+		super("Error: " + fileName + " is served by " + shard);
+		this.shard = shard;
+	}
+
+	/**
+	 * @return String the shard that serves the file
+	 */
+	public String getShard() {
+		return shard;
+	}
+}
@@ -0,0 +1,75 @@
+package dfs;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+class ClientCacheTest {
+
+	@TempDir
+	Path dir;
+
+	private ClientCacheEntry entry(String name, int size, FileClient.ClientFileState state) throws IOException {
+		Path path = Files.write(dir.resolve(name), new byte[size]);
+		ClientCacheEntry entry = new ClientCacheEntry("/" + name, path.toString());
+		entry.state = state;
+		entry.doneWriting = true;
+		return entry;
+	}
+
+	private static List<String> names(List<ClientCacheEntry> entries) {
+		List<String> names = new ArrayList<String>();
+		for (ClientCacheEntry entry : entries)
+			names.add(entry.fileName);
+		return names;
+	}
+
+	@Test
+	void evictsLeastRecentlyUsedUntilWithinBudget() throws IOException {
+		ClientCache cache = new ClientCache(250);
+		cache.put(entry("a", 100, FileClient.ClientFileState.READ_SHARED));
+		cache.put(entry("b", 100, FileClient.ClientFileState.READ_SHARED));
+		cache.put(entry("c", 100, FileClient.ClientFileState.READ_SHARED));
+		assertEquals(Arrays.asList("/a"), names(cache.victims(null)));
+
+		cache.get("/a");						// a is now the most recently used
+		assertEquals(Arrays.asList("/b"), names(cache.victims(null)));
+
+		cache.peek("/b");						// peeking doesn't count as a use
+		assertEquals(Arrays.asList("/b"), names(cache.victims(null)));
+	}
+
+	@Test
+	void neverEvictsKeptOwnedOrOpenFiles() throws IOException {
+		ClientCache cache = new ClientCache(100);
+		ClientCacheEntry owned = entry("owned", 100, FileClient.ClientFileState.WRITE_OWNED);
+		ClientCacheEntry open = entry("open", 100, FileClient.ClientFileState.READ_SHARED);
+		open.doneWriting = false;
+		ClientCacheEntry kept = entry("kept", 100, FileClient.ClientFileState.READ_SHARED);
+		ClientCacheEntry old = entry("old", 100, FileClient.ClientFileState.READ_SHARED);
+		cache.put(owned);
+		cache.put(open);
+		cache.put(kept);
+		cache.put(old);
+		cache.put(entry("new", 100, FileClient.ClientFileState.READ_SHARED));
+
+		assertEquals(Arrays.asList("/old", "/new"), names(cache.victims(kept)));
+	}
+
+	@Test
+	void computeIfAbsentAddsAnEntryOnlyOnce() throws IOException {
+		ClientCache cache = new ClientCache(1000);
+		ClientCacheEntry first = cache.computeIfAbsent("/a", name -> new ClientCacheEntry(name, dir.resolve("a").toString()));
+		ClientCacheEntry second = cache.computeIfAbsent("/a", name -> fail("a is cached already"));
+		assertSame(first, second);
+		assertSame(first, cache.peek("/a"));
+
+		cache.remove(first);
+		assertNull(cache.peek("/a"));
+		assertTrue(cache.entries().isEmpty());
+	}
+}
@@ -0,0 +1,157 @@
+package dfs;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.ServerSocket;
+import java.rmi.*;
+import java.rmi.registry.*;
+import java.rmi.server.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.*;
+
+class ClientStubCacheTest {
+
+	/*
+	a client that answers every call, or fails them all with the given exception
+	*/
+	static class Client implements ClientInterface {
+		final RemoteException failure;
+		int invalidations;
+
+		Client(RemoteException failure) {
+			this.failure = failure;
+		}
+
+		public boolean invalidate( String filename ) throws RemoteException {
+			if (failure != null)
+				throw failure;
+			invalidations++;
+			return true;
+		}
+
+		public boolean writeback( String filename ) throws RemoteException {
+			return invalidate(filename);
+		}
+
+		public boolean ping( ) throws RemoteException {
+			return invalidate("ping");
+		}
+
+		public boolean writeGranted( String filename, long ticket ) throws RemoteException {
+			return invalidate(filename);
+		}
+	}
+
+	/*
+	a client that never answers until it is released
+	*/
+	static class HungClient extends Client {
+		final CountDownLatch released = new CountDownLatch(1);
+
+		HungClient() {
+			super(null);
+		}
+
+		public boolean invalidate( String filename ) throws RemoteException {
+			try {
+				released.await();
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+			return true;
+		}
+	}
+
+	private static Registry registry;
+	private static Client exported;
+	private static String registered;		// "host:port" of the exported client
+
+	@BeforeAll
+	static void exportClient() throws Exception {
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		registry = LocateRegistry.createRegistry(port);
+		exported = new Client(null);
+		registry.rebind("client", UnicastRemoteObject.exportObject(exported, 0));
+		registered = "localhost:" + port;
+	}
+
+	@AfterAll
+	static void unexportClient() throws Exception {
+		UnicastRemoteObject.unexportObject(exported, true);
+		UnicastRemoteObject.unexportObject(registry, true);
+	}
+
+	@Test
+	void reusesLookedUpStubsUntilTheyExpire() throws Exception {
+		ClientStubCache cached = new ClientStubCache(0, 60 * 1000);
+		assertSame(cached.get(registered), cached.get(registered));
+
+		ClientStubCache expiring = new ClientStubCache(0, 0);
+		ClientInterface first = expiring.get(registered);
+		assertNotSame(first, expiring.get(registered));		// looked up again
+		expiring.checkHealth();
+		assertEquals(0, expiring.size());
+	}
+
+	@Test
+	void evictsTheStubWhenACallFails() throws Exception {
+		ClientStubCache stubs = new ClientStubCache(0, 60 * 1000);
+		stubs.register("a", new Client(new RemoteException("broken")));
+		assertThrows(RemoteException.class, () -> stubs.invoke("a", client -> client.invalidate("f")));
+		assertEquals(0, stubs.size());
+	}
+
+	@Test
+	void retriesAStaleStubWithAFreshOne() throws Exception {
+		ClientStubCache stubs = new ClientStubCache(0, 60 * 1000);
+		stubs.register(registered, new Client(new NoSuchObjectException("restarted")));
+		int before = exported.invalidations;
+		assertTrue(stubs.<Boolean>invoke(registered, client -> client.invalidate("f")));
+		assertEquals(before + 1, exported.invalidations);
+		assertEquals(1, stubs.size());
+	}
+
+	@Test
+	void healthCheckDropsClientsThatDontAnswer() throws Exception {
+		ClientStubCache stubs = new ClientStubCache(0, 60 * 1000);
+		stubs.register("alive", new Client(null));
+		stubs.register("dead", new Client(new ConnectException("gone")));
+		stubs.checkHealth();
+		assertEquals(1, stubs.size());
+		assertTrue(stubs.<Boolean>invoke("alive", client -> client.ping()));
+	}
+
+	@Test
+	void keepsAStubThatReplacedTheEvictedOne() throws Exception {
+		ClientStubCache stubs = new ClientStubCache(0, 60 * 1000);
+		Client old = new Client(null);
+		stubs.register("a", old);
+		stubs.register("a", new Client(null));
+		stubs.evict("a", old);
+		assertEquals(1, stubs.size());
+	}
+
+	@Test
+	void dropsClientsThatDontAnswerInTime() throws Exception {
+		ClientStubCache stubs = new ClientStubCache(0, 60 * 1000, 100);
+		HungClient hung = new HungClient();
+		try {
+			stubs.register("hung", hung);
+			long start = System.currentTimeMillis();
+			assertThrows(RemoteException.class, () -> stubs.invoke("hung", client -> client.invalidate("f")));
+			assertTrue(System.currentTimeMillis() - start < 5000);
+			assertEquals(0, stubs.size());
+
+			stubs.register("hung", hung);
+			stubs.register("alive", new Client(null));
+			stubs.checkHealth();
+			assertEquals(1, stubs.size());
+			assertTrue(stubs.<Boolean>invoke("alive", client -> client.invalidate("f")));
+		} finally {
+			hung.released.countDown();
+		}
+	}
+}
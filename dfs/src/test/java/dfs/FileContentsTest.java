@@ -0,0 +1,63 @@
+package dfs;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.reflect.*;
+import java.time.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+
+class FileContentsTest {
+
+	private static byte[] text(int size) {
+		byte[] text = new byte[size];
+		for (int i = 0; i < size; i++)
+			text[i] = (byte) ('a' + i % 7);
+		return text;
+	}
+
+	/*
+	replaces the bytes a FileContents carries, as a bad client or a broken link would
+	*/
+	private static void setField(FileContents contents, String name, Object value) throws ReflectiveOperationException {
+		Field field = FileContents.class.getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(contents, value);
+	}
+
+	private static Object getField(FileContents contents, String name) throws ReflectiveOperationException {
+		Field field = FileContents.class.getDeclaredField(name);
+		field.setAccessible(true);
+		return field.get(contents);
+	}
+
+	@Test
+	void deflatedContentsRoundTrip() {
+		byte[] text = text(100000);
+		FileContents contents = FileContents.encode(text, FileContents.DEFLATE);
+
+		assertEquals(FileContents.DEFLATE, contents.getEncoding());
+		assertTrue(contents.encodedSize() < text.length);
+		assertArrayEquals(text, contents.get(text.length));
+	}
+
+	@Test
+	void truncatedDeflatedContentsAreRejected() throws ReflectiveOperationException {
+		FileContents contents = FileContents.encode(text(100000), FileContents.DEFLATE);
+		byte[] deflated = (byte[]) getField(contents, "contents");
+		setField(contents, "contents", Arrays.copyOf(deflated, deflated.length / 2));
+
+		assertTimeoutPreemptively(Duration.ofSeconds(5),
+			() -> assertThrows(IllegalStateException.class, contents::get));
+	}
+
+	@Test
+	void lengthBeyondTheLimitIsRejectedBeforeInflating() throws ReflectiveOperationException {
+		FileContents contents = FileContents.encode(text(100000), FileContents.DEFLATE);
+
+		assertThrows(IllegalStateException.class, () -> contents.get(1000));
+
+		setField(contents, "length", Integer.MAX_VALUE - 8);
+		assertThrows(IllegalStateException.class, contents::get);
+	}
+}
@@ -0,0 +1,89 @@
+package dfs;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+
+class FileDeltaTest {
+
+	private static final int BLOCK_SIZE = 512;
+
+	private static byte[] content(int size, long seed) {
+		byte[] content = new byte[size];
+		new Random(seed).nextBytes(content);
+		return content;
+	}
+
+	private static FileDelta diff(byte[] base, byte[] target) throws IOException {
+		return BlockSignatures.of(new ByteArrayInputStream(base), BLOCK_SIZE).diff(target);
+	}
+
+	@Test
+	void rebuildsEditedContentFromBlocksAndLiterals() throws IOException {
+		byte[] base = content(20 * BLOCK_SIZE + 100, 1);
+		ByteArrayOutputStream edited = new ByteArrayOutputStream();
+		edited.write(base, 0, 5 * BLOCK_SIZE + 7);
+		edited.write("inserted in the middle".getBytes());
+		edited.write(base, 5 * BLOCK_SIZE + 7, base.length - 5 * BLOCK_SIZE - 7 - 50);
+		edited.write(content(80, 2));				// a new tail
+		byte[] target = edited.toByteArray();
+
+		FileDelta delta = diff(base, target);
+
+		assertTrue(delta.matches(base));
+		assertArrayEquals(target, delta.apply(base));
+		assertEquals(target.length, delta.getLength());
+		assertTrue(delta.size() < 4 * BLOCK_SIZE, "only changed blocks travel, got " + delta.size());
+	}
+
+	@Test
+	void rebuildsUnchangedAndEmptyContent() throws IOException {
+		byte[] base = content(8 * BLOCK_SIZE, 3);
+		assertArrayEquals(base, diff(base, base).apply(base));
+		assertArrayEquals(new byte[0], diff(base, new byte[0]).apply(base));
+		assertArrayEquals(base, diff(new byte[0], base).apply(new byte[0]));
+	}
+
+	@Test
+	void doesNotMatchOtherContent() throws IOException {
+		byte[] base = content(4 * BLOCK_SIZE, 4);
+		assertFalse(diff(base, base).matches(content(4 * BLOCK_SIZE, 5)));
+	}
+
+	@Test
+	void rejectsBlocksTheBaseDoesNotHave() {
+		byte[] base = content(2 * BLOCK_SIZE, 6);
+		FileDelta delta = new FileDelta(BLOCK_SIZE, FileDelta.md5(base), BLOCK_SIZE,
+			new int[] {2}, Collections.<byte[]>emptyList());
+		assertThrows(IllegalArgumentException.class, () -> delta.apply(base));
+	}
+
+	@Test
+	void rejectsMissingLiterals() {
+		byte[] base = content(BLOCK_SIZE, 7);
+		FileDelta delta = new FileDelta(BLOCK_SIZE, FileDelta.md5(base), 10,
+			new int[] {-2}, Collections.singletonList(new byte[10]));
+		assertThrows(IllegalArgumentException.class, () -> delta.apply(base));
+	}
+
+	@Test
+	void rejectsOperationsLongerThanTheContent() {
+		byte[] base = content(BLOCK_SIZE, 8);
+		FileDelta literal = new FileDelta(BLOCK_SIZE, FileDelta.md5(base), 4,
+			new int[] {-1}, Collections.singletonList(new byte[10]));
+		FileDelta block = new FileDelta(BLOCK_SIZE, FileDelta.md5(base), 4,
+			new int[] {0}, Collections.<byte[]>emptyList());
+		assertThrows(IllegalArgumentException.class, () -> literal.apply(base));
+		assertThrows(IllegalArgumentException.class, () -> block.apply(base));
+	}
+
+	@Test
+	void rejectsOperationsShorterThanTheContent() {
+		byte[] base = content(BLOCK_SIZE, 9);
+		FileDelta delta = new FileDelta(BLOCK_SIZE, FileDelta.md5(base), BLOCK_SIZE + 1,
+			new int[] {0}, Collections.<byte[]>emptyList());
+		assertThrows(IllegalArgumentException.class, () -> delta.apply(base));
+	}
+}
@@ -0,0 +1,64 @@
+package dfs;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.*;
+
+class HashRingTest {
+
+	private static final int FILES = 20000;
+
+	private static String file(int i) {
+		return "/home/user/dir" + (i % 50) + "/file" + i + ".txt";
+	}
+
+	@Test
+	void placesEqualNamesOnTheSameShard() {
+		HashRing ring = HashRing.of("a:1, b:2,c:3");
+		assertEquals(Arrays.asList("a:1", "b:2", "c:3"), ring.shards());
+		assertEquals(ring.shardFor("/x/y.txt"), ring.shardFor("/x/./y.txt"));
+		assertEquals(ring.shardFor("/x/y.txt"), HashRing.of("a:1,b:2,c:3").shardFor("/x/y.txt"));
+		assertNull(new HashRing(8).shardFor("/x/y.txt"));
+	}
+
+	@Test
+	void spreadsFilesEvenly() {
+		HashRing ring = HashRing.of("a:1,b:2,c:3,d:4");
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (int i = 0; i < FILES; i++)
+			counts.merge(ring.shardFor(file(i)), 1, Integer::sum);
+		for (String shard : ring.shards()) {
+			int count = counts.getOrDefault(shard, 0);
+			assertTrue(count > FILES / 4 * 0.7 && count < FILES / 4 * 1.3, shard + " got " + count);
+		}
+	}
+
+	@Test
+	void addingAShardOnlyMovesFilesToIt() {
+		HashRing before = HashRing.of("a:1,b:2,c:3");
+		HashRing after = HashRing.of("a:1,b:2,c:3");
+		after.add("d:4");
+		int moved = 0;
+		for (int i = 0; i < FILES; i++) {
+			String from = before.shardFor(file(i));
+			String to = after.shardFor(file(i));
+			if (!from.equals(to)) {
+				assertEquals("d:4", to);
+				moved++;
+			}
+		}
+		assertTrue(moved > FILES / 4 * 0.7 && moved < FILES / 4 * 1.3, moved + " files moved");
+	}
+
+	@Test
+	void withoutGivesTheRingBeforeAShardJoined() {
+		HashRing ring = HashRing.of("a:1,b:2");
+		HashRing previous = ring.without("c:3");
+		ring.add("c:3");
+		HashRing back = ring.without("c:3");
+		assertFalse(back.contains("c:3"));
+		for (int i = 0; i < 1000; i++)
+			assertEquals(previous.shardFor(file(i)), back.shardFor(file(i)));
+	}
+}
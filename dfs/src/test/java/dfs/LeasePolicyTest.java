@@ -0,0 +1,41 @@
+package dfs;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.*;
+
+class LeasePolicyTest {
+
+	@Test
+	void longestMatchingPrefixWins() {
+		LeasePolicy policy = new LeasePolicy(100, "/logs/=0, /shared/=5000,/shared/config.txt=30000");
+		assertEquals(0, policy.leaseMillis("/logs/today.txt"));
+		assertEquals(5000, policy.leaseMillis("/shared/notes.txt"));
+		assertEquals(30000, policy.leaseMillis("/shared/config.txt"));
+		assertEquals(100, policy.leaseMillis("/home/a.txt"));
+		assertEquals(100, policy.leaseMillis("/shared"));
+	}
+
+	@Test
+	void skipsPrefixesThatSortBetween() {
+		// "/a/b" sorts between "/a/" and "/a/c/x", but doesn't match it
+		LeasePolicy policy = new LeasePolicy(0, "/a/=10,/a/b=20");
+		assertEquals(10, policy.leaseMillis("/a/c/x"));
+		assertEquals(20, policy.leaseMillis("/a/b/x"));
+	}
+
+	@Test
+	void isEnabledOnlyIfSomeFileGetsALease() {
+		assertFalse(new LeasePolicy(0, "").isEnabled());
+		assertFalse(new LeasePolicy(0, "/logs/=0").isEnabled());
+		assertTrue(new LeasePolicy(0, "/shared/=10").isEnabled());
+		assertTrue(new LeasePolicy(10, "").isEnabled());
+	}
+
+	@Test
+	void rejectsPairsWithoutALength() {
+		assertThrows(IllegalArgumentException.class, () -> new LeasePolicy(0, "/shared/"));
+		assertThrows(IllegalArgumentException.class, () -> new LeasePolicy(0, "=10"));
+		assertThrows(NumberFormatException.class, () -> new LeasePolicy(0, "/shared/=soon"));
+	}
+}
@@ -0,0 +1,53 @@
+package dfs;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.file.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+class SegmentedContentStoreTest {
+
+	private static final long GB = 1L << 30;
+
+	@TempDir
+	Path dir;
+
+	/**
+	 * @return Path a sparse file of the given size with text written at offset
+	 */
+	private Path sparseFile(long size, long offset, byte[] text) throws IOException {
+		Path file = dir.resolve("large.bin");
+		RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw");
+		try {
+			raf.setLength(size);
+			raf.seek(offset);
+			raf.write(text);
+		} finally {
+			raf.close();
+		}
+		return file;
+	}
+
+	@Test
+	void mapsFilesTooLargeForAnArrayWhateverTheBackend() throws IOException {
+		byte[] text = "across the segment boundary".getBytes();
+		Path file = sparseFile(2 * GB + 10, GB - 6, text);
+
+		for (StorageBackend backend : StorageBackend.values()) {
+			ContentStore content = backend.load(file);
+			assertTrue(content instanceof SegmentedContentStore, backend.name());
+			assertEquals(2 * GB + 10, content.size());
+			assertArrayEquals(text, content.read(GB - 6, text.length));
+		}
+	}
+
+	@Test
+	void readsStopAtTheEnd() throws IOException {
+		ContentStore content = StorageBackend.HEAP.load(sparseFile(2 * GB + 10, 2 * GB, new byte[] {1, 2, 3}));
+		assertArrayEquals(new byte[] {1, 2, 3, 0, 0, 0, 0, 0, 0, 0}, content.read(2 * GB, 64));
+		assertEquals(0, content.read(2 * GB + 10, 64).length);
+		assertThrows(UnsupportedOperationException.class, () -> content.toByteArray());
+	}
+}
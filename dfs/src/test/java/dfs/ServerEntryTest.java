@@ -0,0 +1,58 @@
+package dfs;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+class ServerEntryTest {
+
+	@TempDir
+	Path dir;
+
+	private ServerEntry entry;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		entry = new ServerEntry(Files.write(dir.resolve("f.txt"), "0123456789".getBytes()).toString());
+	}
+
+	@Test
+	void rangesNobodyUploadsToAreDropped() {
+		ByteRange idle = new ByteRange("crashed", 0, 5);
+		ByteRange other = new ByteRange("crashed too", 5, 5);
+		entry.lock();
+		try {
+			entry.addRange(idle);
+			entry.addRange(other);
+			long now = System.currentTimeMillis();
+
+			assertEquals(Collections.emptyList(), entry.dropIdleRanges(now, 60 * 1000));
+			assertEquals(List.of(idle, other), entry.dropIdleRanges(now + 2000, 1000));
+			assertFalse(entry.hasRanges());
+			assertTrue(entry.isFreeFor("someone else"));
+		} finally {
+			entry.unlock();
+		}
+	}
+
+	@Test
+	void uploadingKeepsARangeAlive() throws InterruptedException {
+		ByteRange range = new ByteRange("alive", 0, 5);
+		entry.lock();
+		try {
+			entry.addRange(range);
+			Thread.sleep(20);
+			assertSame(range, entry.heldRange("alive", 1, 3));
+			range.touch();
+
+			assertEquals(Collections.emptyList(), entry.dropIdleRanges(System.currentTimeMillis(), 10));
+			assertTrue(entry.holdsRange("alive", 0, 5));
+		} finally {
+			entry.unlock();
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package dfs;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+class WriteAheadLogTest {
+
+	/*
+	a segment whose writes write a few bytes and then fail while failWrites is set,
+	and whose truncate fails while failTruncate is set
+	*/
+	static class FailingChannel extends FileChannel {
+		final FileChannel segment;
+		final AtomicBoolean failWrites;
+		final AtomicBoolean failTruncate;
+
+		FailingChannel(FileChannel segment, AtomicBoolean failWrites, AtomicBoolean failTruncate) {
+			this.segment = segment;
+			this.failWrites = failWrites;
+			this.failTruncate = failTruncate;
+		}
+
+		public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+			if (!failWrites.get())
+				return segment.write(srcs, offset, length);
+			ByteBuffer part = srcs[offset].duplicate();
+			part.limit(part.position() + 6);
+			segment.write(part);
+			throw new IOException("No space left on device");
+		}
+
+		public int write(ByteBuffer src) throws IOException {
+			return (int) write(new ByteBuffer[] { src }, 0, 1);
+		}
+
+		public FileChannel truncate(long size) throws IOException {
+			if (failTruncate.get())
+				throw new IOException("Input/output error");
+			segment.truncate(size);
+			return this;
+		}
+
+		public int read(ByteBuffer dst) throws IOException { return segment.read(dst); }
+		public long read(ByteBuffer[] dsts, int offset, int length) throws IOException { return segment.read(dsts, offset, length); }
+		public long position() throws IOException { return segment.position(); }
+		public FileChannel position(long newPosition) throws IOException { segment.position(newPosition); return this; }
+		public long size() throws IOException { return segment.size(); }
+		public void force(boolean metaData) throws IOException { segment.force(metaData); }
+		public long transferTo(long position, long count, WritableByteChannel target) throws IOException { return segment.transferTo(position, count, target); }
+		public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException { return segment.transferFrom(src, position, count); }
+		public int read(ByteBuffer dst, long position) throws IOException { return segment.read(dst, position); }
+		public int write(ByteBuffer src, long position) throws IOException { return segment.write(src, position); }
+		public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException { return segment.map(mode, position, size); }
+		public FileLock lock(long position, long size, boolean shared) throws IOException { return segment.lock(position, size, shared); }
+		public FileLock tryLock(long position, long size, boolean shared) throws IOException { return segment.tryLock(position, size, shared); }
+		protected void implCloseChannel() throws IOException { segment.close(); }
+	}
+
+	@TempDir
+	Path dir;
+
+	private Path logDir;
+	private Path a;
+	private Path b;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		logDir = dir.resolve("wal");
+		a = Files.write(dir.resolve("a.txt"), bytes("a on disk"));
+		b = Files.write(dir.resolve("b.txt"), bytes("b on disk"));
+	}
+
+	private static byte[] bytes(String text) {
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String read(Path file) throws IOException {
+		return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+	}
+
+	private List<Path> segments() throws IOException {
+		try (Stream<Path> files = Files.list(logDir)) {
+			return files.sorted().collect(Collectors.toList());
+		}
+	}
+
+	private void log(Path file, String... contents) throws IOException {
+		WriteAheadLog log = new WriteAheadLog(logDir);
+		try {
+			for (String content : contents)
+				log.append(file.toString(), bytes(content));
+		} finally {
+			log.close();
+		}
+	}
+
+	@Test
+	void replayWritesTheLastContentOfEveryFile() throws IOException {
+		WriteAheadLog log = new WriteAheadLog(logDir);
+		log.append(a.toString(), bytes("a 1"));
+		log.append(b.toString(), bytes("b 1"));
+		log.append(a.toString(), bytes("a 2"));
+		log.close();
+
+		assertEquals(3, WriteAheadLog.replay(logDir));
+		assertEquals("a 2", read(a));
+		assertEquals("b 1", read(b));
+		assertTrue(segments().isEmpty(), "replayed segments are deleted");
+		assertEquals(0, WriteAheadLog.replay(logDir));
+	}
+
+	@Test
+	void replayReadsEverySegment() throws IOException {
+		log(a, "a 1");
+		log(a, "a 2", "a 3");				// a new log opens a segment after the old one
+
+		assertEquals(2, segments().size());
+		assertEquals(3, WriteAheadLog.replay(logDir));
+		assertEquals("a 3", read(a));
+	}
+
+	@Test
+	void tornRecordAtTheEndIsIgnored() throws IOException {
+		log(a, "a 1", "a 2 that was being appended when the server crashed");
+		Path segment = segments().get(0);
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 5);		// cuts into the checksum of the last record
+		}
+
+		assertEquals(1, WriteAheadLog.replay(logDir));
+		assertEquals("a 1", read(a));
+	}
+
+	@Test
+	void failedAppendDoesNotHideTheRecordsAfterIt() throws IOException {
+		AtomicBoolean failWrites = new AtomicBoolean();
+		AtomicBoolean failTruncate = new AtomicBoolean();
+		WriteAheadLog log = new WriteAheadLog(logDir) {
+			FileChannel openSegment(long number) throws IOException {
+				return new FailingChannel(super.openSegment(number), failWrites, failTruncate);
+			}
+		};
+		log.append(a.toString(), bytes("a 1"));
+		failWrites.set(true);
+		assertThrows(IOException.class, () -> log.append(b.toString(), bytes("b 1, never acknowledged")));
+		failWrites.set(false);
+		log.append(a.toString(), bytes("a 2"));
+		log.close();
+
+		assertEquals(1, segments().size());
+		assertEquals(2, WriteAheadLog.replay(logDir));
+		assertEquals("a 2", read(a));
+		assertEquals("b on disk", read(b));
+	}
+
+	@Test
+	void appendsGoToANewSegmentIfATornRecordCantBeCut() throws IOException {
+		AtomicBoolean failWrites = new AtomicBoolean();
+		AtomicBoolean failTruncate = new AtomicBoolean();
+		WriteAheadLog log = new WriteAheadLog(logDir) {
+			FileChannel openSegment(long number) throws IOException {
+				return new FailingChannel(super.openSegment(number), failWrites, failTruncate);
+			}
+		};
+		log.append(a.toString(), bytes("a 1"));
+		failWrites.set(true);
+		failTruncate.set(true);
+		assertThrows(IOException.class, () -> log.append(b.toString(), bytes("b 1, never acknowledged")));
+		failWrites.set(false);
+		log.append(a.toString(), bytes("a 2"));
+		log.close();
+
+		assertEquals(2, segments().size());
+		assertEquals(2, WriteAheadLog.replay(logDir));
+		assertEquals("a 2", read(a));
+		assertEquals("b on disk", read(b));
+	}
+
+	@Test
+	void recordWithABadChecksumEndsTheSegment() throws IOException {
+		log(a, "a 1", "a 2");
+		Path segment = segments().get(0);
+		byte[] log = Files.readAllBytes(segment);
+		log[log.length - 10] ^= 1;				// a byte of the last content
+		Files.write(segment, log);
+
+		assertEquals(1, WriteAheadLog.replay(logDir));
+		assertEquals("a 1", read(a));
+	}
+
+	@Test
+	void fileSavedAfterItsLastContentIsLeftAlone() throws IOException {
+		WriteAheadLog log = new WriteAheadLog(logDir);
+		log.append(a.toString(), bytes("a 1"));
+		log.append(b.toString(), bytes("b 1"));
+		Files.write(a, bytes("a 2 moved into place"));
+		log.appendSaved(a.toString());
+		log.close();
+
+		assertEquals(3, WriteAheadLog.replay(logDir));
+		assertEquals("a 2 moved into place", read(a));
+		assertEquals("b 1", read(b));
+	}
+
+	@Test
+	void missingLogReplaysNothing() throws IOException {
+		assertEquals(0, WriteAheadLog.replay(dir.resolve("none")));
+		assertEquals("a on disk", read(a));
+	}
+}
@@ -1,2 +1 @@
-rmic FileClient
-java FileClient $1 $2
+java -cp dfs/target/classes dfs.FileClient $1 $2
@@ -1,2 +1 @@
-rmic FileServer
-java FileServer $1
+java -cp dfs/target/classes dfs.FileServer $1